@@ -1,30 +1,58 @@
 import java.awt.*;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.List;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 
 public class LibraryGUI extends JFrame {
+    private static final LibraryMetrics.Timer SEARCH_TIMER = LibraryMetrics.timer("gui.search");
+    private static final LibraryMetrics.Timer CHANGES_TIMER = LibraryMetrics.timer("gui.applyChanges");
+    // rows shown by the type-ahead pickers
+    private static final int PICKER_MATCHES = 20;
 
     private Library library; 
     private JTable booksTable, usersTable, issuesTable;
-    private DefaultTableModel booksModel, usersModel, issuesModel;
-    private DateTimeFormatter dtf = DateTimeFormatter.ISO_LOCAL_DATE;
+    private BookTableModel booksModel;
+    private UserTableModel usersModel;
+    private IssueTableModel issuesModel;
+    private JLabel saveStatus = new JLabel("All changes saved");
+    private JLabel overdueStatus = new JLabel();
+    private OverdueMonitor overdueMonitor;
+    private PersistenceWorker.Listener saveListener;
+    // a save failed and no retry has succeeded yet; the dialog shows once per outage (EDT only)
+    private boolean saveFailing;
+    // the tables follow the Library's change events, whoever made the change
+    private final LibraryEvents.Listener changeListener = this::changed;
+    // tables with changes not yet shown (BOOKS | USERS | ISSUES); one EDT task drains them
+    private static final int BOOKS = 1, USERS = 2, ISSUES = 4;
+    private final java.util.concurrent.atomic.AtomicInteger stale = new java.util.concurrent.atomic.AtomicInteger();
 
     public LibraryGUI() {
+        this(new Library(), true);
+    }
+
+    /**
+     * A window on {@code library}. Closing the primary window closes the
+     * Library and exits; any other window just goes away.
+     */
+    public LibraryGUI(Library library, boolean primary) {
         super("Digital Library Management System");
-        library = new Library();
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        this.library = library;
+        if (library.isReadOnly()) setTitle(getTitle() + " (read-only)");
+        setDefaultCloseOperation(primary ? JFrame.EXIT_ON_CLOSE : JFrame.DISPOSE_ON_CLOSE);
         setSize(1000, 600);
         setLocationRelativeTo(null);
         initUI();
+        library.addChangeListener(changeListener);
 
-        // save on close
+        // flush pending background writes and snapshot on close
         addWindowListener(new java.awt.event.WindowAdapter() {
             @Override
             public void windowClosing(java.awt.event.WindowEvent windowEvent) {
-                library.saveAll();
+                library.removeChangeListener(changeListener);
+                library.removePersistenceListener(saveListener);
+                overdueMonitor.close();
+                if (!primary) return;
+                library.close();
                 System.exit(0);
             }
         });
@@ -35,12 +63,53 @@ public class LibraryGUI extends JFrame {
         tabs.addTab("Books", createBooksPanel());
         tabs.addTab("Members", createMembersPanel());
         tabs.addTab("Issue / Return", createIssuesPanel());
+        tabs.addTab("Reports", createReportsPanel());
         add(tabs, BorderLayout.CENTER);
 
-        // load initial data
-        refreshBooks();
-        refreshUsers();
-        refreshIssues();
+        JMenu window = new JMenu("Window");
+        JMenuItem newWindow = new JMenuItem("New Window");
+        newWindow.addActionListener(e -> {
+            LibraryGUI other = new LibraryGUI(library, false);
+            other.setLocation(getX() + 30, getY() + 30);
+            other.setVisible(true);
+        });
+        window.add(newWindow);
+        JMenuBar menus = new JMenuBar();
+        menus.add(window);
+        setJMenuBar(menus);
+
+        overdueMonitor = new OverdueMonitor(library);
+        overdueMonitor.addListener((asOf, overdue) -> SwingUtilities.invokeLater(() ->
+            overdueStatus.setText(overdue.isEmpty() ? "Nothing overdue" : overdue.size() + " overdue")));
+        overdueMonitor.start();
+
+        // writes happen in the background; show their outcome here
+        saveStatus.setBorder(BorderFactory.createEmptyBorder(2, 8, 2, 8));
+        add(saveStatus, BorderLayout.SOUTH);
+        if (library.isReadOnly()) saveStatus.setText("Read-only: showing changes another process makes");
+        saveListener = new PersistenceWorker.Listener() {
+            @Override
+            public void saved(long upTo) {
+                SwingUtilities.invokeLater(() -> {
+                    saveFailing = false;
+                    saveStatus.setText("All changes saved");
+                });
+            }
+            @Override
+            public void failed(long upTo, Exception e) {
+                SwingUtilities.invokeLater(() -> {
+                    saveStatus.setText("Save failed, retrying: " + e.getMessage());
+                    if (saveFailing) return;
+                    saveFailing = true;
+                    JOptionPane.showMessageDialog(LibraryGUI.this,
+                        "Could not write changes to disk: " + e.getMessage()
+                            + "\nThey are kept in memory and retried in the background;"
+                            + "\nchanges still unwritten when the library closes are lost.",
+                        "Save failed", JOptionPane.ERROR_MESSAGE);
+                });
+            }
+        };
+        library.addPersistenceListener(saveListener);
     }
 
     // ---------------- Books Panel ----------------
@@ -49,9 +118,10 @@ public class LibraryGUI extends JFrame {
         JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
         JTextField search = new JTextField(60);
         JButton searchBtn = new JButton("Search");
-        JButton add = new JButton("Add Book");
-        JButton edit = new JButton("Edit Book");
-        JButton del = new JButton("Delete Book");
+        JButton add = writes(new JButton("Add Book"));
+        JButton edit = writes(new JButton("Edit Book"));
+        JButton del = writes(new JButton("Delete Book"));
+        JButton importBtn = writes(new JButton("Import..."));
 
         top.add(new JLabel("Search:"));
         top.add(search);
@@ -59,30 +129,20 @@ public class LibraryGUI extends JFrame {
         top.add(add);
         top.add(edit);
         top.add(del);
+        top.add(importBtn);
         p.add(top, BorderLayout.NORTH);
 
-        booksModel = new DefaultTableModel(
-            new Object[]{"ID","Title","Author","ISBN","Total","Available","Category"}, 0) {
-            public boolean isCellEditable(int r, int c){ return false; }
-        };
+        booksModel = new BookTableModel(library);
         booksTable = new JTable(booksModel);
+        sortOnHeaderClick(booksTable, booksModel);
         p.add(new JScrollPane(booksTable), BorderLayout.CENTER);
 
         // search action
         searchBtn.addActionListener(e -> {
-            String q = search.getText().trim().toLowerCase();
-            booksModel.setRowCount(0);
-            for (Book b : library.getBooks()) {
-                if (q.isEmpty() || b.getTitle().toLowerCase().contains(q)
-                        || b.getAuthor().toLowerCase().contains(q)
-                        || b.getIsbn().toLowerCase().contains(q)) {
-                    booksModel.addRow(new Object[]{
-                        b.getId(), b.getTitle(), b.getAuthor(),
-                        b.getIsbn(), b.getTotalCopies(),
-                        b.getAvailableCopies(), b.getCategory()
-                    });
-                }
-            }
+            long start = LibraryMetrics.start();
+            String q = search.getText().trim();
+            booksModel.setSearch(q);
+            SEARCH_TIMER.stop(start);
         });
 
         // add book
@@ -102,7 +162,6 @@ public class LibraryGUI extends JFrame {
                 tot,
                 cat == null ? "" : cat.trim()
             );
-            refreshBooks();
         });
 
         // edit book
@@ -112,9 +171,8 @@ public class LibraryGUI extends JFrame {
                 JOptionPane.showMessageDialog(this, "Select a book to edit");
                 return;
             }
-            int id = (int) booksModel.getValueAt(r,0);
-            Book b = library.findBookById(id);
-            if (b == null) return;
+            Book b = booksModel.getBookAt(booksTable.convertRowIndexToModel(r));
+            int version = b.getVersion();
 
             String title = JOptionPane.showInputDialog(this, "Title:", b.getTitle());
             if (title == null) return;
@@ -125,13 +183,14 @@ public class LibraryGUI extends JFrame {
             try { tot = Integer.parseInt(totStr); } catch (Exception ex) {}
             String cat = JOptionPane.showInputDialog(this, "Category:", b.getCategory());
 
-            b.setTitle(title);
-            b.setAuthor(author);
-            b.setIsbn(isbn);
-            b.setTotalCopies(tot);
-            b.setCategory(cat == null ? "" : cat);
-            library.updateBook(b);
-            refreshBooks();
+            // edit a copy; the Library refuses it if someone else saved the book meanwhile
+            Book edited = new Book(b.getId(), title, author, isbn, tot, cat == null ? "" : cat);
+            edited.setVersion(version);
+            try {
+                library.updateBook(edited);
+            } catch (Exception ex) {
+                JOptionPane.showMessageDialog(this, "Update failed: " + ex.getMessage());
+            }
         });
 
         // delete book
@@ -141,45 +200,94 @@ public class LibraryGUI extends JFrame {
                 JOptionPane.showMessageDialog(this, "Select a book to delete");
                 return;
             }
-            int id = (int) booksModel.getValueAt(r,0);
+            int row = booksTable.convertRowIndexToModel(r);
+            int id = booksModel.getBookAt(row).getId();
             int c = JOptionPane.showConfirmDialog(this, "Delete book ID " + id + " ?", "Confirm", JOptionPane.YES_NO_OPTION);
             if (c == JOptionPane.YES_OPTION) {
                 library.deleteBook(id);
-                refreshBooks();
             }
         });
 
+        importBtn.addActionListener(e -> importCatalog(importBtn));
+
         return p;
     }
 
-    private void refreshBooks() {
-        booksModel.setRowCount(0);
-        for (Book b : library.getBooks()) {
-            booksModel.addRow(new Object[]{
-                b.getId(), b.getTitle(), b.getAuthor(),
-                b.getIsbn(), b.getTotalCopies(),
-                b.getAvailableCopies(), b.getCategory()
-            });
-        }
+    /** Imports a CSV/TSV catalog in the background, showing progress in the status bar. */
+    private void importCatalog(JButton importBtn) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+            "Catalog files (CSV, TSV)", "csv", "tsv", "tab", "txt"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        java.io.File file = chooser.getSelectedFile();
+        // keep only the first rejections for the summary; the counts cover the rest
+        List<String> rejections = new java.util.ArrayList<>();
+        importBtn.setEnabled(false);
+
+        new SwingWorker<CatalogImporter.Result, String>() {
+            @Override
+            protected CatalogImporter.Result doInBackground() throws Exception {
+                CatalogImporter importer = new CatalogImporter(library);
+                importer.addListener(new CatalogImporter.Listener() {
+                    @Override
+                    public void progress(long rowsRead, int imported, int rejected) {
+                        publish("Importing " + file.getName() + ": " + rowsRead + " rows read, "
+                            + imported + " imported, " + rejected + " rejected");
+                    }
+                    @Override
+                    public void rejected(long line, String reason) {
+                        synchronized (rejections) {
+                            if (rejections.size() < 100) rejections.add("line " + line + ": " + reason);
+                        }
+                    }
+                });
+                return importer.importFile(file);
+            }
+
+            @Override
+            protected void process(List<String> chunks) {
+                saveStatus.setText(chunks.get(chunks.size() - 1));
+            }
+
+            @Override
+            protected void done() {
+                importBtn.setEnabled(true);
+                try {
+                    CatalogImporter.Result r = get();
+                    saveStatus.setText(r.toString());
+                    String text = r.toString();
+                    synchronized (rejections) {
+                        if (!rejections.isEmpty()) text += "\n\n" + String.join("\n", rejections);
+                    }
+                    JTextArea area = new JTextArea(text, 15, 60);
+                    area.setEditable(false);
+                    JOptionPane.showMessageDialog(LibraryGUI.this, new JScrollPane(area), "Import finished",
+                        JOptionPane.INFORMATION_MESSAGE);
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    saveStatus.setText("Import failed: " + cause.getMessage());
+                    JOptionPane.showMessageDialog(LibraryGUI.this, "Import failed: " + cause.getMessage(),
+                        "Import", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
     }
 
     // ---------------- Members Panel ----------------
     private JPanel createMembersPanel() {
         JPanel p = new JPanel(new BorderLayout(8,8));
         JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        JButton add = new JButton("Add Member");
-        JButton edit = new JButton("Edit Member");
-        JButton del = new JButton("Delete Member");
+        JButton add = writes(new JButton("Add Member"));
+        JButton edit = writes(new JButton("Edit Member"));
+        JButton del = writes(new JButton("Delete Member"));
         top.add(add);
         top.add(edit);
         top.add(del);
         p.add(top, BorderLayout.NORTH);
 
-        usersModel = new DefaultTableModel(
-            new Object[]{"ID","Name","Type","Email","Phone","Extra"}, 0) {
-            public boolean isCellEditable(int r, int c){ return false; }
-        };
+        usersModel = new UserTableModel(library);
         usersTable = new JTable(usersModel);
+        sortOnHeaderClick(usersTable, usersModel);
         p.add(new JScrollPane(usersTable), BorderLayout.CENTER);
 
         add.addActionListener(e -> {
@@ -195,7 +303,6 @@ public class LibraryGUI extends JFrame {
                     library.addStudent(name, email, phone, roll);
                 else
                     library.addLibrarian(name, email, phone);
-                refreshUsers();
             }
         });
 
@@ -205,14 +312,15 @@ public class LibraryGUI extends JFrame {
                 JOptionPane.showMessageDialog(this, "Select a member to edit");
                 return;
             }
-            int id = (int) usersModel.getValueAt(r,0);
-            User u = library.findUserById(id);
-            if (u == null) return;
+            User u = copyOf(usersModel.getUserAt(usersTable.convertRowIndexToModel(r)));
             MemberFormDialog d = new MemberFormDialog(this, u);
             d.setVisible(true);
             if (d.isSaved()) {
-                library.updateUser(u);
-                refreshUsers();
+                try {
+                    library.updateUser(u);
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(this, "Update failed: " + ex.getMessage());
+                }
             }
         });
 
@@ -222,144 +330,379 @@ public class LibraryGUI extends JFrame {
                 JOptionPane.showMessageDialog(this, "Select a member to delete");
                 return;
             }
-            int id = (int) usersModel.getValueAt(r,0);
+            int row = usersTable.convertRowIndexToModel(r);
+            int id = usersModel.getUserAt(row).getId();
             int c = JOptionPane.showConfirmDialog(this, "Delete member ID " + id + " ?", "Confirm", JOptionPane.YES_NO_OPTION);
             if (c == JOptionPane.YES_OPTION) {
                 library.deleteUser(id);
-                refreshUsers();
             }
         });
 
         return p;
     }
 
-    private void refreshUsers() {
-        usersModel.setRowCount(0);
-        for (User u : library.getUsers()) {
-            String type = (u instanceof Student) ? "Student" : "Librarian";
-            String extra = (u instanceof Student) ? ((Student) u).getRollNumber() : "-";
-            usersModel.addRow(new Object[]{
-                u.getId(), u.getName(), type,
-                u.getEmail(), u.getPhone(), extra
-            });
-        }
-    }
-
     // ---------------- Issues Panel ----------------
     private JPanel createIssuesPanel() {
         JPanel p = new JPanel(new BorderLayout(8,8));
         JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        JButton issueBtn = new JButton("Issue Book");
-        JButton returnBtn = new JButton("Return Selected");
-        JButton refreshBtn = new JButton("Refresh");
+        JButton issueBtn = writes(new JButton("Issue Book"));
+        JButton batchIssueBtn = writes(new JButton("Batch Checkout"));
+        JButton returnBtn = writes(new JButton("Return Selected"));
+        JButton overdueBtn = new JButton("Overdue...");
         top.add(issueBtn);
+        top.add(batchIssueBtn);
         top.add(returnBtn);
-        top.add(refreshBtn);
+        top.add(overdueBtn);
+        top.add(overdueStatus);
         p.add(top, BorderLayout.NORTH);
 
-        issuesModel = new DefaultTableModel(
-            new Object[]{"IssueID","BookID","Book Title","UserID","User Name","IssueDate","DueDate","Returned"}, 0) {
-            public boolean isCellEditable(int r, int c){ return false; }
-        };
+        issuesModel = new IssueTableModel(library);
         issuesTable = new JTable(issuesModel);
+        sortOnHeaderClick(issuesTable, issuesModel);
         p.add(new JScrollPane(issuesTable), BorderLayout.CENTER);
 
         issueBtn.addActionListener(e -> {
-            List<Book> books = library.getBooks();
-            if (books.isEmpty()) {
-                JOptionPane.showMessageDialog(this, "No books available");
+            if (library.getBookCount() == 0 || library.getUserCount() == 0) {
+                JOptionPane.showMessageDialog(this, "Add books and members first");
                 return;
             }
-            String[] bookOptions = books.stream().map(Book::toString).toArray(String[]::new);
-            String chosenBook = (String) JOptionPane.showInputDialog(
-                this, "Select book", "Issue", JOptionPane.PLAIN_MESSAGE, null, bookOptions, bookOptions[0]);
-            if (chosenBook == null) return;
-            int bId = parseIdFromBrackets(chosenBook);
-
-            List<User> users = library.getUsers();
-            if (users.isEmpty()) {
-                JOptionPane.showMessageDialog(this, "No members available");
+            TypeAheadPicker<Book> bookPicker = new TypeAheadPicker<>(
+                q -> withIdMatch(q, library::findBookById, library.searchBooks(q, PICKER_MATCHES)),
+                b -> b + "   ISBN " + (b.getIsbn() == null ? "-" : b.getIsbn()));
+            TypeAheadPicker<User> userPicker = new TypeAheadPicker<>(
+                q -> withIdMatch(q, library::findUserById, library.searchUsers(q, PICKER_MATCHES)),
+                User::toString);
+            JTextField daysField = new JTextField("14", 4);
+            JPanel daysRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+            daysRow.add(new JLabel("Days: "));
+            daysRow.add(daysField);
+            JPanel form = new JPanel();
+            form.setLayout(new BoxLayout(form, BoxLayout.Y_AXIS));
+            for (JComponent c : new JComponent[]{new JLabel("Book (title, author, ISBN or id):"), bookPicker,
+                    new JLabel("Member (name, roll number or id):"), userPicker, daysRow}) {
+                c.setAlignmentX(Component.LEFT_ALIGNMENT);
+                form.add(c);
+                form.add(Box.createVerticalStrut(4));
+            }
+            SwingUtilities.invokeLater(() -> bookPicker.getField().requestFocusInWindow());
+            int choice = JOptionPane.showConfirmDialog(this, form, "Issue Book",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            if (choice != JOptionPane.OK_OPTION) return;
+            Book book = bookPicker.getSelected();
+            User user = userPicker.getSelected();
+            if (book == null || user == null) {
+                JOptionPane.showMessageDialog(this, "Pick a book and a member from the match lists");
                 return;
             }
-            String[] userOptions = users.stream().map(User::toString).toArray(String[]::new);
-            String chosenUser = (String) JOptionPane.showInputDialog(
-                this, "Select user", "Issue", JOptionPane.PLAIN_MESSAGE, null, userOptions, userOptions[0]);
-            if (chosenUser == null) return;
-            int uId = parseIdFromBrackets(chosenUser);
-
-            String daysStr = JOptionPane.showInputDialog(this, "Issue for how many days? (default 14)", "14");
-            int days = 14;
-            try { days = Integer.parseInt(daysStr); } catch (Exception ex) { days = 14; }
+            int bId = book.getId();
+            int uId = user.getId();
+            int days;
+            try { days = Integer.parseInt(daysField.getText().trim()); } catch (Exception ex) { days = 14; }
 
             try {
                 IssueRecord rec = library.issueBook(bId, uId, LocalDate.now(), LocalDate.now().plusDays(days));
                 JOptionPane.showMessageDialog(this, "Issued! Issue ID: " + rec.getId());
-                refreshBooks();
-                refreshIssues();
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(this, "Issue failed: " + ex.getMessage());
             }
         });
 
+        batchIssueBtn.addActionListener(e -> batchCheckout());
+        overdueBtn.addActionListener(e -> showOverdue());
+
+        // returns every selected row with one write; pick several rows with Ctrl/Shift
         returnBtn.addActionListener(e -> {
-            int r = issuesTable.getSelectedRow();
-            if (r < 0) {
-                JOptionPane.showMessageDialog(this, "Select an active issue row to return");
+            int[] rows = issuesTable.getSelectedRows();
+            if (rows.length == 0) {
+                JOptionPane.showMessageDialog(this, "Select one or more active issue rows to return");
                 return;
             }
-            int issueId = (int) issuesModel.getValueAt(r, 0);
-            String returned = (String) issuesModel.getValueAt(r, 7);
-            if (!"-".equals(returned)) {
+            List<Integer> ids = new java.util.ArrayList<>();
+            for (int r : rows) {
+                IssueRecord rec = issuesModel.getIssueAt(issuesTable.convertRowIndexToModel(r));
+                if (!rec.isReturned()) ids.add(rec.getId());
+            }
+            if (ids.isEmpty()) {
                 JOptionPane.showMessageDialog(this, "Already returned");
                 return;
             }
-            int confirm = JOptionPane.showConfirmDialog(this, "Return issue ID " + issueId + " ?", "Confirm", JOptionPane.YES_NO_OPTION);
+            String what = ids.size() == 1 ? "issue ID " + ids.get(0) : ids.size() + " issues";
+            int confirm = JOptionPane.showConfirmDialog(this, "Return " + what + " ?", "Confirm", JOptionPane.YES_NO_OPTION);
             if (confirm != JOptionPane.YES_OPTION) return;
-            try {
-                library.returnBook(issueId, LocalDate.now());
-                JOptionPane.showMessageDialog(this, "Returned.");
-                refreshBooks();
-                refreshIssues();
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Return failed: " + ex.getMessage());
+            List<Library.Outcome> outcomes = library.returnBooks(ids, LocalDate.now(), false);
+            StringBuilder failures = new StringBuilder();
+            int ok = 0;
+            for (int i = 0; i < outcomes.size(); i++) {
+                Library.Outcome o = outcomes.get(i);
+                if (!o.isOk()) {
+                    failures.append("\nIssue ").append(ids.get(i)).append(": ").append(o.error);
+                    continue;
+                }
+                ok++;
             }
+            overdueMonitor.sweep();
+            showBatchSummary("Returned " + ok + " of " + ids.size() + ".", failures);
         });
-
-        refreshBtn.addActionListener(e -> refreshIssues());
         return p;
     }
 
-    private int parseIdFromBrackets(String s) {
-        if (s == null) return -1;
-        int start = s.indexOf('[');
-        int end = s.indexOf(']');
-        if (start >= 0 && end > start) {
-            try { return Integer.parseInt(s.substring(start + 1, end)); } catch (Exception e) {}
+    /**
+     * Checkout of a stack of books for one member. Book ids or ISBNs go one per
+     * line, so a barcode scanner (which types the code and Enter) can feed it.
+     */
+    private void batchCheckout() {
+        JTextField member = new JTextField(10);
+        JTextField daysField = new JTextField("14", 4);
+        JTextArea codes = new JTextArea(12, 30);
+        JPanel form = new JPanel(new BorderLayout(6, 6));
+        JPanel fields = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        fields.add(new JLabel("Member ID:"));
+        fields.add(member);
+        fields.add(new JLabel("Days:"));
+        fields.add(daysField);
+        form.add(fields, BorderLayout.NORTH);
+        form.add(new JLabel("Scan or type book IDs / ISBNs, one per line:"), BorderLayout.CENTER);
+        form.add(new JScrollPane(codes), BorderLayout.SOUTH);
+        int ok = JOptionPane.showConfirmDialog(this, form, "Batch Checkout", JOptionPane.OK_CANCEL_OPTION,
+            JOptionPane.PLAIN_MESSAGE);
+        if (ok != JOptionPane.OK_OPTION) return;
+
+        int uId;
+        try { uId = Integer.parseInt(member.getText().trim()); } catch (Exception ex) {
+            JOptionPane.showMessageDialog(this, "Enter a member ID");
+            return;
         }
-        return -1;
+        int days = 14;
+        try { days = Integer.parseInt(daysField.getText().trim()); } catch (Exception ex) { days = 14; }
+
+        List<String> lines = new java.util.ArrayList<>();
+        List<Library.Checkout> checkouts = new java.util.ArrayList<>();
+        StringBuilder failures = new StringBuilder();
+        int scanned = 0;
+        for (String line : codes.getText().split("\\R")) {
+            String code = line.trim();
+            if (code.isEmpty()) continue;
+            scanned++;
+            Book b = library.findBookByIsbn(code);
+            if (b == null) {
+                try { b = library.findBookById(Integer.parseInt(code)); } catch (NumberFormatException ex) {}
+            }
+            if (b == null) {
+                failures.append("\n").append(code).append(": Book not found");
+                continue;
+            }
+            lines.add(code);
+            checkouts.add(new Library.Checkout(b.getId(), uId));
+        }
+        if (scanned == 0) return;
+
+        List<Library.Outcome> outcomes = library.issueBooks(checkouts, LocalDate.now(), LocalDate.now().plusDays(days), false);
+        int issued = 0;
+        for (int i = 0; i < outcomes.size(); i++) {
+            Library.Outcome o = outcomes.get(i);
+            if (!o.isOk()) {
+                failures.append("\n").append(lines.get(i)).append(": ").append(o.error);
+                continue;
+            }
+            issued++;
+        }
+        showBatchSummary("Issued " + issued + " of " + scanned + ".", failures);
     }
 
-    private void refreshIssues() {
-        issuesModel.setRowCount(0);
-        for (IssueRecord rec : library.getIssues()) {
+    /** Overdue loans as of today with each member's fine. */
+    private void showOverdue() {
+        LocalDate today = LocalDate.now();
+        List<IssueRecord> overdue = overdueMonitor.sweep();
+        if (overdue.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Nothing is overdue.");
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (IssueRecord rec : overdue) {
             Book b = library.findBookById(rec.getBookId());
             User u = library.findUserById(rec.getUserId());
-            String bTitle = (b == null) ? "N/A" : b.getTitle();
-            String uName = (u == null) ? "N/A" : u.getName();
-            issuesModel.addRow(new Object[]{
-                rec.getId(), rec.getBookId(), bTitle,
-                rec.getUserId(), uName,
-                rec.getIssueDate().format(dtf),
-                rec.getDueDate().format(dtf),
-                (rec.getReturnDate() == null ? "-" : rec.getReturnDate().format(dtf))
-            });
+            sb.append("Issue ").append(rec.getId()).append(": ")
+              .append(b == null ? "N/A" : b.getTitle()).append(" - ")
+              .append(u == null ? "N/A" : u.getName()).append(", due ").append(rec.getDueDate())
+              .append(" (").append(today.toEpochDay() - rec.getDueDate().toEpochDay()).append(" days)\n");
+        }
+        sb.append("\nFines:\n");
+        for (java.util.Map.Entry<Integer, Long> f : library.getFines(today).entrySet()) {
+            User u = library.findUserById(f.getKey());
+            sb.append(u == null ? "User " + f.getKey() : u.getName()).append(": ").append(f.getValue()).append("\n");
+        }
+        JTextArea area = new JTextArea(sb.toString(), 15, 60);
+        area.setEditable(false);
+        JOptionPane.showMessageDialog(this, new JScrollPane(area), overdue.size() + " overdue",
+            JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    private void showBatchSummary(String summary, StringBuilder failures) {
+        if (failures.length() == 0) {
+            JOptionPane.showMessageDialog(this, summary);
+            return;
         }
+        JTextArea area = new JTextArea(summary + "\n\nNot done:" + failures, 12, 40);
+        area.setEditable(false);
+        JOptionPane.showMessageDialog(this, new JScrollPane(area));
+    }
+
+    // ---------------- Reports Panel ----------------
+    private JPanel createReportsPanel() {
+        JPanel p = new JPanel(new BorderLayout(8,8));
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton runBtn = new JButton("Run Reports");
+        top.add(runBtn);
+        p.add(top, BorderLayout.NORTH);
+        JTextArea out = new JTextArea();
+        out.setEditable(false);
+        out.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        p.add(new JScrollPane(out), BorderLayout.CENTER);
+
+        // the report reads the whole history, archive included, so it runs on a snapshot in the background
+        runBtn.addActionListener(e -> {
+            runBtn.setEnabled(false);
+            out.setText("Running...");
+            new SwingWorker<String, Void>() {
+                @Override
+                protected String doInBackground() {
+                    return circulationReport();
+                }
+
+                @Override
+                protected void done() {
+                    runBtn.setEnabled(true);
+                    try {
+                        out.setText(get());
+                        out.setCaretPosition(0);
+                    } catch (Exception ex) {
+                        out.setText("Report failed: " + ex.getMessage());
+                    }
+                }
+            }.execute();
+        });
+        return p;
+    }
+
+    private String circulationReport() {
+        StringBuilder sb = new StringBuilder();
+        // reports run off the EDT, so they can afford to read the archived loans too; the running
+        // counters would only cover loans not archived yet
+        LoanSnapshot snap = library.snapshotLoans(true);
+        sb.append("Most borrowed titles, whole history\n");
+        for (CirculationStats.Count c : snap.mostBorrowed(10)) {
+            Book b = library.findBookById(c.id);
+            sb.append(String.format("  %6d  %s%n", c.count, b == null ? "Book " + c.id : b.getTitle()));
+        }
+        sb.append("\nBusiest members, whole history\n");
+        for (CirculationStats.Count c : snap.busiestMembers(10)) {
+            User u = library.findUserById(c.id);
+            sb.append(String.format("  %6d  %s%n", c.count, u == null ? "User " + c.id : u.getName()));
+        }
+        sb.append(String.format("%nAverage loan, whole history: %.1f days%n", snap.averageLoanDays()));
+
+        sb.append("\nAverage loan by category (days), whole history\n");
+        for (java.util.Map.Entry<String, Double> e : snap.averageLoanDaysByCategory().entrySet()) {
+            sb.append(String.format("  %-20s %6.1f%n", e.getKey(), e.getValue()));
+        }
+        LocalDate to = LocalDate.now();
+        LocalDate from = to.minusMonths(11).withDayOfMonth(1);
+        sb.append("\nLoans per category, last 12 months\n");
+        for (java.util.Map.Entry<String, java.util.Map<java.time.YearMonth, Long>> e
+                : snap.loansByCategoryMonth(from, to).entrySet()) {
+            sb.append("  ").append(e.getKey()).append(": ");
+            e.getValue().forEach((m, n) -> sb.append(m).append('=').append(n).append("  "));
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Disables a button that changes the library when this window only follows it. */
+    private JButton writes(JButton b) {
+        b.setEnabled(!library.isReadOnly());
+        return b;
+    }
+
+    /** A copy of the member to edit in a dialog, with the version it was read at. */
+    private static User copyOf(User u) {
+        User copy = u instanceof Student
+            ? new Student(u.getId(), u.getName(), u.getEmail(), u.getPhone(), ((Student) u).getRollNumber())
+            : new Librarian(u.getId(), u.getName(), u.getEmail(), u.getPhone());
+        copy.setVersion(u.getVersion());
+        return copy;
+    }
+
+    /** Search matches, preceded by the record whose id is {@code query} if there is one. */
+    private static <T> List<T> withIdMatch(String query, java.util.function.IntFunction<T> byId, List<T> matches) {
+        String q = query.trim();
+        if (q.isEmpty() || q.length() > 9 || !q.chars().allMatch(Character::isDigit)) return matches;
+        T exact = byId.apply(Integer.parseInt(q));
+        if (exact == null) return matches;
+        List<T> out = new java.util.ArrayList<>(matches.size() + 1);
+        out.add(exact);
+        for (T t : matches) if (t != exact) out.add(t);
+        return out;
+    }
+
+    /** Header clicks sort through the Library's indexes instead of a row sorter reading every row. */
+    private static void sortOnHeaderClick(JTable table, PagedTableModel<?> model) {
+        table.getTableHeader().addMouseListener(new java.awt.event.MouseAdapter() {
+            @Override
+            public void mouseClicked(java.awt.event.MouseEvent e) {
+                int column = table.columnAtPoint(e.getPoint());
+                if (column >= 0) model.sortBy(table.convertColumnIndexToModel(column));
+            }
+        });
+    }
+
+    /**
+     * A batch of change events, on the delivery thread: notes which tables
+     * they touch and has the EDT refresh them, once for however many batches
+     * arrive before it gets to it. The issues table shows titles and names,
+     * so book and member edits touch it too.
+     */
+    private void changed(List<LibraryEvent> events) {
+        int tables = 0;
+        for (LibraryEvent ev : events) {
+            switch (ev.type) {
+                case RELOADED: tables |= BOOKS | USERS | ISSUES; break;
+                case BOOK_UPDATED: tables |= BOOKS | ISSUES; break;
+                case USER_UPDATED: tables |= USERS | ISSUES; break;
+                case BOOK_ADDED: case BOOK_DELETED: case COPIES_CHANGED: tables |= BOOKS; break;
+                case USER_ADDED: case USER_DELETED: tables |= USERS; break;
+                default: tables |= ISSUES;
+            }
+        }
+        int t = tables;
+        if (stale.getAndUpdate(s -> s | t) == 0) SwingUtilities.invokeLater(this::applyChanges);
+    }
+
+    /** Each stale table re-reads only the rows it shows. */
+    private void applyChanges() {
+        long start = LibraryMetrics.start();
+        int tables = stale.getAndSet(0);
+        if ((tables & BOOKS) != 0) booksModel.refresh();
+        if ((tables & USERS) != 0) usersModel.refresh();
+        if ((tables & ISSUES) != 0) issuesModel.refresh();
+        CHANGES_TIMER.stop(start);
     }
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
-            LibraryGUI gui = new LibraryGUI();
+            LibraryGUI gui = new LibraryGUI(openLibrary(), true);
             gui.setVisible(true);
         });
     }
+
+    /** The library in the working directory; if another process writes it, offers to follow it read-only. */
+    private static Library openLibrary() {
+        try {
+            return new Library();
+        } catch (IllegalStateException e) {
+            int c = JOptionPane.showConfirmDialog(null, e.getMessage() + ".\nOpen it read-only?",
+                "Library in use", JOptionPane.YES_NO_OPTION);
+            if (c != JOptionPane.YES_OPTION) System.exit(1);
+            return Library.follower(new java.io.File("."));
+        }
+    }
 }
@@ -0,0 +1,396 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Snapshot files in a compact binary record format.
+ *
+ * Layout: a 16-byte header (magic, format version, record kind, flags, record
+ * count, last allocated id) followed by the records back to back. The last
+ * allocated id is the entity's sequence high-water mark, kept so that ids of
+ * deleted records are never handed out again (0 in files that predate it). Numbers are
+ * fixed-width big-endian ints; strings are an int byte length (-1 = null)
+ * followed by UTF-8 bytes. Book authors and categories (version 2) are
+ * dictionary-coded: an int code local to the file, where the next unused
+ * code is followed by the string it stands for and -1 is null, so each
+ * distinct value is stored and decoded once per file. Books and members end
+ * with their edit version (version 3; 0 when read from older files). Issue records are
+ * entirely fixed-width (dates as epoch days). Files are read through a read-only memory map, so numeric
+ * fields are decoded straight from the page cache, and written through a
+ * direct buffer on a FileChannel.
+ */
+public final class BinaryStore {
+    static final int MAGIC = 0x444C4D53; // "DLMS"
+    static final short VERSION = 3;
+    static final byte KIND_BOOKS = 1;
+    static final byte KIND_USERS = 2;
+    static final byte KIND_ISSUES = 3;
+    static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 8;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private BinaryStore() {}
+
+    // ---------- books ----------
+    public static void writeBooks(File f, List<Book> books, int lastId) throws IOException {
+        try (Appender<Book> out = appendBooks(f, lastId)) {
+            for (Book b : books) out.add(b);
+            out.commit();
+        }
+    }
+
+    public static Appender<Book> appendBooks(File f, int lastId) throws IOException {
+        CodeWriter authors = new CodeWriter(StringDictionary.AUTHORS);
+        CodeWriter categories = new CodeWriter(StringDictionary.CATEGORIES);
+        return new Appender<>(new Writer(f, KIND_BOOKS, lastId), (w, b) -> {
+            w.putInt(b.getId());
+            w.putInt(b.getTotalCopies());
+            w.putInt(b.getAvailableCopies());
+            w.putString(b.getTitle());
+            authors.put(w, b.getAuthorCode());
+            w.putString(b.getIsbn());
+            categories.put(w, b.getCategoryCode());
+            w.putInt(b.getVersion());
+        });
+    }
+
+    public static List<Book> readBooks(File f) throws IOException {
+        Reader r = new Reader(f, KIND_BOOKS);
+        List<Book> out = new ArrayList<>(r.count);
+        readBooks(r, out::add);
+        return out;
+    }
+
+    /** Streams the books of a snapshot file without keeping them. */
+    public static void readBooks(File f, Consumer<? super Book> sink) throws IOException {
+        readBooks(new Reader(f, KIND_BOOKS), sink);
+    }
+
+    private static void readBooks(Reader r, Consumer<? super Book> sink) {
+        CodeReader authors = new CodeReader(r, StringDictionary.AUTHORS);
+        CodeReader categories = new CodeReader(r, StringDictionary.CATEGORIES);
+        for (int i = 0; i < r.count; i++) {
+            int id = r.getInt();
+            int total = r.getInt();
+            int available = r.getInt();
+            String title = r.getString();
+            int author = authors.get();
+            String isbn = r.getString();
+            Book b = new Book(id, title, author, isbn, total, categories.get());
+            b.setAvailableCopies(available);
+            if (r.version >= 3) b.setVersion(r.getInt());
+            sink.accept(b);
+        }
+    }
+
+    // ---------- users ----------
+    public static void writeUsers(File f, List<User> users, int lastId) throws IOException {
+        try (Appender<User> out = appendUsers(f, lastId)) {
+            for (User u : users) out.add(u);
+            out.commit();
+        }
+    }
+
+    public static Appender<User> appendUsers(File f, int lastId) throws IOException {
+        return new Appender<>(new Writer(f, KIND_USERS, lastId), (w, u) -> {
+            boolean student = u instanceof Student;
+            w.putByte(student ? (byte) 1 : (byte) 0);
+            w.putInt(u.getId());
+            w.putString(u.getName());
+            w.putString(u.getEmail());
+            w.putString(u.getPhone());
+            if (student) w.putString(((Student) u).getRollNumber());
+            w.putInt(u.getVersion());
+        });
+    }
+
+    public static List<User> readUsers(File f) throws IOException {
+        Reader r = new Reader(f, KIND_USERS);
+        List<User> out = new ArrayList<>(r.count);
+        readUsers(r, out::add);
+        return out;
+    }
+
+    public static void readUsers(File f, Consumer<? super User> sink) throws IOException {
+        readUsers(new Reader(f, KIND_USERS), sink);
+    }
+
+    private static void readUsers(Reader r, Consumer<? super User> sink) {
+        for (int i = 0; i < r.count; i++) {
+            boolean student = r.getByte() == 1;
+            int id = r.getInt();
+            String name = r.getString();
+            String email = r.getString();
+            String phone = r.getString();
+            User u = student ? new Student(id, name, email, phone, r.getString())
+                             : new Librarian(id, name, email, phone);
+            if (r.version >= 3) u.setVersion(r.getInt());
+            sink.accept(u);
+        }
+    }
+
+    // ---------- issues ----------
+    public static void writeIssues(File f, List<IssueRecord> issues, int lastId) throws IOException {
+        try (Appender<IssueRecord> out = appendIssues(f, lastId)) {
+            for (IssueRecord rec : issues) out.add(rec);
+            out.commit();
+        }
+    }
+
+    public static Appender<IssueRecord> appendIssues(File f, int lastId) throws IOException {
+        return appendIssues(f, lastId, BUFFER_SIZE);
+    }
+
+    /** With a smaller write buffer, for callers that keep many files open at once. */
+    static Appender<IssueRecord> appendIssues(File f, int lastId, int bufferSize) throws IOException {
+        return new Appender<>(new Writer(f, KIND_ISSUES, lastId, bufferSize), (w, rec) -> {
+            w.putInt(rec.getId());
+            w.putInt(rec.getBookId());
+            w.putInt(rec.getUserId());
+            w.putInt(rec.getIssueDay());
+            w.putInt(rec.getDueDay());
+            w.putInt(rec.getReturnDay());
+        });
+    }
+
+    public static List<IssueRecord> readIssues(File f) throws IOException {
+        Reader r = new Reader(f, KIND_ISSUES);
+        List<IssueRecord> out = new ArrayList<>(r.count);
+        readIssues(r, out::add);
+        return out;
+    }
+
+    public static void readIssues(File f, Consumer<? super IssueRecord> sink) throws IOException {
+        readIssues(new Reader(f, KIND_ISSUES), sink);
+    }
+
+    private static void readIssues(Reader r, Consumer<? super IssueRecord> sink) {
+        for (int i = 0; i < r.count; i++) {
+            int id = r.getInt();
+            int bookId = r.getInt();
+            int userId = r.getInt();
+            int issued = r.getInt();
+            int due = r.getInt();
+            sink.accept(new IssueRecord(id, bookId, userId, issued, due, r.getInt()));
+        }
+    }
+
+    /** Sequence high-water mark stored in the header of a snapshot file. */
+    public static int readLastId(File f, byte kind) throws IOException {
+        return new Reader(f, kind).lastId;
+    }
+
+    /** Number of records in a snapshot file, from its header. */
+    public static int readCount(File f, byte kind) throws IOException {
+        return new Reader(f, kind).count;
+    }
+
+    // ---------- I/O ----------
+    /** Maps a snapshot file read-only and validates its header. */
+    static final class Reader {
+        private final MappedByteBuffer buf;
+        private byte[] scratch = new byte[256];
+        final short version;
+        final int count;
+        final int lastId;
+
+        Reader(File f, byte kind) throws IOException {
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            }
+            if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) {
+                throw new IOException(f.getName() + " is not a library data file");
+            }
+            version = buf.getShort();
+            if (version > VERSION) throw new IOException(f.getName() + " has unsupported version " + version);
+            if (buf.get() != kind) throw new IOException(f.getName() + " holds the wrong record kind");
+            buf.get(); // flags
+            count = buf.getInt();
+            lastId = buf.getInt();
+        }
+
+        byte getByte() { return buf.get(); }
+        int getInt() { return buf.getInt(); }
+
+        String getString() {
+            int len = buf.getInt();
+            if (len < 0) return null;
+            if (len > scratch.length) scratch = new byte[Math.max(len, scratch.length * 2)];
+            buf.get(scratch, 0, len);
+            return new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Writes process dictionary codes as codes local to one file. */
+    private static final class CodeWriter {
+        private final StringDictionary dict;
+        private final IntMap<Integer> local = new IntMap<>();
+
+        CodeWriter(StringDictionary dict) { this.dict = dict; }
+
+        void put(Writer w, int code) throws IOException {
+            if (code == 0) {
+                w.putInt(-1);
+                return;
+            }
+            Integer fileCode = local.get(code);
+            if (fileCode != null) {
+                w.putInt(fileCode);
+                return;
+            }
+            w.putInt(local.size());
+            local.put(code, local.size());
+            w.putString(dict.decode(code));
+        }
+    }
+
+    /** Reads codes written by {@link CodeWriter}, or inline strings from version 1 files. */
+    private static final class CodeReader {
+        private final Reader r;
+        private final StringDictionary dict;
+        private int[] codes = new int[64];
+        private int size;
+
+        CodeReader(Reader r, StringDictionary dict) {
+            this.r = r;
+            this.dict = dict;
+        }
+
+        int get() {
+            if (r.version < 2) return dict.encode(r.getString());
+            int fileCode = r.getInt();
+            if (fileCode < 0) return 0;
+            if (fileCode < size) return codes[fileCode];
+            if (fileCode != size) throw new IllegalStateException("bad dictionary code " + fileCode);
+            if (size == codes.length) codes = Arrays.copyOf(codes, size * 2);
+            return codes[size++] = dict.encode(r.getString());
+        }
+    }
+
+    private interface Format<T> {
+        void write(Writer w, T rec) throws IOException;
+    }
+
+    /**
+     * Writes records of one kind to a new snapshot file, one at a time, so a
+     * file can be produced without holding all of its records. Same commit
+     * rules as {@link Writer}: nothing replaces the target until {@link #commit}.
+     */
+    public static final class Appender<T> implements AutoCloseable {
+        private final Writer w;
+        private final Format<T> format;
+        private int count;
+
+        Appender(Writer w, Format<T> format) {
+            this.w = w;
+            this.format = format;
+        }
+
+        public void add(T rec) throws IOException {
+            format.write(w, rec);
+            count++;
+        }
+
+        public void commit() throws IOException {
+            w.commit(count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            w.close();
+        }
+    }
+
+    /**
+     * Buffered NIO writer. Writes go to a temp file that {@link #commit} syncs
+     * and atomically renames over the target; closing without a commit
+     * discards it, so a failed write never replaces a good snapshot.
+     */
+    static final class Writer implements AutoCloseable {
+        private final File target;
+        private final File tmp;
+        private final FileChannel ch;
+        private final ByteBuffer buf;
+        private boolean committed;
+
+        Writer(File f, byte kind, int lastId) throws IOException {
+            this(f, kind, lastId, BUFFER_SIZE);
+        }
+
+        Writer(File f, byte kind, int lastId, int bufferSize) throws IOException {
+            buf = ByteBuffer.allocateDirect(bufferSize);
+            target = f;
+            tmp = new File(f.getPath() + ".tmp");
+            ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buf.putInt(MAGIC).putShort(VERSION).put(kind).put((byte) 0).putInt(0).putInt(lastId);
+        }
+
+        void putByte(byte b) throws IOException {
+            ensure(1);
+            buf.put(b);
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            buf.putInt(v);
+        }
+
+        void putString(String s) throws IOException {
+            if (s == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            if (bytes.length > buf.capacity()) {
+                drain();
+                ch.write(ByteBuffer.wrap(bytes));
+                LibraryMetrics.snapshotBytes.add(bytes.length);
+                return;
+            }
+            ensure(bytes.length);
+            buf.put(bytes);
+        }
+
+        private void ensure(int n) throws IOException {
+            if (buf.remaining() < n) drain();
+        }
+
+        private void drain() throws IOException {
+            buf.flip();
+            LibraryMetrics.snapshotBytes.add(buf.remaining());
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+
+        /** Fills in the record count, then syncs and renames the file into place. */
+        void commit(int count) throws IOException {
+            drain();
+            ch.write(ByteBuffer.allocate(4).putInt(0, count), COUNT_OFFSET);
+            ch.force(true);
+            ch.close();
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed) return;
+            ch.close();
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+}
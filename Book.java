@@ -1,24 +1,53 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 public class Book implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    // copy counts are read without the Library lock; updated with CAS
+    private static final AtomicIntegerFieldUpdater<Book> AVAILABLE =
+            AtomicIntegerFieldUpdater.newUpdater(Book.class, "availableCopies");
+
+    // the serialized form of the legacy .dat files, which held author and category as strings
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("id", int.class),
+            new ObjectStreamField("title", String.class),
+            new ObjectStreamField("author", String.class),
+            new ObjectStreamField("isbn", String.class),
+            new ObjectStreamField("totalCopies", int.class),
+            new ObjectStreamField("availableCopies", int.class),
+            new ObjectStreamField("category", String.class),
+    };
+
     private int id;
     private String title;
-    private String author;
+    // author and category repeat across many books: codes into the shared StringDictionary tables
+    private int authorCode;
     private String isbn;
-    private int totalCopies;
-    private int availableCopies;
-    private String category;
+    private volatile int totalCopies;
+    private volatile int availableCopies;
+    private int categoryCode;
+    // edits saved so far; an edit made from an older version is refused (see Library.updateBook)
+    private int version;
 
     public Book(int id, String title, String author, String isbn, int totalCopies, String category) {
+        this(id, title, StringDictionary.AUTHORS.encode(author), isbn, totalCopies,
+                StringDictionary.CATEGORIES.encode(category));
+    }
+
+    /** For loaders that already hold dictionary codes. */
+    Book(int id, String title, int authorCode, String isbn, int totalCopies, int categoryCode) {
         this.id = id;
         this.title = title;
-        this.author = author;
+        this.authorCode = authorCode;
         this.isbn = isbn;
         this.totalCopies = Math.max(1, totalCopies);
         this.availableCopies = this.totalCopies;
-        this.category = category;
+        this.categoryCode = categoryCode;
     }
 
     // getters / setters
@@ -26,32 +55,70 @@ public class Book implements Serializable {
     public void setId(int id) { this.id = id; }
     public String getTitle() { return title; }
     public void setTitle(String title) { this.title = title; }
-    public String getAuthor() { return author; }
-    public void setAuthor(String author) { this.author = author; }
+    public String getAuthor() { return StringDictionary.AUTHORS.decode(authorCode); }
+    public void setAuthor(String author) { this.authorCode = StringDictionary.AUTHORS.encode(author); }
+    public int getAuthorCode() { return authorCode; }
     public String getIsbn() { return isbn; }
     public void setIsbn(String isbn) { this.isbn = isbn; }
     public int getTotalCopies() { return totalCopies; }
-    public void setTotalCopies(int totalCopies) {
+    public synchronized void setTotalCopies(int totalCopies) {
         int diff = totalCopies - this.totalCopies;
         this.totalCopies = Math.max(1, totalCopies);
-        this.availableCopies = Math.max(0, this.availableCopies + diff);
+        AVAILABLE.updateAndGet(this, a -> Math.max(0, a + diff));
     }
     public int getAvailableCopies() { return availableCopies; }
     public void setAvailableCopies(int availableCopies) { this.availableCopies = availableCopies; }
-    public String getCategory() { return category; }
-    public void setCategory(String category) { this.category = category; }
+    public String getCategory() { return StringDictionary.CATEGORIES.decode(categoryCode); }
+    public void setCategory(String category) { this.categoryCode = StringDictionary.CATEGORIES.encode(category); }
+    public int getCategoryCode() { return categoryCode; }
+    /** Number of edits saved; copy counts change by checkout and return without a new version. */
+    public int getVersion() { return version; }
+    public void setVersion(int version) { this.version = version; }
 
     public boolean isAvailable() { return availableCopies > 0; }
 
+    /** Takes one copy if any is left; never lets the count go below zero. */
     public boolean issueOne() {
-        if (availableCopies > 0) { availableCopies--; return true; }
-        return false;
+        while (true) {
+            int a = availableCopies;
+            if (a <= 0) return false;
+            if (AVAILABLE.compareAndSet(this, a, a - 1)) return true;
+        }
     }
 
-    public void returnOne() { if (availableCopies < totalCopies) availableCopies++; }
+    public void returnOne() {
+        while (true) {
+            int a = availableCopies;
+            if (a >= totalCopies) return;
+            if (AVAILABLE.compareAndSet(this, a, a + 1)) return;
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField f = out.putFields();
+        f.put("id", id);
+        f.put("title", title);
+        f.put("author", getAuthor());
+        f.put("isbn", isbn);
+        f.put("totalCopies", totalCopies);
+        f.put("availableCopies", availableCopies);
+        f.put("category", getCategory());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField f = in.readFields();
+        id = f.get("id", 0);
+        title = (String) f.get("title", null);
+        authorCode = StringDictionary.AUTHORS.encode((String) f.get("author", null));
+        isbn = (String) f.get("isbn", null);
+        totalCopies = f.get("totalCopies", 0);
+        availableCopies = f.get("availableCopies", 0);
+        categoryCode = StringDictionary.CATEGORIES.encode((String) f.get("category", null));
+    }
 
     @Override
     public String toString() {
-        return String.format("[%d] %s - %s (%d/%d)", id, title, author, availableCopies, totalCopies);
+        return String.format("[%d] %s - %s (%d/%d)", id, title, getAuthor(), availableCopies, totalCopies);
     }
 }
@@ -0,0 +1,172 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Book ids per category, per author and of the books with a copy on the
+ * shelf, as {@link IdBitmap}s keyed by {@link StringDictionary} code. A
+ * filter like "Physics and available" is one intersection, and the count of
+ * every category under it one intersection count each, with no book read.
+ *
+ * Library keeps it in step under its write lock, and refreshes the
+ * availability bit after every change to a book's copy counts. The codes a
+ * book was added with are remembered by id, so a book edited in place
+ * before it is re-indexed is still taken out of the right sets. Not
+ * thread-safe.
+ */
+public final class BookFacets {
+    // facet counts tally the filtered books instead of intersecting when there are
+    // fewer than this many of them per value of the facet
+    private static final int TALLY_PER_VALUE = 32;
+
+    // indexed by dictionary code, which is small and dense
+    private IdBitmap[] byCategory = new IdBitmap[16];
+    private IdBitmap[] byAuthor = new IdBitmap[16];
+    private final IdBitmap available = new IdBitmap();
+    // by book id: the codes it is indexed under, plus one; 0 = not indexed
+    private int[] categoryOf = new int[16];
+    private int[] authorOf = new int[16];
+
+    /** Facet counts of the books matching a query; see {@link Library#getBookFacets}. */
+    public static final class Counts {
+        /** Books matching the whole query. */
+        public final int total;
+        /** Books matching the query apart from availability that have a copy on the shelf. */
+        public final int available;
+        /** Books per category, most first, under the query's other filters. */
+        public final Map<String, Integer> categories;
+        /** The most frequent authors, most first, under the query's other filters. */
+        public final Map<String, Integer> authors;
+
+        Counts(int total, int available, Map<String, Integer> categories, Map<String, Integer> authors) {
+            this.total = total;
+            this.available = available;
+            this.categories = categories;
+            this.authors = authors;
+        }
+    }
+
+    /** Indexes a book that is not indexed yet. */
+    public void add(Book b) {
+        int id = b.getId();
+        if (id >= categoryOf.length) {
+            categoryOf = Arrays.copyOf(categoryOf, Math.max(id + 1, categoryOf.length * 2));
+            authorOf = Arrays.copyOf(authorOf, categoryOf.length);
+        }
+        categoryOf[id] = b.getCategoryCode() + 1;
+        authorOf[id] = b.getAuthorCode() + 1;
+        byCategory = facet(byCategory, b.getCategoryCode(), id);
+        byAuthor = facet(byAuthor, b.getAuthorCode(), id);
+        if (b.isAvailable()) available.add(id);
+    }
+
+    /** Takes a book out of every set; nothing if it was not indexed. */
+    public void remove(int id) {
+        if (id >= categoryOf.length || categoryOf[id] == 0) return;
+        byCategory[categoryOf[id] - 1].remove(id);
+        byAuthor[authorOf[id] - 1].remove(id);
+        categoryOf[id] = 0;
+        authorOf[id] = 0;
+        available.remove(id);
+    }
+
+    /** Re-reads whether a copy of {@code b} is on the shelf. */
+    public void refreshAvailable(Book b) {
+        available.set(b.getId(), b.isAvailable());
+    }
+
+    public void clear() {
+        byCategory = new IdBitmap[16];
+        byAuthor = new IdBitmap[16];
+        available.clear();
+        categoryOf = new int[16];
+        authorOf = new int[16];
+    }
+
+    /**
+     * Books with exactly this author and category (null = any) and, with
+     * {@code availableOnly}, a copy on the shelf; null when nothing is
+     * filtered. A value no book has ever used matches nothing. The result
+     * may be one of the index's own sets: read it, do not change it.
+     */
+    public IdBitmap matching(String author, String category, boolean availableOnly) {
+        return and(and(author == null ? null : facet(byAuthor, StringDictionary.AUTHORS, author),
+                category == null ? null : facet(byCategory, StringDictionary.CATEGORIES, category)),
+                availableOnly ? available : null);
+    }
+
+    /**
+     * Counts for a faceted search over {@code all} books: each facet is counted
+     * under every filter but its own, so the alternatives to a chosen category
+     * keep their counts. {@code hits} restricts everything to a search result
+     * (null = no search). At most {@code maxAuthors} authors are listed.
+     */
+    public Counts count(int all, IdBitmap hits, String author, String category, boolean availableOnly,
+                        int maxAuthors) {
+        IdBitmap byAuthorFilter = author == null ? null : facet(byAuthor, StringDictionary.AUTHORS, author);
+        IdBitmap byCategoryFilter = category == null ? null : facet(byCategory, StringDictionary.CATEGORIES, category);
+        IdBitmap byAvailability = availableOnly ? available : null;
+
+        IdBitmap withoutAvailability = and(hits, and(byAuthorFilter, byCategoryFilter));
+        IdBitmap everything = and(withoutAvailability, byAvailability);
+        int total = everything == null ? all : everything.cardinality();
+        int onShelf = withoutAvailability == null ? available.cardinality()
+                : withoutAvailability.andCardinality(available);
+        Map<String, Integer> categories = top(byCategory, categoryOf, StringDictionary.CATEGORIES,
+                and(hits, and(byAuthorFilter, byAvailability)), Integer.MAX_VALUE);
+        Map<String, Integer> authors = top(byAuthor, authorOf, StringDictionary.AUTHORS,
+                and(hits, and(byCategoryFilter, byAvailability)), maxAuthors);
+        return new Counts(total, onShelf, categories, authors);
+    }
+
+    /**
+     * Values of a facet with their counts under {@code filter} (null = none),
+     * most first, at most {@code max}. {@code codeOf} is the facet's code per
+     * book id, plus one.
+     */
+    private static Map<String, Integer> top(IdBitmap[] facet, int[] codeOf, StringDictionary values, IdBitmap filter,
+                                            int max) {
+        int[] counts = new int[facet.length];
+        if (filter != null && filter.cardinality() < facet.length * TALLY_PER_VALUE) {
+            // a filter that is small next to the number of values: tally its books
+            for (int id : filter.toArray()) counts[codeOf[id] - 1]++;
+        } else {
+            for (int code = 0; code < facet.length; code++) {
+                IdBitmap set = facet[code];
+                counts[code] = set == null ? 0 : filter == null ? set.cardinality() : filter.andCardinality(set);
+            }
+        }
+        // count and code packed so that a plain sort puts the most frequent first, ties by code
+        long[] ranked = new long[facet.length];
+        int n = 0;
+        for (int code = 0; code < facet.length; code++) {
+            if (counts[code] > 0) ranked[n++] = (long) (Integer.MAX_VALUE - counts[code]) << 32 | code;
+        }
+        Arrays.sort(ranked, 0, n);
+        Map<String, Integer> out = new LinkedHashMap<>();
+        for (int i = 0; i < Math.min(max, n); i++) {
+            int code = (int) ranked[i];
+            out.put(String.valueOf(values.decode(code)), Integer.MAX_VALUE - (int) (ranked[i] >>> 32));
+        }
+        return out;
+    }
+
+    private static IdBitmap and(IdBitmap a, IdBitmap b) {
+        return a == null ? b : b == null ? a : a.and(b);
+    }
+
+    /** Adds {@code id} to the set of {@code code}, growing the table if needed; returns the table. */
+    private static IdBitmap[] facet(IdBitmap[] facet, int code, int id) {
+        if (code >= facet.length) facet = Arrays.copyOf(facet, Math.max(code + 1, facet.length * 2));
+        if (facet[code] == null) facet[code] = new IdBitmap();
+        facet[code].add(id);
+        return facet;
+    }
+
+    /** The set of a value; empty for a value no book has. */
+    private static IdBitmap facet(IdBitmap[] facet, StringDictionary values, String value) {
+        int code = values.find(value);
+        IdBitmap set = code == StringDictionary.ABSENT || code >= facet.length ? null : facet[code];
+        return set == null ? new IdBitmap() : set;
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks the facet bitmaps against brute-force counts over the catalog.
+ * Books are added, deleted, moved to another category or author, given more
+ * or fewer copies, checked out and returned, one at a time and in batches;
+ * every so often, for a set of queries, the total, the number on the shelf
+ * and the counts per category and per author must match a scan, and the
+ * total must match the paged query's. The same holds after a reopen, when
+ * the bitmaps are built from the loaded catalog.
+ *
+ * Usage: java BookFacetsTest [operations]
+ *
+ * Runs in a fresh temporary directory; exits with status 1 on a violation.
+ */
+public class BookFacetsTest {
+    private static final String[] CATEGORIES = {"Physics", "History", "Poetry", "Law", "Art", "Maths"};
+    private static final int AUTHORS = 15;
+    private static final int TOP_AUTHORS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        List<String> violations = new ArrayList<>();
+        File dir = Files.createTempDirectory("library-facets").toFile();
+        Library library = new Library(dir);
+        Random rnd = new Random(23);
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 400; i++) addBook(library, rnd, i);
+        for (int i = 0; i < 40; i++) library.addStudent("Member " + i, "", "", "R" + i);
+
+        for (int op = 1; op <= operations && violations.size() < 20; op++) {
+            int kind = rnd.nextInt(100);
+            List<Book> books = library.getBooks();
+            Book b = books.get(rnd.nextInt(books.size()));
+            int userId = 1 + rnd.nextInt(40);
+            try {
+                if (kind < 30) {
+                    library.issueBook(b.getId(), userId, today, today.plusDays(14));
+                } else if (kind < 50) {
+                    List<IssueRecord> active = library.getActiveIssues();
+                    if (!active.isEmpty()) library.returnBook(active.get(rnd.nextInt(active.size())).getId(), today);
+                } else if (kind < 55) {
+                    List<Library.Checkout> batch = new ArrayList<>();
+                    for (int i = 0; i < 5; i++) batch.add(new Library.Checkout(books.get(rnd.nextInt(books.size())).getId(), userId));
+                    library.issueBooks(batch, today, today.plusDays(7), false);
+                } else if (kind < 60) {
+                    List<Integer> back = new ArrayList<>();
+                    for (IssueRecord r : library.getActiveIssues()) if (rnd.nextInt(4) == 0) back.add(r.getId());
+                    library.returnBooks(back, today, false);
+                } else if (kind < 80) {
+                    Book edit = new Book(b.getId(), b.getTitle(),
+                            rnd.nextBoolean() ? b.getAuthor() : author(rnd),
+                            b.getIsbn(), Math.max(1, b.getTotalCopies() + rnd.nextInt(3) - 1),
+                            rnd.nextBoolean() ? b.getCategory() : CATEGORIES[rnd.nextInt(CATEGORIES.length)]);
+                    edit.setVersion(b.getVersion());
+                    library.updateBook(edit);
+                } else if (kind < 90) {
+                    addBook(library, rnd, 400 + op);
+                } else {
+                    library.deleteBook(b.getId());
+                }
+            } catch (Exception refused) {
+                // no copy on the shelf, or copies still out
+            }
+            if (op % 100 == 0) check(violations, "after " + op + " changes", library);
+        }
+        check(violations, "at the end", library);
+        library.close();
+        library = new Library(dir);
+        check(violations, "after a reopen", library);
+        library.close();
+
+        if (!violations.isEmpty()) {
+            for (String v : violations) System.err.println(v);
+            System.exit(1);
+        }
+        System.out.printf("OK: %d operations, facet counts match a scan throughout%n", operations);
+    }
+
+    private static void check(List<String> violations, String when, Library library) {
+        Set<Integer> hits = new HashSet<>();
+        for (Book b : library.searchBooks("volume", Integer.MAX_VALUE)) hits.add(b.getId());
+        check(violations, when, library, new Filter(null, null, false, null));
+        check(violations, when, library, new Filter("Physics", null, false, null));
+        check(violations, when, library, new Filter(null, "Author 3", false, null));
+        check(violations, when, library, new Filter(null, null, true, null));
+        check(violations, when, library, new Filter("Physics", null, true, null));
+        check(violations, when, library, new Filter("Law", "Author 7", false, null));
+        check(violations, when, library, new Filter("Art", null, true, hits));
+        check(violations, when, library, new Filter("Cookery", null, false, null));
+    }
+
+    /** A catalog query, which a scan can apply with any one filter left out. */
+    private static final class Filter {
+        final String category;
+        final String author;
+        final boolean availableOnly;
+        final Set<Integer> hits; // books matching the search word "volume"; null = no search
+
+        Filter(String category, String author, boolean availableOnly, Set<Integer> hits) {
+            this.category = category;
+            this.author = author;
+            this.availableOnly = availableOnly;
+            this.hits = hits;
+        }
+
+        Query.Books query() {
+            return new Query.Books().category(category).author(author).availableOnly(availableOnly)
+                    .text(hits == null ? null : "volume");
+        }
+
+        boolean matches(Book b, boolean byCategory, boolean byAuthor, boolean byAvailability) {
+            return (!byCategory || category == null || category.equals(b.getCategory()))
+                    && (!byAuthor || author == null || author.equals(b.getAuthor()))
+                    && (!byAvailability || !availableOnly || b.isAvailable())
+                    && (hits == null || hits.contains(b.getId()));
+        }
+
+        @Override
+        public String toString() {
+            return "category " + category + ", author " + author + (availableOnly ? ", available" : "")
+                    + (hits == null ? "" : ", volume");
+        }
+    }
+
+    /** One query's facets against a scan: each facet is counted under the query's other filters. */
+    private static void check(List<String> violations, String when, Library library, Filter f) {
+        String at = when + ", " + f + ": ";
+        BookFacets.Counts counts = library.getBookFacets(f.query(), TOP_AUTHORS);
+        int total = 0, available = 0;
+        Map<String, Integer> categories = new HashMap<>();
+        Map<String, Integer> authors = new HashMap<>();
+        for (Book b : library.getBooks()) {
+            if (f.matches(b, true, true, true)) total++;
+            if (f.matches(b, true, true, false) && b.isAvailable()) available++;
+            if (f.matches(b, false, true, true)) categories.merge(b.getCategory(), 1, Integer::sum);
+            if (f.matches(b, true, false, true)) authors.merge(b.getAuthor(), 1, Integer::sum);
+        }
+        if (counts.total != total) violations.add(at + "total " + counts.total + " != " + total);
+        int paged = library.queryBooks(f.query()).total;
+        if (paged != total) violations.add(at + "paged query total " + paged + " != " + total);
+        if (counts.available != available) violations.add(at + "available " + counts.available + " != " + available);
+        if (!counts.categories.equals(categories)) violations.add(at + "categories " + counts.categories + " != " + categories);
+        checkRanked(violations, at + "categories", counts.categories);
+
+        // ties at the cut are listed in no fixed order, so only the counts are compared there
+        if (counts.authors.size() != Math.min(TOP_AUTHORS, authors.size())) {
+            violations.add(at + counts.authors.size() + " authors listed of " + authors.size());
+        }
+        int least = Integer.MAX_VALUE;
+        for (Map.Entry<String, Integer> e : counts.authors.entrySet()) {
+            if (!e.getValue().equals(authors.get(e.getKey()))) {
+                violations.add(at + e.getKey() + " has " + e.getValue() + " books, a scan finds " + authors.get(e.getKey()));
+            }
+            least = Math.min(least, e.getValue());
+        }
+        for (Map.Entry<String, Integer> e : authors.entrySet()) {
+            if (!counts.authors.containsKey(e.getKey()) && e.getValue() > least) {
+                violations.add(at + e.getKey() + " with " + e.getValue() + " books is missing from the top authors");
+            }
+        }
+        checkRanked(violations, at + "authors", counts.authors);
+    }
+
+    private static void checkRanked(List<String> violations, String what, Map<String, Integer> counts) {
+        int previous = Integer.MAX_VALUE;
+        for (int n : counts.values()) {
+            if (n > previous) violations.add(what + " not most first: " + counts);
+            previous = n;
+        }
+    }
+
+    private static void addBook(Library library, Random rnd, int i) {
+        String title = (rnd.nextInt(4) == 0 ? "Collected volume " : "Title ") + i;
+        library.addBook(title, author(rnd), "isbn" + i, 1 + rnd.nextInt(3), CATEGORIES[rnd.nextInt(CATEGORIES.length)]);
+    }
+
+    private static String author(Random rnd) {
+        return "Author " + rnd.nextInt(AUTHORS);
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Books table that pages through {@link Library#queryBooks}. While a search
+ * is active the rows are the hits; otherwise the whole catalog. Id, title
+ * and author columns sort through the Library's indexes.
+ */
+public class BookTableModel extends PagedTableModel<Book> {
+    private static final String[] COLUMNS = {"ID", "Title", "Author", "ISBN", "Total", "Available", "Category"};
+    private static final Class<?>[] TYPES = {Integer.class, String.class, String.class, String.class,
+            Integer.class, Integer.class, String.class};
+    // sort order of each column; null where there is none
+    private static final Query.Books.Sort[] SORTS = {Query.Books.Sort.ID, Query.Books.Sort.TITLE,
+            Query.Books.Sort.AUTHOR, null, null, null, null};
+
+    private final Library library;
+    private String text; // null = show all books
+    private Query.Books.Sort sort = Query.Books.Sort.ID;
+    private boolean descending;
+
+    public BookTableModel(Library library) {
+        this.library = library;
+    }
+
+    @Override
+    protected Page<Book> fetch(int offset, int limit) {
+        return library.queryBooks(new Query.Books().text(text).sort(sort).descending(descending)
+                .offset(offset).limit(limit));
+    }
+
+    @Override
+    protected int idOf(Book b) { return b.getId(); }
+
+    @Override
+    public boolean sortBy(int column) {
+        if (SORTS[column] == null) return false;
+        descending = SORTS[column] == sort && !descending;
+        sort = SORTS[column];
+        fireTableDataChanged();
+        return true;
+    }
+
+    public Book getBookAt(int row) { return getRowAt(row); }
+
+    /** Restricts the table to books matching the search words; null or blank shows the whole catalog again. */
+    public void setSearch(String query) {
+        text = query == null || query.trim().isEmpty() ? null : query;
+        fireTableDataChanged();
+    }
+
+    @Override
+    public int getColumnCount() { return COLUMNS.length; }
+
+    @Override
+    public String getColumnName(int c) { return COLUMNS[c]; }
+
+    @Override
+    public Class<?> getColumnClass(int c) { return TYPES[c]; }
+
+    @Override
+    public Object getValueAt(int r, int c) {
+        Book b = getBookAt(r);
+        if (b == null) return null;
+        switch (c) {
+            case 0: return b.getId();
+            case 1: return b.getTitle();
+            case 2: return b.getAuthor();
+            case 3: return b.getIsbn();
+            case 4: return b.getTotalCopies();
+            case 5: return b.getAvailableCopies();
+            default: return b.getCategory();
+        }
+    }
+}
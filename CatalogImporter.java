@@ -0,0 +1,336 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk import of books from CSV or TSV files.
+ *
+ * The file is streamed in chunks of rows. Worker threads parse and validate
+ * the chunks in parallel, and the chunks are applied to the Library in file
+ * order through {@link Library#addBooks}. That call skips ISBNs that are
+ * already in the catalog, including ones added earlier in the same file.
+ * Only a few chunks are in flight at a time, so memory use does not grow
+ * with the file size. A snapshot is written once at the end.
+ *
+ * The first line may be a header naming the columns (title, author, isbn,
+ * copies, category, in any order). Without a header the columns are read in
+ * that order. CSV fields may be quoted, but a quoted field must not span
+ * lines.
+ */
+public class CatalogImporter {
+    private static final int CHUNK_ROWS = 1000;
+    private static final int MAX_COPIES = 100_000;
+    private static final String[] COLUMNS = {"title", "author", "isbn", "copies", "category"};
+
+    /** Progress callbacks; they run on the importing thread. */
+    public interface Listener {
+        void progress(long rowsRead, int imported, int rejected);
+        void rejected(long line, String reason);
+    }
+
+    /** Totals of one import. */
+    public static final class Result {
+        public final long rows;
+        public final int imported;
+        public final int duplicates;
+        public final int invalid;
+
+        Result(long rows, int imported, int duplicates, int invalid) {
+            this.rows = rows;
+            this.imported = imported;
+            this.duplicates = duplicates;
+            this.invalid = invalid;
+        }
+
+        @Override
+        public String toString() {
+            return "Imported " + imported + " of " + rows + " rows (" + duplicates + " duplicate ISBNs, "
+                    + invalid + " invalid rows)";
+        }
+    }
+
+    /** One chunk of raw rows; the parse results are filled in by a worker. */
+    private static final class Chunk {
+        final long firstLine;
+        final List<String> rows = new ArrayList<>(CHUNK_ROWS);
+        final List<Book> drafts = new ArrayList<>();
+        final List<Long> draftLines = new ArrayList<>();
+        final List<Long> errorLines = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+
+        Chunk(long firstLine) {
+            this.firstLine = firstLine;
+        }
+    }
+
+    private final Library library;
+    private final int threads;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private long rowsRead;
+    private int imported;
+    private int duplicates;
+    private int invalid;
+
+    public CatalogImporter(Library library) {
+        this(library, Runtime.getRuntime().availableProcessors());
+    }
+
+    public CatalogImporter(Library library, int threads) {
+        this.library = library;
+        this.threads = Math.max(1, threads);
+    }
+
+    public void addListener(Listener l) { listeners.add(l); }
+    public void removeListener(Listener l) { listeners.remove(l); }
+
+    /** Imports a .csv or .tsv file. The delimiter comes from the extension, else from the first line. */
+    public Result importFile(File f) throws IOException {
+        String name = f.getName().toLowerCase();
+        Character delimiter = name.endsWith(".tsv") || name.endsWith(".tab") ? Character.valueOf('\t')
+                : name.endsWith(".csv") ? Character.valueOf(',') : null;
+        try (BufferedReader in = Files.newBufferedReader(f.toPath(), StandardCharsets.UTF_8)) {
+            return importFrom(in, delimiter);
+        }
+    }
+
+    /**
+     * Imports rows from {@code in}, delimited by {@code delimiter} (null to
+     * detect it from the first line). If the thread is interrupted, the import
+     * stops with an InterruptedIOException. Rows already imported are kept.
+     */
+    public Result importFrom(Reader in, Character delimiter) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        rowsRead = 0;
+        imported = 0;
+        duplicates = 0;
+        invalid = 0;
+
+        String first = reader.readLine();
+        if (first == null) return result();
+        if (first.startsWith("\uFEFF")) first = first.substring(1); // byte order mark
+        char delim = delimiter != null ? delimiter : first.indexOf('\t') >= 0 ? '\t' : ',';
+        int[] columns = headerColumns(first, delim);
+        long lineNo = 1;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "catalog-import");
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        try {
+            Chunk chunk = new Chunk(columns == null ? 1 : 2);
+            if (columns == null) {
+                columns = new int[]{0, 1, 2, 3, 4};
+                chunk.rows.add(first);
+            }
+            int[] cols = columns;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                chunk.rows.add(line);
+                if (chunk.rows.size() < CHUNK_ROWS) continue;
+                Chunk full = chunk;
+                inFlight.add(pool.submit(() -> parse(full, cols, delim)));
+                chunk = new Chunk(lineNo + 1);
+                // bound the chunks held in memory; apply the oldest one when the window is full
+                if (inFlight.size() >= threads * 2) apply(inFlight.poll());
+            }
+            if (!chunk.rows.isEmpty()) {
+                Chunk last = chunk;
+                inFlight.add(pool.submit(() -> parse(last, cols, delim)));
+            }
+            while (!inFlight.isEmpty()) apply(inFlight.poll());
+        } finally {
+            for (Future<Chunk> f : inFlight) f.cancel(true);
+            pool.shutdownNow();
+            // one snapshot for the whole import (also for a partial one) instead of a long journal
+            if (imported > 0) library.saveAll();
+        }
+        return result();
+    }
+
+    private Result result() {
+        return new Result(rowsRead, imported, duplicates, invalid);
+    }
+
+    private void apply(Future<Chunk> future) throws IOException {
+        if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Import cancelled");
+        Chunk c;
+        try {
+            c = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import cancelled");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to parse rows: " + e.getCause(), e.getCause());
+        }
+        rowsRead += c.rows.size();
+        for (int i = 0; i < c.errors.size(); i++) {
+            invalid++;
+            for (Listener l : listeners) l.rejected(c.errorLines.get(i), c.errors.get(i));
+        }
+        List<Book> added = library.addBooks(c.drafts);
+        for (int i = 0; i < added.size(); i++) {
+            if (added.get(i) != null) {
+                imported++;
+                continue;
+            }
+            duplicates++;
+            for (Listener l : listeners) {
+                l.rejected(c.draftLines.get(i), "ISBN " + c.drafts.get(i).getIsbn() + " is already in the catalog");
+            }
+        }
+        for (Listener l : listeners) l.progress(rowsRead, imported, duplicates + invalid);
+    }
+
+    // ---------- parsing ----------
+    /** Column positions for title, author, isbn, copies, category (-1 = absent), or null if not a header. */
+    private static int[] headerColumns(String line, char delim) {
+        List<String> cells = split(line, delim);
+        if (cells == null) return null;
+        int[] pos = {-1, -1, -1, -1, -1};
+        boolean header = false;
+        for (int i = 0; i < cells.size(); i++) {
+            String cell = cells.get(i).trim().toLowerCase();
+            for (int c = 0; c < COLUMNS.length; c++) {
+                if (cell.equals(COLUMNS[c]) || (c == 3 && cell.equals("total copies"))) {
+                    pos[c] = i;
+                    header = true;
+                }
+            }
+        }
+        return header ? pos : null;
+    }
+
+    private static Chunk parse(Chunk c, int[] cols, char delim) {
+        long lineNo = c.firstLine;
+        for (String row : c.rows) {
+            long line = lineNo++;
+            if (row.trim().isEmpty()) continue;
+            String error;
+            List<String> cells = split(row, delim);
+            if (cells == null) {
+                error = "unterminated quote";
+            } else {
+                String title = cell(cells, cols[0]);
+                String isbn = cell(cells, cols[2]);
+                String copies = cell(cells, cols[3]);
+                int total = 1;
+                error = null;
+                if (title.isEmpty()) {
+                    error = "missing title";
+                } else if (!isbn.isEmpty() && !validIsbn(isbn)) {
+                    error = "invalid ISBN \"" + isbn + "\"";
+                } else if (!copies.isEmpty()) {
+                    try {
+                        total = Integer.parseInt(copies);
+                    } catch (NumberFormatException e) {
+                        total = 0;
+                    }
+                    if (total < 1 || total > MAX_COPIES) error = "invalid number of copies \"" + copies + "\"";
+                }
+                if (error == null) {
+                    c.drafts.add(new Book(0, title, cell(cells, cols[1]), isbn, total, cell(cells, cols[4])));
+                    c.draftLines.add(line);
+                    continue;
+                }
+            }
+            c.errorLines.add(line);
+            c.errors.add(error);
+        }
+        return c;
+    }
+
+    private static String cell(List<String> cells, int i) {
+        return i < 0 || i >= cells.size() ? "" : cells.get(i).trim();
+    }
+
+    /** 10 or 13 digits once separators are dropped; an ISBN-10 may end in X. */
+    private static boolean validIsbn(String isbn) {
+        for (int i = 0; i < isbn.length(); i++) {
+            char c = isbn.charAt(i);
+            if (!(c >= '0' && c <= '9') && c != '-' && c != ' ' && c != 'X' && c != 'x') return false;
+        }
+        String compact = Library.compactIsbn(isbn);
+        if (compact == null) return false;
+        int x = compact.indexOf('X');
+        if (compact.length() == 10) return x < 0 || x == 9;
+        return compact.length() == 13 && x < 0;
+    }
+
+    /** Splits one row. Quotes are honoured for CSV only. Returns null if a quote is left open. */
+    static List<String> split(String line, char delim) {
+        List<String> out = new ArrayList<>();
+        if (delim != ',') {
+            int start = 0;
+            for (int i = line.indexOf(delim); i >= 0; i = line.indexOf(delim, start)) {
+                out.add(line.substring(start, i));
+                start = i + 1;
+            }
+            out.add(line.substring(start));
+            return out;
+        }
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') cur.append(c);
+                else if (i + 1 < line.length() && line.charAt(i + 1) == '"') cur.append(line.charAt(++i));
+                else quoted = false;
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == delim) {
+                out.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        if (quoted) return null;
+        out.add(cur.toString());
+        return out;
+    }
+
+    // ---------- command line ----------
+    /** Usage: {@code java CatalogImporter <file.csv|file.tsv> [data-dir]} */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java CatalogImporter <file.csv|file.tsv> [data-dir]");
+            System.exit(2);
+        }
+        Library library = new Library(new File(args.length > 1 ? args[1] : "."));
+        CatalogImporter importer = new CatalogImporter(library);
+        importer.addListener(new Listener() {
+            @Override
+            public void progress(long rowsRead, int imported, int rejected) {
+                System.out.print("\r" + rowsRead + " rows read, " + imported + " imported, " + rejected + " rejected");
+            }
+            @Override
+            public void rejected(long line, String reason) {
+                System.err.println("line " + line + ": " + reason);
+            }
+        });
+        try {
+            Result r = importer.importFile(new File(args[0]));
+            System.out.println();
+            System.out.println(r);
+        } finally {
+            library.close();
+        }
+    }
+}
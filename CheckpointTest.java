@@ -0,0 +1,144 @@
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Checks that checkpoints fold the journal into the snapshot without losing
+ * or reviving anything. A desk thread adds, edits, checks out, returns and
+ * deletes while another thread checkpoints over and over. Afterwards the
+ * segments up to the checkpoint mark must be gone, and the library must load
+ * back unchanged three ways: from a copy of the directory taken as a crash
+ * would leave it (snapshot plus unfolded segments), after one more
+ * checkpoint, and after a clean close.
+ *
+ * Usage: java CheckpointTest [seconds]
+ *
+ * Runs in fresh temporary directories; exits with status 1 on a violation.
+ */
+public class CheckpointTest {
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        List<String> violations = new ArrayList<>();
+        File dir = Files.createTempDirectory("library-checkpoint").toFile();
+        Library library = new Library(dir);
+        for (int i = 0; i < 200; i++) library.addBook("Title " + i, "Author " + i % 7, "isbn" + i, 2, "Fold");
+        for (int i = 0; i < 50; i++) library.addStudent("Member " + i, "", "", "R" + i);
+
+        AtomicBoolean done = new AtomicBoolean();
+        int[] checkpoints = {0};
+        Thread folder = new Thread(() -> {
+            while (!done.get()) {
+                library.saveAll();
+                checkpoints[0]++;
+            }
+        }, "checkpoints");
+        folder.start();
+        Random rnd = new Random(1);
+        LocalDate today = LocalDate.now();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        int changes = 0;
+        while (System.nanoTime() < end) {
+            int op = rnd.nextInt(10);
+            int bookId = 1 + rnd.nextInt(library.getBookCount() + 20);
+            int userId = 1 + rnd.nextInt(library.getUserCount() + 5);
+            try {
+                if (op < 4) {
+                    library.issueBook(bookId, userId, today, today.plusDays(14));
+                } else if (op < 6) {
+                    List<IssueRecord> active = library.getActiveIssues();
+                    if (!active.isEmpty()) library.returnBook(active.get(rnd.nextInt(active.size())).getId(), today);
+                } else if (op < 7) {
+                    Book b = library.findBookById(bookId);
+                    if (b != null) {
+                        Book edit = new Book(b.getId(), b.getTitle() + "'", b.getAuthor(), b.getIsbn(),
+                                b.getTotalCopies() + 1, b.getCategory());
+                        edit.setVersion(b.getVersion());
+                        library.updateBook(edit);
+                    }
+                } else if (op < 8) {
+                    library.addBook("New " + changes, "Author", "new" + changes, 1, "Fold");
+                } else if (op < 9) {
+                    library.addStudent("New " + changes, "", "", "N" + changes);
+                } else if (rnd.nextBoolean()) {
+                    library.deleteBook(bookId);
+                } else {
+                    library.deleteUser(userId);
+                }
+                changes++;
+            } catch (Exception refused) {
+                // unknown ids and empty shelves are expected here
+            }
+        }
+        done.set(true);
+        folder.join();
+        library.flush();
+        String expected = state(library);
+        System.out.printf("%d changes, %d checkpoints%n", changes, checkpoints[0]);
+
+        long mark = mark(dir);
+        if (mark == 0) violations.add("no checkpoint recorded a mark");
+        for (File f : dir.listFiles((d, name) -> name.startsWith("journal-") && name.endsWith(".log"))) {
+            long n = Long.parseLong(f.getName().substring(8, f.getName().length() - 4));
+            if (n <= mark) violations.add(f.getName() + " was folded (mark " + mark + ") but not deleted");
+        }
+
+        check(violations, "crash copy", expected, crashCopy(dir));
+        library.saveAll();
+        check(violations, "crash copy after another checkpoint", expected, crashCopy(dir));
+        library.close();
+        check(violations, "reopen after close", expected, dir);
+
+        if (!violations.isEmpty()) {
+            for (String v : violations) System.err.println(v);
+            System.exit(1);
+        }
+        System.out.println("OK: the library loads back unchanged after concurrent checkpoints");
+    }
+
+    private static void check(List<String> violations, String when, String expected, File dir) {
+        Library loaded = new Library(dir);
+        try {
+            if (!expected.equals(state(loaded))) violations.add(when + ": loaded library differs");
+        } finally {
+            loaded.close();
+        }
+    }
+
+    /** Last segment folded into the snapshot, 0 if none. */
+    private static long mark(File dir) throws IOException {
+        File f = new File(dir, Journal.CHECKPOINT_FILE);
+        if (!f.exists()) return 0;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+            return in.readLong();
+        }
+    }
+
+    /** The files of {@code dir} as they are on disk now, in a new directory. */
+    private static File crashCopy(File dir) throws IOException {
+        File copy = Files.createTempDirectory("library-crash").toFile();
+        for (File f : dir.listFiles()) {
+            if (f.isFile()) Files.copy(f.toPath(), new File(copy, f.getName()).toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+        }
+        return copy;
+    }
+
+    /** Every field of every record, in order. */
+    private static String state(Library library) {
+        StringBuilder sb = new StringBuilder();
+        for (Book b : library.getBooks()) {
+            sb.append(b).append(' ').append(b.getIsbn()).append(' ').append(b.getCategory())
+                    .append(" v").append(b.getVersion()).append('\n');
+        }
+        for (User u : library.getUsers()) sb.append(u).append(" v").append(u.getVersion()).append('\n');
+        for (IssueRecord r : library.getIssues()) sb.append(r).append('\n');
+        return sb.toString();
+    }
+}
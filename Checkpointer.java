@@ -0,0 +1,307 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Background checkpoints: folds sealed journal segments into new snapshot
+ * files and deletes them, so the journal (and replay at startup) stays
+ * proportional to recent changes rather than to the whole history.
+ *
+ * A checkpoint never looks at the live Library. It rolls the journal, then
+ * streams the previous snapshot through the changes recorded in the sealed
+ * segments into new files. Writers only wait for the roll, and the result is
+ * consistent because it is exactly the state after the last sealed frame.
+ * Memory use is bounded by the size of the folded segments, not of the data.
+ *
+ * Checkpoints start when the active segment passes {@link #SEGMENT_BYTES},
+ * every {@link #INTERVAL_MINUTES} minutes, and on {@link #checkpoint()}.
+ *
+ * Followers in other processes read the snapshot files and the checkpoint
+ * mark under the shared checkpoint lock ({@link Journal#lockCheckpoint}); a
+ * checkpoint holds it exclusively while it replaces them.
+ *
+ * A checkpoint also tiers the loan history: loans returned more than
+ * {@link #setArchiveAfterDays archive-after} days ago go to the
+ * {@link LoanArchive} instead of the new snapshot, and the Library is told
+ * their ids so it can drop them from memory. Books and members deleted in
+ * the folded segments lose their archived loans as well.
+ */
+public class Checkpointer implements AutoCloseable {
+    /** Active segment size that starts a background checkpoint. */
+    public static final long SEGMENT_BYTES = 16L << 20;
+    public static final long INTERVAL_MINUTES = 10;
+
+    private static final LibraryMetrics.Timer TIMER = LibraryMetrics.timer("checkpoint");
+
+    private final File booksFile;
+    private final File usersFile;
+    private final File issuesFile;
+    private final Journal journal;
+    private final LoanArchive archive;
+    private final Consumer<int[]> onArchived;
+    private volatile int archiveAfterDays;
+    private final AtomicBoolean queued = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "library-checkpoint");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    /** {@code onArchived} gets the ids of the loans each checkpoint moved to {@code archive}. */
+    public Checkpointer(File booksFile, File usersFile, File issuesFile, Journal journal,
+                        LoanArchive archive, int archiveAfterDays, Consumer<int[]> onArchived) {
+        this.booksFile = booksFile;
+        this.usersFile = usersFile;
+        this.issuesFile = issuesFile;
+        this.journal = journal;
+        this.archive = archive;
+        this.archiveAfterDays = archiveAfterDays;
+        this.onArchived = onArchived;
+    }
+
+    public int getArchiveAfterDays() { return archiveAfterDays; }
+
+    /** Age in days after which returned loans are archived; 0 keeps them all in the working set. */
+    public void setArchiveAfterDays(int days) { this.archiveAfterDays = Math.max(0, days); }
+
+    /** Starts the periodic checkpoints. */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::checkpointQuietly, INTERVAL_MINUTES, INTERVAL_MINUTES,
+                TimeUnit.MINUTES);
+    }
+
+    /** Queues a background checkpoint if the active segment has grown past {@link #SEGMENT_BYTES}. */
+    public void maybeCheckpoint() {
+        if (journal.activeSize() < SEGMENT_BYTES || !queued.compareAndSet(false, true)) return;
+        try {
+            scheduler.execute(() -> {
+                try {
+                    checkpointQuietly();
+                } finally {
+                    queued.set(false);
+                }
+            });
+        } catch (RejectedExecutionException closed) {
+            queued.set(false);
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            System.err.println("Checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Seals the active segment and folds every sealed segment into the
+     * snapshot on the calling thread. Returns false if there was nothing to
+     * fold. Library holds this object's monitor while it reloads, so a
+     * reload never reads half-written snapshot files.
+     */
+    public synchronized boolean checkpoint() throws IOException {
+        long start = LibraryMetrics.start();
+        try {
+            long through = journal.roll();
+            long after = journal.getCheckpointed();
+            if (through <= after) return false;
+            Changes changes = new Changes();
+            for (File f : journal.segmentsBetween(after, through)) Journal.replay(f, changes);
+            int[] archived;
+            // followers read the snapshot files and the mark together; keep them out until both are replaced
+            DataDirLock held = journal.lockCheckpoint(false);
+            try {
+                foldBooks(changes);
+                foldUsers(changes);
+                archived = foldIssues(changes);
+                journal.markCheckpoint(through);
+            } finally {
+                held.close();
+            }
+            if (archived.length > 0) onArchived.accept(archived);
+            return true;
+        } finally {
+            TIMER.stop(start);
+        }
+    }
+
+    // ---------- folding ----------
+    // Each kind is rewritten in its old order: records that changed are
+    // replaced in place, deleted ones dropped, new ones appended in the order
+    // they were first logged. That is the order the live maps have too.
+
+    private void foldBooks(Changes c) throws IOException {
+        int lastId = Math.max(lastId(booksFile, BinaryStore.KIND_BOOKS), c.maxBookId);
+        try (BinaryStore.Appender<Book> out = BinaryStore.appendBooks(booksFile, lastId)) {
+            if (booksFile.exists()) {
+                BinaryStore.readBooks(booksFile, b -> {
+                    if (c.deletedBooks.containsKey(b.getId())) return;
+                    Book changed = c.books.remove(b.getId());
+                    add(out, changed != null ? changed : b);
+                });
+            }
+            for (Book b : c.books.values()) out.add(b);
+            out.commit();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void foldUsers(Changes c) throws IOException {
+        int lastId = Math.max(lastId(usersFile, BinaryStore.KIND_USERS), c.maxUserId);
+        try (BinaryStore.Appender<User> out = BinaryStore.appendUsers(usersFile, lastId)) {
+            if (usersFile.exists()) {
+                BinaryStore.readUsers(usersFile, u -> {
+                    if (c.deletedUsers.containsKey(u.getId())) return;
+                    User changed = c.users.remove(u.getId());
+                    add(out, changed != null ? changed : u);
+                });
+            }
+            for (User u : c.users.values()) out.add(u);
+            out.commit();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Folds the issues, moving cold ones to the archive; returns the ids of those archived. */
+    private int[] foldIssues(Changes c) throws IOException {
+        int lastId = Math.max(lastId(issuesFile, BinaryStore.KIND_ISSUES), c.maxIssueId);
+        int days = archiveAfterDays;
+        long cutoff = days > 0 ? LocalDate.now().toEpochDay() - days : Long.MIN_VALUE;
+        IdList archived = new IdList();
+        try (BinaryStore.Appender<IssueRecord> out = BinaryStore.appendIssues(issuesFile, lastId);
+             LoanArchive.Writer cold = archive.writer(r -> !c.deletedBooks.containsKey(r.getBookId())
+                     && !c.deletedUsers.containsKey(r.getUserId()))) {
+            // deleting a book or member drops its archived loans too
+            if (!c.deletedBooks.isEmpty() || !c.deletedUsers.isEmpty()) cold.purge();
+            Consumer<IssueRecord> fold = r -> {
+                if (!r.isReturned() || r.getReturnDay() >= cutoff) {
+                    add(out, r);
+                    return;
+                }
+                try {
+                    cold.add(r);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                archived.add(r.getId());
+            };
+            if (issuesFile.exists()) {
+                BinaryStore.readIssues(issuesFile, r -> {
+                    // a snapshot issue existed before every delete in the segments
+                    if (c.deletedBooks.containsKey(r.getBookId()) || c.deletedUsers.containsKey(r.getUserId())) return;
+                    IssueRecord changed = c.issues.remove(r.getId());
+                    fold.accept(changed != null ? changed : r);
+                });
+            }
+            for (IssueRecord r : c.issues.values()) fold.accept(r);
+            // archived loans must be on disk before the snapshot that no longer has them
+            cold.commit();
+            out.commit();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return archived.toArray();
+    }
+
+    private static final class IdList {
+        private int[] ids = new int[64];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+
+        int[] toArray() { return Arrays.copyOf(ids, size); }
+    }
+
+    private static <T> void add(BinaryStore.Appender<T> out, T rec) {
+        try {
+            out.add(rec);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int lastId(File f, byte kind) throws IOException {
+        return f.exists() ? BinaryStore.readLastId(f, kind) : 0;
+    }
+
+    /**
+     * Net effect of the folded segments: the latest state of every record
+     * they put and the ids they deleted. Ids are never reused, so a deleted
+     * id stays deleted. Deleting a book or member also drops the issues it
+     * has at that point, as {@link Library} does; issues logged later for the
+     * same id survive.
+     */
+    private static final class Changes implements Journal.Replayer {
+        final IntMap<Book> books = new IntMap<>();
+        final IntMap<User> users = new IntMap<>();
+        final IntMap<IssueRecord> issues = new IntMap<>();
+        final IntMap<Boolean> deletedBooks = new IntMap<>();
+        final IntMap<Boolean> deletedUsers = new IntMap<>();
+        int maxBookId;
+        int maxUserId;
+        int maxIssueId;
+
+        public void putBook(Book b) {
+            books.put(b.getId(), b);
+            maxBookId = Math.max(maxBookId, b.getId());
+        }
+
+        public void deleteBook(int bookId) {
+            books.remove(bookId);
+            deletedBooks.put(bookId, Boolean.TRUE);
+            dropIssues(bookId, true);
+        }
+
+        public void putUser(User u) {
+            users.put(u.getId(), u);
+            maxUserId = Math.max(maxUserId, u.getId());
+        }
+
+        public void deleteUser(int userId) {
+            users.remove(userId);
+            deletedUsers.put(userId, Boolean.TRUE);
+            dropIssues(userId, false);
+        }
+
+        public void putIssue(IssueRecord r) {
+            issues.put(r.getId(), r);
+            maxIssueId = Math.max(maxIssueId, r.getId());
+        }
+
+        private void dropIssues(int id, boolean byBook) {
+            List<Integer> drop = new ArrayList<>();
+            for (IssueRecord r : issues.values()) {
+                if ((byBook ? r.getBookId() : r.getUserId()) == id) drop.add(r.getId());
+            }
+            for (int issueId : drop) issues.remove(issueId);
+        }
+    }
+
+    /** Stops scheduling; waits for a running checkpoint rather than interrupting its I/O. */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
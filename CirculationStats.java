@@ -0,0 +1,172 @@
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Circulation counters kept up to date on every issue, return and delete,
+ * so the common reports never walk the loan history. A loan is counted
+ * under the category its book has now; {@link #recategorize} moves a book's
+ * loans when that changes. Not thread-safe; Library guards it with its
+ * index lock.
+ */
+public class CirculationStats {
+    /** An id (book or member) with its loan count. */
+    public static final class Count {
+        public final int id;
+        public final long count;
+
+        public Count(int id, long count) {
+            this.id = id;
+            this.count = count;
+        }
+
+        @Override
+        public String toString() { return id + "=" + count; }
+    }
+
+    private static final class BookStats {
+        final int bookId;
+        String category;
+        int loans;
+
+        BookStats(int bookId, String category) {
+            this.bookId = bookId;
+            this.category = category;
+        }
+    }
+
+    private final IntMap<BookStats> byBook = new IntMap<>();
+    // userId -> {userId, loans}
+    private final IntMap<int[]> byUser = new IntMap<>();
+    private final TreeMap<String, TreeMap<YearMonth, Long>> byCategoryMonth = new TreeMap<>();
+    private long loans;
+    private long returnedLoans;
+    private long returnedLoanDays;
+
+    /**
+     * Counts a loan of a book in {@code category}. To record a return,
+     * {@link #remove} the record before setting its return date and add it again after.
+     */
+    public void add(IssueRecord rec, String category) {
+        BookStats b = byBook.get(rec.getBookId());
+        if (b == null) {
+            b = new BookStats(rec.getBookId(), categoryKey(category));
+            byBook.put(rec.getBookId(), b);
+        }
+        b.loans++;
+        int[] u = byUser.get(rec.getUserId());
+        if (u == null) byUser.put(rec.getUserId(), u = new int[]{rec.getUserId(), 0});
+        u[1]++;
+        bump(b.category, rec, 1);
+        loans++;
+        if (rec.isReturned() && rec.getIssueDay() != IssueRecord.NO_DATE) {
+            returnedLoans++;
+            returnedLoanDays += rec.getReturnDay() - rec.getIssueDay();
+        }
+    }
+
+    /** Reverses {@link #add} for a record in the same state as when it was added. */
+    public void remove(IssueRecord rec) {
+        BookStats b = byBook.get(rec.getBookId());
+        if (b == null) return;
+        if (--b.loans == 0) byBook.remove(rec.getBookId());
+        int[] u = byUser.get(rec.getUserId());
+        if (u != null && --u[1] == 0) byUser.remove(rec.getUserId());
+        bump(b.category, rec, -1);
+        loans--;
+        if (rec.isReturned() && rec.getIssueDay() != IssueRecord.NO_DATE) {
+            returnedLoans--;
+            returnedLoanDays -= rec.getReturnDay() - rec.getIssueDay();
+        }
+    }
+
+    /** Moves the loans of a book to its new category. */
+    public void recategorize(int bookId, String category, List<IssueRecord> bookLoans) {
+        BookStats b = byBook.get(bookId);
+        String key = categoryKey(category);
+        if (b == null || b.category.equals(key)) return;
+        for (IssueRecord rec : bookLoans) bump(b.category, rec, -1);
+        b.category = key;
+        for (IssueRecord rec : bookLoans) bump(b.category, rec, 1);
+    }
+
+    public void clear() {
+        byBook.clear();
+        byUser.clear();
+        byCategoryMonth.clear();
+        loans = 0;
+        returnedLoans = 0;
+        returnedLoanDays = 0;
+    }
+
+    public long getLoanCount() { return loans; }
+
+    /** Mean days between issue and return over returned loans, or 0 if none. */
+    public double getAverageLoanDays() {
+        return returnedLoans == 0 ? 0 : (double) returnedLoanDays / returnedLoans;
+    }
+
+    /** The {@code k} most borrowed books, most loans first. */
+    public List<Count> mostBorrowed(int k) {
+        PriorityQueue<Count> top = new PriorityQueue<>(BY_COUNT);
+        for (BookStats b : byBook.values()) offer(top, k, new Count(b.bookId, b.loans));
+        return sorted(top);
+    }
+
+    /** The {@code k} members with the most loans, most first. */
+    public List<Count> busiestMembers(int k) {
+        PriorityQueue<Count> top = new PriorityQueue<>(BY_COUNT);
+        for (int[] u : byUser.values()) offer(top, k, new Count(u[0], u[1]));
+        return sorted(top);
+    }
+
+    /** Loans per category per month of issue, as a sorted copy. */
+    public Map<String, Map<YearMonth, Long>> loansByCategoryMonth() {
+        Map<String, Map<YearMonth, Long>> out = new TreeMap<>();
+        for (Map.Entry<String, TreeMap<YearMonth, Long>> e : byCategoryMonth.entrySet()) {
+            out.put(e.getKey(), new TreeMap<>(e.getValue()));
+        }
+        return out;
+    }
+
+    // ---------- helpers ----------
+    /** Ascending by count, then descending id, so the queue head is the weakest entry. */
+    static final Comparator<Count> BY_COUNT =
+            Comparator.comparingLong((Count c) -> c.count).thenComparingInt(c -> -c.id);
+
+    static void offer(PriorityQueue<Count> top, int k, Count c) {
+        if (k <= 0) return;
+        if (top.size() < k) top.add(c);
+        else if (BY_COUNT.compare(c, top.peek()) > 0) {
+            top.poll();
+            top.add(c);
+        }
+    }
+
+    static List<Count> sorted(PriorityQueue<Count> top) {
+        List<Count> out = new ArrayList<>(top);
+        out.sort(Collections.reverseOrder(BY_COUNT));
+        return out;
+    }
+
+    static String categoryKey(String category) {
+        return category == null || category.trim().isEmpty() ? "(none)" : category.trim();
+    }
+
+    private void bump(String category, IssueRecord rec, long delta) {
+        if (rec.getIssueDay() == IssueRecord.NO_DATE) return;
+        TreeMap<YearMonth, Long> months = byCategoryMonth.computeIfAbsent(category, c -> new TreeMap<>());
+        YearMonth m = YearMonth.from(rec.getIssueDate());
+        long n = months.getOrDefault(m, 0L) + delta;
+        if (n != 0) months.put(m, n);
+        else {
+            months.remove(m);
+            if (months.isEmpty()) byCategoryMonth.remove(category);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An OS file lock ({@link FileChannel#lock}) on a file of a data directory.
+ * The OS drops it when the process ends, so a crash never leaves a
+ * directory locked.
+ *
+ * Two locks are used: {@code library.lock}, held for as long as a Library
+ * writes the directory, so only one process ever writes it (it also names
+ * that process); and {@code checkpoint.lock}, held exclusively while a
+ * checkpoint replaces the snapshot files and the checkpoint mark, and shared
+ * while a follower reads them, so it never sees one without the other.
+ */
+public final class DataDirLock implements Closeable {
+    static final String WRITER_FILE = "library.lock";
+    static final String CHECKPOINT_FILE = "checkpoint.lock";
+    // the JVM refuses, rather than queues, a lock another channel of this process holds
+    private static final long RETRY_MILLIS = 10;
+
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private DataDirLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Claims {@code dir} for writing. Throws IllegalStateException if another
+     * process, or another Library of this one, already writes it.
+     */
+    public static DataDirLock writer(File dir) throws IOException {
+        dir.mkdirs();
+        FileChannel ch = FileChannel.open(new File(dir, WRITER_FILE).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = ch.tryLock();
+        } catch (OverlappingFileLockException held) {
+            lock = null;
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        if (lock == null) {
+            String holder = holder(ch);
+            ch.close();
+            throw new IllegalStateException(dir.getAbsoluteFile().toPath().normalize() + " is open for writing by "
+                    + (holder.isEmpty() ? "another process" : holder));
+        }
+        ch.truncate(0);
+        ch.write(ByteBuffer.wrap(("process " + ProcessHandle.current().pid()).getBytes(StandardCharsets.UTF_8)), 0);
+        return new DataDirLock(ch, lock);
+    }
+
+    /**
+     * Waits for the checkpoint lock of {@code dir}: shared to read the
+     * snapshot files and the mark, exclusive to replace them.
+     */
+    public static DataDirLock checkpoint(File dir, boolean shared) throws IOException {
+        FileChannel ch = FileChannel.open(new File(dir, CHECKPOINT_FILE).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            while (true) {
+                try {
+                    return new DataDirLock(ch, ch.lock(0, Long.MAX_VALUE, shared));
+                } catch (OverlappingFileLockException held) {
+                    Thread.sleep(RETRY_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            ch.close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + CHECKPOINT_FILE);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /** What the holder of the writer lock wrote into it; empty if it cannot be read. */
+    private static String holder(FileChannel ch) {
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(64);
+            ch.read(buf, 0);
+            return new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            // locked against reading too (Windows)
+            return "";
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.release();
+        } finally {
+            channel.close();
+        }
+    }
+}
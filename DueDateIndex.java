@@ -0,0 +1,68 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Active (unreturned) issues bucketed by due day, plus each member's active
+ * issues. Queries walk only the buckets in the requested range, so they cost
+ * time in proportion to what they return, not to the loan history. Returned
+ * issues are removed, so they are never visited again.
+ */
+public class DueDateIndex {
+    // epoch day of the due date -> issues due that day
+    private final TreeMap<Long, IntMap<IssueRecord>> byDay = new TreeMap<>();
+    private final IntMap<IntMap<IssueRecord>> byUser = new IntMap<>();
+
+    public void add(IssueRecord rec) {
+        if (rec.getDueDay() != IssueRecord.NO_DATE) {
+            byDay.computeIfAbsent((long) rec.getDueDay(), d -> new IntMap<>(4)).put(rec.getId(), rec);
+        }
+        IntMap<IssueRecord> group = byUser.get(rec.getUserId());
+        if (group == null) {
+            group = new IntMap<>(4);
+            byUser.put(rec.getUserId(), group);
+        }
+        group.put(rec.getId(), rec);
+    }
+
+    public void remove(IssueRecord rec) {
+        if (rec.getDueDay() != IssueRecord.NO_DATE) {
+            long day = rec.getDueDay();
+            IntMap<IssueRecord> bucket = byDay.get(day);
+            if (bucket != null && bucket.remove(rec.getId()) != null && bucket.isEmpty()) byDay.remove(day);
+        }
+        IntMap<IssueRecord> group = byUser.get(rec.getUserId());
+        if (group != null && group.remove(rec.getId()) != null && group.isEmpty()) byUser.remove(rec.getUserId());
+    }
+
+    public void clear() {
+        byDay.clear();
+        byUser.clear();
+    }
+
+    /** Issues due before {@code asOf}, earliest due first. */
+    public List<IssueRecord> overdue(LocalDate asOf) {
+        return collect(byDay.headMap(asOf.toEpochDay(), false).values());
+    }
+
+    /** Issues due from {@code from} through {@code to} (inclusive), earliest due first. */
+    public List<IssueRecord> dueBetween(LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) return new ArrayList<>();
+        return collect(byDay.subMap(from.toEpochDay(), true, to.toEpochDay(), true).values());
+    }
+
+    /** Active issues of one member, oldest first. */
+    public List<IssueRecord> forUser(int userId) {
+        List<IssueRecord> out = new ArrayList<>();
+        IntMap<IssueRecord> group = byUser.get(userId);
+        if (group != null) out.addAll(group.values());
+        return out;
+    }
+
+    private static List<IssueRecord> collect(Iterable<IntMap<IssueRecord>> buckets) {
+        List<IssueRecord> out = new ArrayList<>();
+        for (IntMap<IssueRecord> bucket : buckets) out.addAll(bucket.values());
+        return out;
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the single-writer lock and the read-only follower. A second writer
+ * on a directory must be refused while the first holds it, and every
+ * mutator of a follower must refuse. The writer then changes the library in
+ * rounds, checkpointing now and then (archiving old loans and deleting
+ * journal segments, sometimes before the follower has read them); after each
+ * round the follower must reach the writer's state within a few poll
+ * intervals, and stay there once the writer has closed.
+ *
+ * Usage: java FollowerTest [rounds]
+ *
+ * Runs in a fresh temporary directory; exits with status 1 on a violation.
+ */
+public class FollowerTest {
+    private static final long CATCH_UP_MILLIS = 20 * Library.FOLLOW_INTERVAL_MILLIS;
+
+    /** A change tried on the follower. */
+    private interface Mutation {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+        List<String> violations = new ArrayList<>();
+        File dir = Files.createTempDirectory("library-follower").toFile();
+        SyntheticData.write(dir, 2000, 25);
+        Library writer = new Library(dir);
+        Library follower = Library.follower(dir);
+        if (writer.isReadOnly() || !follower.isReadOnly()) violations.add("isReadOnly() is wrong");
+
+        try {
+            new Library(dir).close();
+            violations.add("a second writer opened the directory");
+        } catch (IllegalStateException expected) {
+            // the first writer holds the lock
+        }
+
+        LocalDate today = LocalDate.now();
+        Book some = follower.getBooks().get(0);
+        Book edit = new Book(some.getId(), "Edited", some.getAuthor(), some.getIsbn(), some.getTotalCopies(), some.getCategory());
+        edit.setVersion(some.getVersion());
+        IssueRecord open = follower.getActiveIssues().get(0);
+        refused(violations, "addBook", () -> follower.addBook("T", "A", "i", 1, "C"));
+        refused(violations, "updateBook", () -> follower.updateBook(edit));
+        refused(violations, "deleteBook", () -> follower.deleteBook(some.getId()));
+        refused(violations, "addStudent", () -> follower.addStudent("S", "", "", "R"));
+        refused(violations, "deleteUser", () -> follower.deleteUser(open.getUserId()));
+        refused(violations, "issueBook", () -> follower.issueBook(some.getId(), open.getUserId(), today, today.plusDays(7)));
+        refused(violations, "returnBook", () -> follower.returnBook(open.getId(), today));
+        refused(violations, "issueBooks", () -> follower.issueBooks(
+                List.of(new Library.Checkout(some.getId(), open.getUserId())), today, today.plusDays(7), true));
+        refused(violations, "returnBooks", () -> follower.returnBooks(List.of(open.getId()), today, true));
+        if ("Edited".equals(follower.findBookById(some.getId()).getTitle())) violations.add("follower applied a refused edit");
+
+        Random rnd = new Random(25);
+        int changes = 0;
+        for (int round = 1; round <= rounds; round++) {
+            changes += change(writer, rnd, today, 300);
+            if (round % 3 == 1) {
+                writer.saveAll();
+            } else if (round % 3 == 2) {
+                // two checkpoints in a row may delete segments the follower has not read yet
+                writer.saveAll();
+                changes += change(writer, rnd, today, 50);
+                writer.saveAll();
+            }
+            writer.flush();
+            awaitSame(violations, "round " + round, writer, follower);
+        }
+        String expected = state(writer);
+        writer.close();
+        Thread.sleep(2 * Library.FOLLOW_INTERVAL_MILLIS);
+        if (!expected.equals(state(follower))) violations.add("follower drifted after the writer closed");
+        try {
+            new Library(dir).close();
+        } catch (IllegalStateException e) {
+            violations.add("the writer lock was not released on close");
+        }
+        follower.close();
+
+        if (!violations.isEmpty()) {
+            for (String v : violations) System.err.println(v);
+            System.exit(1);
+        }
+        System.out.printf("OK: %d changes in %d rounds, the follower kept up and refused every write%n", changes, rounds);
+    }
+
+    private static void refused(List<String> violations, String what, Mutation m) {
+        try {
+            m.run();
+            violations.add("follower accepted " + what);
+        } catch (IllegalStateException expected) {
+            // read-only
+        } catch (Exception e) {
+            violations.add("follower refused " + what + " with " + e + " instead of IllegalStateException");
+        }
+    }
+
+    /** Polls until the follower shows the writer's state, or records a violation after a timeout. */
+    private static void awaitSame(List<String> violations, String when, Library writer, Library follower)
+            throws InterruptedException {
+        String expected = state(writer);
+        long deadline = System.currentTimeMillis() + CATCH_UP_MILLIS;
+        while (!expected.equals(state(follower))) {
+            if (System.currentTimeMillis() > deadline) {
+                violations.add(when + ": follower not caught up after " + CATCH_UP_MILLIS + " ms");
+                return;
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    /** Random changes by the writer; returns how many were accepted. */
+    private static int change(Library writer, Random rnd, LocalDate today, int tries) {
+        int accepted = 0;
+        for (int i = 0; i < tries; i++) {
+            int op = rnd.nextInt(10);
+            int bookId = 1 + rnd.nextInt(writer.getBookCount() + 20);
+            int userId = 1 + rnd.nextInt(writer.getUserCount() + 5);
+            try {
+                if (op < 4) {
+                    writer.issueBook(bookId, userId, today, today.plusDays(14));
+                } else if (op < 6) {
+                    List<IssueRecord> active = writer.getActiveIssues();
+                    if (!active.isEmpty()) writer.returnBook(active.get(rnd.nextInt(active.size())).getId(), today);
+                } else if (op < 7) {
+                    Book b = writer.findBookById(bookId);
+                    if (b != null) {
+                        Book edit = new Book(b.getId(), b.getTitle() + "'", b.getAuthor(), b.getIsbn(),
+                                b.getTotalCopies() + 1, b.getCategory());
+                        edit.setVersion(b.getVersion());
+                        writer.updateBook(edit);
+                    }
+                } else if (op < 8) {
+                    writer.addBook("New " + i, "Author", "new" + i, 1, "Follow");
+                } else if (op < 9) {
+                    writer.addStudent("New " + i, "", "", "N" + i);
+                } else if (rnd.nextBoolean()) {
+                    writer.deleteBook(bookId);
+                } else {
+                    writer.deleteUser(userId);
+                }
+                accepted++;
+            } catch (Exception refused) {
+                // unknown ids and empty shelves are expected here
+            }
+        }
+        return accepted;
+    }
+
+    /** Every field of every record, in order. */
+    private static String state(Library library) {
+        StringBuilder sb = new StringBuilder();
+        for (Book b : library.getBooks()) {
+            sb.append(b).append(' ').append(b.getIsbn()).append(' ').append(b.getCategory())
+                    .append(" v").append(b.getVersion()).append('\n');
+        }
+        for (User u : library.getUsers()) sb.append(u).append(" v").append(u.getVersion()).append('\n');
+        for (IssueRecord r : library.getIssues()) sb.append(r).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,314 @@
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative ints (record ids), laid out like a Roaring
+ * bitmap: ids are grouped by their high 16 bits, and each group holds its
+ * low 16 bits either as a sorted array (up to {@value #ARRAY_MAX} of them,
+ * two bytes each) or as a 65536-bit bitmap once it is denser than that. So
+ * a sparse set costs about two bytes an id, a dense one an eighth of a byte,
+ * and intersections work a group at a time: merge or probe for arrays, a
+ * word-wise AND for bitmaps.
+ *
+ * Not thread-safe; reads do not modify the set.
+ */
+public final class IdBitmap {
+    static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1 << 10;
+
+    // high 16 bits of each group, ascending; the group's low bits are a char[]
+    // of counts[i] sorted values, or a long[WORDS] when counts[i] > ARRAY_MAX
+    private char[] keys = new char[4];
+    private Object[] groups = new Object[4];
+    private int[] counts = new int[4];
+    private int size;
+    private int cardinality;
+
+    /** The set of the first {@code n} of {@code ids}, in any order. */
+    public static IdBitmap of(int[] ids, int n) {
+        int[] sorted = Arrays.copyOf(ids, n);
+        Arrays.sort(sorted);
+        IdBitmap out = new IdBitmap();
+        for (int id : sorted) out.add(id);
+        return out;
+    }
+
+    public int cardinality() { return cardinality; }
+
+    public boolean isEmpty() { return cardinality == 0; }
+
+    public boolean contains(int id) {
+        int g = group(id >>> 16);
+        if (g < 0) return false;
+        char low = (char) id;
+        Object c = groups[g];
+        if (c instanceof long[]) return (((long[]) c)[low >>> 6] & 1L << low) != 0;
+        return Arrays.binarySearch((char[]) c, 0, counts[g], low) >= 0;
+    }
+
+    /** Adds {@code id}; false if it was there already. */
+    public boolean add(int id) {
+        if (id < 0) throw new IllegalArgumentException("negative id " + id);
+        int g = group(id >>> 16);
+        if (g < 0) {
+            g = -g - 1;
+            insertGroup(g, (char) (id >>> 16));
+        }
+        char low = (char) id;
+        int n = counts[g];
+        Object c = groups[g];
+        if (c instanceof long[]) {
+            long[] words = (long[]) c;
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) != 0) return false;
+            words[low >>> 6] |= bit;
+        } else {
+            char[] lows = (char[]) c;
+            int at = Arrays.binarySearch(lows, 0, n, low);
+            if (at >= 0) return false;
+            at = -at - 1;
+            if (n == ARRAY_MAX) {
+                long[] words = toWords(lows, n);
+                words[low >>> 6] |= 1L << low;
+                groups[g] = words;
+            } else {
+                if (n == lows.length) groups[g] = lows = Arrays.copyOf(lows, Math.min(ARRAY_MAX, n * 2));
+                System.arraycopy(lows, at, lows, at + 1, n - at);
+                lows[at] = low;
+            }
+        }
+        counts[g]++;
+        cardinality++;
+        return true;
+    }
+
+    /** Removes {@code id}; false if it was not there. */
+    public boolean remove(int id) {
+        int g = group(id >>> 16);
+        if (g < 0) return false;
+        char low = (char) id;
+        int n = counts[g];
+        Object c = groups[g];
+        if (c instanceof long[]) {
+            long[] words = (long[]) c;
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) return false;
+            words[low >>> 6] &= ~bit;
+            // back to an array once it fits in one
+            if (n - 1 == ARRAY_MAX) groups[g] = toArray(words, ARRAY_MAX);
+        } else {
+            char[] lows = (char[]) c;
+            int at = Arrays.binarySearch(lows, 0, n, low);
+            if (at < 0) return false;
+            System.arraycopy(lows, at + 1, lows, at, n - at - 1);
+        }
+        cardinality--;
+        if (--counts[g] == 0) removeGroup(g);
+        return true;
+    }
+
+    /** Sets or clears {@code id}. */
+    public void set(int id, boolean present) {
+        if (present) add(id);
+        else remove(id);
+    }
+
+    public void clear() {
+        keys = new char[4];
+        groups = new Object[4];
+        counts = new int[4];
+        size = 0;
+        cardinality = 0;
+    }
+
+    /** The ids in ascending order. */
+    public int[] toArray() {
+        int[] out = new int[cardinality];
+        int n = 0;
+        for (int g = 0; g < size; g++) {
+            int high = keys[g] << 16;
+            Object c = groups[g];
+            if (c instanceof long[]) {
+                long[] words = (long[]) c;
+                for (int w = 0; w < WORDS; w++) {
+                    for (long word = words[w]; word != 0; word &= word - 1) {
+                        out[n++] = high | w << 6 | Long.numberOfTrailingZeros(word);
+                    }
+                }
+            } else {
+                char[] lows = (char[]) c;
+                for (int i = 0; i < counts[g]; i++) out[n++] = high | lows[i];
+            }
+        }
+        return out;
+    }
+
+    /** The ids in both sets, as a new set. */
+    public IdBitmap and(IdBitmap other) {
+        IdBitmap out = new IdBitmap();
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Object c = and(groups[i], counts[i], other.groups[j], other.counts[j]);
+                int n = c instanceof long[] ? count((long[]) c) : ((char[]) c).length;
+                if (n > 0) {
+                    if (c instanceof long[] && n <= ARRAY_MAX) c = toArray((long[]) c, n);
+                    out.insertGroup(out.size, keys[i]);
+                    out.groups[out.size - 1] = c;
+                    out.counts[out.size - 1] = n;
+                    out.cardinality += n;
+                }
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    /** Number of ids in both sets, without building the intersection. */
+    public int andCardinality(IdBitmap other) {
+        int total = 0;
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                total += andCount(groups[i], counts[i], other.groups[j], other.counts[j]);
+                i++;
+                j++;
+            }
+        }
+        return total;
+    }
+
+    // ---------- groups ----------
+    /** Index of the group with high bits {@code high}, or -(insertion point) - 1. */
+    private int group(int high) {
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < high) lo = mid + 1;
+            else if (keys[mid] > high) hi = mid - 1;
+            else return mid;
+        }
+        return -lo - 1;
+    }
+
+    private void insertGroup(int g, char high) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            groups = Arrays.copyOf(groups, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        System.arraycopy(keys, g, keys, g + 1, size - g);
+        System.arraycopy(groups, g, groups, g + 1, size - g);
+        System.arraycopy(counts, g, counts, g + 1, size - g);
+        keys[g] = high;
+        groups[g] = new char[4];
+        counts[g] = 0;
+        size++;
+    }
+
+    private void removeGroup(int g) {
+        System.arraycopy(keys, g + 1, keys, g, size - g - 1);
+        System.arraycopy(groups, g + 1, groups, g, size - g - 1);
+        System.arraycopy(counts, g + 1, counts, g, size - g - 1);
+        groups[--size] = null;
+    }
+
+    private static long[] toWords(char[] lows, int n) {
+        long[] words = new long[WORDS];
+        for (int i = 0; i < n; i++) words[lows[i] >>> 6] |= 1L << lows[i];
+        return words;
+    }
+
+    private static char[] toArray(long[] words, int n) {
+        char[] lows = new char[n];
+        int k = 0;
+        for (int w = 0; w < WORDS; w++) {
+            for (long word = words[w]; word != 0; word &= word - 1) {
+                lows[k++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+            }
+        }
+        return lows;
+    }
+
+    // ---------- group intersections ----------
+    /** Intersection of two groups: a long[] when both are bitmaps, else an exactly sized char[]. */
+    private static Object and(Object a, int an, Object b, int bn) {
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] x = (long[]) a, y = (long[]) b, out = new long[WORDS];
+            for (int w = 0; w < WORDS; w++) out[w] = x[w] & y[w];
+            return out;
+        }
+        if (a instanceof long[]) return and(b, bn, a, an);
+        char[] lows = (char[]) a;
+        char[] out = new char[an];
+        int n = 0;
+        if (b instanceof long[]) {
+            long[] words = (long[]) b;
+            for (int i = 0; i < an; i++) if ((words[lows[i] >>> 6] & 1L << lows[i]) != 0) out[n++] = lows[i];
+        } else {
+            char[] other = (char[]) b;
+            for (int i = 0, j = 0; i < an && j < bn; ) {
+                if (lows[i] < other[j]) i++;
+                else if (lows[i] > other[j]) j++;
+                else {
+                    out[n++] = lows[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int andCount(Object a, int an, Object b, int bn) {
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] x = (long[]) a, y = (long[]) b;
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) n += Long.bitCount(x[w] & y[w]);
+            return n;
+        }
+        if (a instanceof long[]) return andCount(b, bn, a, an);
+        char[] lows = (char[]) a;
+        int n = 0;
+        if (b instanceof long[]) {
+            long[] words = (long[]) b;
+            for (int i = 0; i < an; i++) if ((words[lows[i] >>> 6] & 1L << lows[i]) != 0) n++;
+        } else if (an * 16 < bn) {
+            // a few ids against many: probe instead of merging
+            char[] other = (char[]) b;
+            for (int i = 0, from = 0; i < an; i++) {
+                int at = Arrays.binarySearch(other, from, bn, lows[i]);
+                if (at >= 0) n++;
+                from = at >= 0 ? at + 1 : -at - 1;
+            }
+        } else if (bn * 16 < an) {
+            return andCount(b, bn, a, an);
+        } else {
+            char[] other = (char[]) b;
+            for (int i = 0, j = 0; i < an && j < bn; ) {
+                if (lows[i] < other[j]) i++;
+                else if (lows[i] > other[j]) j++;
+                else {
+                    n++;
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return n;
+    }
+
+    private static int count(long[] words) {
+        int n = 0;
+        for (long w : words) n += Long.bitCount(w);
+        return n;
+    }
+}
@@ -0,0 +1,202 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Hash map keyed by primitive int that keeps insertion order.
+ *
+ * Entries live in two dense arrays (keys / values) in the order they were
+ * added; an open-addressing slot table maps a key to its dense position.
+ * Removal leaves a hole that is squeezed out by {@link #compact()} or the next
+ * growth, so lookups, inserts and removes are O(1) and {@link #values()} can
+ * be handed out as a read-only List without copying. Values must not be null.
+ *
+ * Not thread-safe. Reads never modify the map, so callers can run them under
+ * a shared or optimistic lock; positional reads just get slower (linear)
+ * while holes are present.
+ */
+public class IntMap<V> {
+    private static final int TOMBSTONE = -1;
+
+    private int[] keys;
+    private Object[] vals;
+    private int[] slots;   // dense index + 1, 0 = empty, TOMBSTONE = removed
+    private int end;       // dense positions in use, holes included
+    private int size;      // live entries
+
+    private final List<V> values = new AbstractList<V>() {
+        @Override
+        public V get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index);
+            if (end == size) return valueAt(index);
+            for (int i = 0; ; i++) {
+                if (vals[i] != null && index-- == 0) return valueAt(i);
+            }
+        }
+        @Override
+        public int size() { return size; }
+        @Override
+        public Iterator<V> iterator() { return new ValueIterator(); }
+    };
+
+    public IntMap() { this(16); }
+
+    public IntMap(int expected) {
+        int cap = Math.max(8, expected);
+        keys = new int[cap];
+        vals = new Object[cap];
+        slots = new int[tableSize(cap)];
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    public V get(int key) {
+        int i = find(key);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    public boolean containsKey(int key) { return find(key) >= 0; }
+
+    /** Position of the key in {@link #values()}, or -1 if absent. */
+    public int indexOf(int key) {
+        int i = find(key);
+        if (i < 0 || end == size) return i;
+        int pos = 0;
+        for (int j = 0; j < i; j++) if (vals[j] != null) pos++;
+        return pos;
+    }
+
+    /** True when there are no holes left by removals, i.e. positional reads are O(1). */
+    public boolean isCompact() { return end == size; }
+
+    /** Inserts or replaces; a replaced entry keeps its position. Returns the old value. */
+    public V put(int key, V value) {
+        if (value == null) throw new NullPointerException("null value");
+        int i = find(key);
+        if (i >= 0) {
+            V old = valueAt(i);
+            vals[i] = value;
+            return old;
+        }
+        if (end == keys.length) grow();
+        keys[end] = key;
+        vals[end] = value;
+        insertSlot(key, end);
+        end++;
+        size++;
+        return null;
+    }
+
+    public V remove(int key) {
+        int mask = slots.length - 1;
+        for (int h = mix(key) & mask; ; h = (h + 1) & mask) {
+            int s = slots[h];
+            if (s == 0) return null;
+            if (s > 0 && keys[s - 1] == key) {
+                V old = valueAt(s - 1);
+                vals[s - 1] = null;
+                slots[h] = TOMBSTONE;
+                size--;
+                return old;
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(vals, 0, end, null);
+        Arrays.fill(slots, 0);
+        end = 0;
+        size = 0;
+    }
+
+    /** Live view of the values in insertion order. */
+    public List<V> values() {
+        return java.util.Collections.unmodifiableList(values);
+    }
+
+    // ---------- internals ----------
+    @SuppressWarnings("unchecked")
+    private V valueAt(int i) { return (V) vals[i]; }
+
+    private int find(int key) {
+        int mask = slots.length - 1;
+        for (int h = mix(key) & mask; ; h = (h + 1) & mask) {
+            int s = slots[h];
+            if (s == 0) return -1;
+            if (s > 0 && keys[s - 1] == key) return s - 1;
+        }
+    }
+
+    private void insertSlot(int key, int index) {
+        int mask = slots.length - 1;
+        int h = mix(key) & mask;
+        while (slots[h] > 0) h = (h + 1) & mask;
+        slots[h] = index + 1;
+    }
+
+    private void grow() {
+        // reclaim holes first if that frees enough room, otherwise double
+        if (size <= keys.length / 2) {
+            compact();
+            return;
+        }
+        int cap = keys.length * 2;
+        keys = Arrays.copyOf(keys, cap);
+        vals = Arrays.copyOf(vals, cap);
+        rehash(cap);
+    }
+
+    /** Squeezes out holes left by removals; keeps insertion order. */
+    public void compact() {
+        int w = 0;
+        for (int r = 0; r < end; r++) {
+            if (vals[r] == null) continue;
+            keys[w] = keys[r];
+            vals[w] = vals[r];
+            w++;
+        }
+        Arrays.fill(vals, w, end, null);
+        end = w;
+        rehash(keys.length);
+    }
+
+    private void rehash(int cap) {
+        slots = new int[tableSize(cap)];
+        for (int i = 0; i < end; i++) {
+            if (vals[i] != null) insertSlot(keys[i], i);
+        }
+    }
+
+    private static int tableSize(int cap) {
+        // keep the slot table at most half full
+        return Integer.highestOneBit(cap - 1) << 2;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private class ValueIterator implements Iterator<V> {
+        private int next = advance(0);
+
+        private int advance(int from) {
+            while (from < end && vals[from] == null) from++;
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() { return next < end; }
+
+        @Override
+        public V next() {
+            if (next >= end) throw new NoSuchElementException();
+            V v = valueAt(next);
+            next = advance(next + 1);
+            return v;
+        }
+    }
+}
@@ -1,39 +1,92 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.time.LocalDate;
 
+/**
+ * One loan. Dates are kept as epoch days ({@link #NO_DATE} when absent) and
+ * turned into LocalDates on access. Library keeps the loan history in an
+ * {@link IssueStore}; the records it hands out are views copied from there,
+ * so changing one does not change the library.
+ */
 public class IssueRecord implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    // the serialized form of the legacy .dat files, which held LocalDates
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("id", int.class),
+            new ObjectStreamField("bookId", int.class),
+            new ObjectStreamField("userId", int.class),
+            new ObjectStreamField("issueDate", LocalDate.class),
+            new ObjectStreamField("dueDate", LocalDate.class),
+            new ObjectStreamField("returnDate", LocalDate.class),
+    };
+
     private int id;
     private int bookId;
     private int userId;
-    private LocalDate issueDate;
-    private LocalDate dueDate;
-    private LocalDate returnDate; // null if not returned
+    private int issueDay;
+    private int dueDay;
+    private int returnDay; // NO_DATE if not returned
 
     public IssueRecord(int id, int bookId, int userId, LocalDate issueDate, LocalDate dueDate) {
+        this(id, bookId, userId, day(issueDate), day(dueDate), NO_DATE);
+    }
+
+    IssueRecord(int id, int bookId, int userId, int issueDay, int dueDay, int returnDay) {
         this.id = id;
         this.bookId = bookId;
         this.userId = userId;
-        this.issueDate = issueDate;
-        this.dueDate = dueDate;
-        this.returnDate = null;
+        this.issueDay = issueDay;
+        this.dueDay = dueDay;
+        this.returnDay = returnDay;
     }
 
     // getters/setters
     public int getId() { return id; }
     public int getBookId() { return bookId; }
     public int getUserId() { return userId; }
-    public LocalDate getIssueDate() { return issueDate; }
-    public LocalDate getDueDate() { return dueDate; }
-    public LocalDate getReturnDate() { return returnDate; }
-    public void setReturnDate(LocalDate returnDate) { this.returnDate = returnDate; }
+    public LocalDate getIssueDate() { return date(issueDay); }
+    public LocalDate getDueDate() { return date(dueDay); }
+    public LocalDate getReturnDate() { return date(returnDay); }
+    public void setReturnDate(LocalDate returnDate) { this.returnDay = day(returnDate); }
+    public int getIssueDay() { return issueDay; }
+    public int getDueDay() { return dueDay; }
+    public int getReturnDay() { return returnDay; }
+
+    public boolean isReturned() { return returnDay != NO_DATE; }
 
-    public boolean isReturned() { return returnDate != null; }
+    static int day(LocalDate d) { return d == null ? NO_DATE : (int) d.toEpochDay(); }
+    static LocalDate date(int day) { return day == NO_DATE ? null : LocalDate.ofEpochDay(day); }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField f = out.putFields();
+        f.put("id", id);
+        f.put("bookId", bookId);
+        f.put("userId", userId);
+        f.put("issueDate", getIssueDate());
+        f.put("dueDate", getDueDate());
+        f.put("returnDate", getReturnDate());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField f = in.readFields();
+        id = f.get("id", 0);
+        bookId = f.get("bookId", 0);
+        userId = f.get("userId", 0);
+        issueDay = day((LocalDate) f.get("issueDate", null));
+        dueDay = day((LocalDate) f.get("dueDate", null));
+        returnDay = day((LocalDate) f.get("returnDate", null));
+    }
 
     @Override
     public String toString() {
         return String.format("Issue[%d] Book:%d User:%d Issued:%s Due:%s Returned:%s",
-                id, bookId, userId, issueDate, dueDate, returnDate == null ? "-" : returnDate.toString());
+                id, bookId, userId, getIssueDate(), getDueDate(), returnDay == NO_DATE ? "-" : getReturnDate());
     }
 }
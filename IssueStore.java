@@ -0,0 +1,354 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The loan history as columns of ints: one row per loan, in ascending id
+ * order, with dates as epoch days. A loan costs 32 bytes (six columns plus
+ * the links below) instead of an object with its own LocalDates and its
+ * entries in per-member and per-book maps, and a full-history scan walks
+ * a few flat arrays.
+ *
+ * Each member's and each book's loans form a chain through the rows
+ * (oldest first), so their histories are found without a scan. Unreturned
+ * loans are the set bits of a bitset. Removed rows stay in place, skipped,
+ * until {@link #compact()} squeezes them out.
+ *
+ * Callers get {@link IssueRecord} views: copies of a row made on access,
+ * which the store does not keep. Not thread-safe; reads do not modify the
+ * store, so they may run under a shared or optimistic lock (a torn read can
+ * throw, never loop).
+ */
+public final class IssueStore {
+    private static final int NONE = -1;
+
+    private int rows;      // rows in use, removed ones included
+    private int removed;
+    private int activeCount;
+    private int[] ids;
+    private int[] bookIds;
+    private int[] userIds;
+    private int[] issueDays;
+    private int[] dueDays;
+    private int[] returnDays;
+    // next row of the same member / book, NONE at the end of the chain
+    private int[] nextByUser;
+    private int[] nextByBook;
+    private final BitSet active = new BitSet();
+    private final BitSet gone = new BitSet();
+    // member / book id -> {first row, last row} of its chain
+    private final IntMap<int[]> userChains = new IntMap<>();
+    private final IntMap<int[]> bookChains = new IntMap<>();
+
+    private final List<IssueRecord> values = new AbstractList<IssueRecord>() {
+        @Override
+        public IssueRecord get(int index) {
+            if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index);
+            return view(rowAt(index));
+        }
+        @Override
+        public int size() { return IssueStore.this.size(); }
+    };
+
+    public IssueStore() {
+        this(16);
+    }
+
+    public IssueStore(int capacity) {
+        allocate(Math.max(16, capacity));
+    }
+
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        bookIds = new int[capacity];
+        userIds = new int[capacity];
+        issueDays = new int[capacity];
+        dueDays = new int[capacity];
+        returnDays = new int[capacity];
+        nextByUser = new int[capacity];
+        nextByBook = new int[capacity];
+    }
+
+    public int size() { return rows - removed; }
+
+    public int activeCount() { return activeCount; }
+
+    // ---------- reads ----------
+    public IssueRecord get(int id) {
+        int row = liveRow(id);
+        return row < 0 ? null : view(row);
+    }
+
+    public boolean contains(int id) { return liveRow(id) >= 0; }
+
+    /** Read-only view in id order. Positional reads are linear while removed rows remain. */
+    public List<IssueRecord> values() { return values; }
+
+    /** Position of the loan in {@link #values()}, or -1. */
+    public int indexOf(int id) {
+        int row = liveRow(id);
+        if (row < 0 || removed == 0) return row;
+        int index = row;
+        for (int g = gone.nextSetBit(0); g >= 0 && g < row; g = gone.nextSetBit(g + 1)) index--;
+        return index;
+    }
+
+    /** Unreturned loans in id order. */
+    public List<IssueRecord> active() {
+        List<IssueRecord> out = new ArrayList<>(activeCount);
+        for (int row = active.nextSetBit(0); row >= 0 && row < rows; row = active.nextSetBit(row + 1)) {
+            out.add(view(row));
+        }
+        return out;
+    }
+
+    /** Ids of the loans returned before {@code day} (epoch day), in id order. */
+    public int[] returnedBefore(int day) {
+        int[] out = new int[16];
+        int n = 0;
+        for (int row = 0; row < rows; row++) {
+            int returned = returnDays[row];
+            if (returned == IssueRecord.NO_DATE || returned >= day || gone.get(row)) continue;
+            if (n == out.length) out = Arrays.copyOf(out, n * 2);
+            out[n++] = ids[row];
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /** All loans of a member, oldest first. */
+    public List<IssueRecord> forUser(int userId) {
+        return chain(userChains.get(userId), nextByUser);
+    }
+
+    /** All loans of a book, oldest first. */
+    public List<IssueRecord> forBook(int bookId) {
+        return chain(bookChains.get(bookId), nextByBook);
+    }
+
+    private List<IssueRecord> chain(int[] ends, int[] next) {
+        List<IssueRecord> out = new ArrayList<>();
+        if (ends == null) return out;
+        // links always point forward, so even a torn read ends
+        for (int row = ends[0]; row >= 0 && row < rows; ) {
+            if (!gone.get(row)) out.add(view(row));
+            int n = next[row];
+            if (n <= row) break;
+            row = n;
+        }
+        return out;
+    }
+
+    /**
+     * Copies the live rows into the given columns, which must hold
+     * {@link #size()} entries, for reports that scan the whole history.
+     */
+    void copyColumns(int[] id, int[] book, int[] user, int[] issue, int[] due, int[] returned) {
+        if (removed == 0) {
+            System.arraycopy(ids, 0, id, 0, rows);
+            System.arraycopy(bookIds, 0, book, 0, rows);
+            System.arraycopy(userIds, 0, user, 0, rows);
+            System.arraycopy(issueDays, 0, issue, 0, rows);
+            System.arraycopy(dueDays, 0, due, 0, rows);
+            System.arraycopy(returnDays, 0, returned, 0, rows);
+            return;
+        }
+        int i = 0;
+        for (int row = 0; row < rows; row++) {
+            if (gone.get(row)) continue;
+            id[i] = ids[row];
+            book[i] = bookIds[row];
+            user[i] = userIds[row];
+            issue[i] = issueDays[row];
+            due[i] = dueDays[row];
+            returned[i] = returnDays[row];
+            i++;
+        }
+    }
+
+    /** Id of the loan at {@code index} of {@link #values()}. */
+    int idAt(int index) { return ids[rowAt(index)]; }
+
+    /** Ids of the live loans by due day, then id; sorts packed longs, so no views are made. */
+    int[] idsByDueDay() {
+        long[] packed = new long[size()];
+        int n = 0;
+        for (int row = 0; row < rows; row++) {
+            if (!gone.get(row)) packed[n++] = (long) dueDays[row] << 32 | ids[row] & 0xffffffffL;
+        }
+        Arrays.sort(packed);
+        int[] out = new int[n];
+        for (int i = 0; i < n; i++) out[i] = (int) packed[i];
+        return out;
+    }
+
+    private IssueRecord view(int row) {
+        return new IssueRecord(ids[row], bookIds[row], userIds[row], issueDays[row], dueDays[row], returnDays[row]);
+    }
+
+    /** Row of {@code id}, removed or not; else -(insertion point + 1). */
+    private int rowOf(int id) {
+        return Arrays.binarySearch(ids, 0, rows, id);
+    }
+
+    private int liveRow(int id) {
+        int row = rowOf(id);
+        return row >= 0 && !gone.get(row) ? row : -1;
+    }
+
+    private int rowAt(int index) {
+        if (removed == 0) return index;
+        for (int row = 0; ; row++) {
+            if (!gone.get(row) && index-- == 0) return row;
+        }
+    }
+
+    // ---------- writes ----------
+    /** Inserts or replaces the loan with {@code r}'s id; returns the previous version or null. */
+    public IssueRecord put(IssueRecord r) {
+        int row = rowOf(r.getId());
+        if (row >= 0) {
+            IssueRecord old = gone.get(row) ? null : view(row);
+            boolean relink = old == null || bookIds[row] != r.getBookId() || userIds[row] != r.getUserId();
+            if (old == null) {
+                gone.clear(row);
+                removed--;
+            }
+            write(row, r);
+            // a revived or moved loan changes chains; rare enough to rebuild them
+            if (relink) rebuildChains();
+            return old;
+        }
+        int at = -row - 1;
+        if (rows == ids.length) {
+            if (removed > rows / 4) {
+                compact();
+                at = -rowOf(r.getId()) - 1;
+            } else {
+                grow();
+            }
+        }
+        if (at == rows) {
+            rows++;
+            write(at, r);
+            link(at, r.getUserId(), userChains, nextByUser);
+            link(at, r.getBookId(), bookChains, nextByBook);
+            return null;
+        }
+        // an id below the highest one, e.g. replayed out of order: shift the rows above it
+        for (int[] col : columns()) System.arraycopy(col, at, col, at + 1, rows - at);
+        BitSet shifted = new BitSet();
+        for (int g = gone.nextSetBit(0); g >= 0; g = gone.nextSetBit(g + 1)) shifted.set(g < at ? g : g + 1);
+        gone.clear();
+        gone.or(shifted);
+        rows++;
+        write(at, r);
+        rebuildChains();
+        return null;
+    }
+
+    /** Sets or clears the return date of a loan; false if there is no such loan. */
+    public boolean setReturnDay(int id, int day) {
+        int row = liveRow(id);
+        if (row < 0) return false;
+        returnDays[row] = day;
+        setActive(row, day == IssueRecord.NO_DATE);
+        return true;
+    }
+
+    /** Removes a loan; returns it, or null if there was none. */
+    public IssueRecord remove(int id) {
+        int row = liveRow(id);
+        if (row < 0) return null;
+        IssueRecord old = view(row);
+        setActive(row, false);
+        gone.set(row);
+        removed++;
+        return old;
+    }
+
+    public void clear() {
+        rows = 0;
+        removed = 0;
+        activeCount = 0;
+        active.clear();
+        gone.clear();
+        userChains.clear();
+        bookChains.clear();
+    }
+
+    public boolean isCompact() { return removed == 0; }
+
+    /** Squeezes removed rows out. */
+    public void compact() {
+        if (removed == 0) return;
+        int to = 0;
+        for (int row = 0; row < rows; row++) {
+            if (gone.get(row)) continue;
+            if (to != row) for (int[] col : columns()) col[to] = col[row];
+            to++;
+        }
+        rows = to;
+        removed = 0;
+        gone.clear();
+        rebuildChains();
+    }
+
+    private void write(int row, IssueRecord r) {
+        ids[row] = r.getId();
+        bookIds[row] = r.getBookId();
+        userIds[row] = r.getUserId();
+        issueDays[row] = r.getIssueDay();
+        dueDays[row] = r.getDueDay();
+        returnDays[row] = r.getReturnDay();
+        setActive(row, !r.isReturned());
+    }
+
+    private void setActive(int row, boolean on) {
+        if (active.get(row) == on) return;
+        active.set(row, on);
+        activeCount += on ? 1 : -1;
+    }
+
+    private static void link(int row, int key, IntMap<int[]> chains, int[] next) {
+        next[row] = NONE;
+        int[] ends = chains.get(key);
+        if (ends == null) {
+            chains.put(key, new int[]{row, row});
+            return;
+        }
+        next[ends[1]] = row;
+        ends[1] = row;
+    }
+
+    /** Relinks every chain and recounts the active bits from the columns. */
+    private void rebuildChains() {
+        userChains.clear();
+        bookChains.clear();
+        active.clear();
+        activeCount = 0;
+        for (int row = 0; row < rows; row++) {
+            if (gone.get(row)) continue;
+            link(row, userIds[row], userChains, nextByUser);
+            link(row, bookIds[row], bookChains, nextByBook);
+            setActive(row, returnDays[row] == IssueRecord.NO_DATE);
+        }
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        bookIds = Arrays.copyOf(bookIds, capacity);
+        userIds = Arrays.copyOf(userIds, capacity);
+        issueDays = Arrays.copyOf(issueDays, capacity);
+        dueDays = Arrays.copyOf(dueDays, capacity);
+        returnDays = Arrays.copyOf(returnDays, capacity);
+        nextByUser = Arrays.copyOf(nextByUser, capacity);
+        nextByBook = Arrays.copyOf(nextByBook, capacity);
+    }
+
+    private int[][] columns() {
+        return new int[][]{ids, bookIds, userIds, issueDays, dueDays, returnDays};
+    }
+}
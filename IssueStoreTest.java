@@ -0,0 +1,156 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Checks the columnar loan store against a plain map of loans. Random puts
+ * (new ids, ids below the highest one, replacements that move a loan to
+ * another book or member, revivals of removed ids), returns, removals and
+ * compactions are applied to both; every so often each read of the store
+ * (lookups, the id-ordered view and positions, the active set, the
+ * per-member and per-book chains, returned-before scans and the column
+ * copies) must agree with a scan of the map.
+ *
+ * Usage: java IssueStoreTest [operations]
+ *
+ * Exits with status 1 on a violation.
+ */
+public class IssueStoreTest {
+    private static final int BOOKS = 40;
+    private static final int USERS = 25;
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        List<String> violations = new ArrayList<>();
+        IssueStore store = new IssueStore();
+        TreeMap<Integer, IssueRecord> model = new TreeMap<>();
+        Random rnd = new Random(20);
+        int nextId = 1;
+        for (int op = 1; op <= operations && violations.size() < 20; op++) {
+            int kind = rnd.nextInt(100);
+            if (kind < 45 || model.isEmpty()) {
+                // mostly appends; now and then an id below the highest, as a replay out of order would
+                int id = kind < 5 && nextId > 10 ? 1 + rnd.nextInt(nextId - 1) : nextId++;
+                IssueRecord r = loan(rnd, id);
+                IssueRecord old = store.put(r);
+                IssueRecord expected = model.put(id, r);
+                if (!same(old, expected)) violations.add(op + ": put(" + id + ") returned " + old + ", expected " + expected);
+            } else if (kind < 55) {
+                IssueRecord r = loan(rnd, pick(rnd, model));
+                store.put(r);
+                model.put(r.getId(), r);
+            } else if (kind < 80) {
+                int id = pick(rnd, model);
+                IssueRecord r = model.get(id);
+                int day = r.isReturned() && rnd.nextBoolean() ? IssueRecord.NO_DATE : r.getIssueDay() + rnd.nextInt(30);
+                if (!store.setReturnDay(id, day)) violations.add(op + ": setReturnDay(" + id + ") found no loan");
+                model.put(id, new IssueRecord(id, r.getBookId(), r.getUserId(), r.getIssueDay(), r.getDueDay(), day));
+            } else if (kind < 97) {
+                int id = pick(rnd, model);
+                IssueRecord old = store.remove(id);
+                if (!same(old, model.remove(id))) violations.add(op + ": remove(" + id + ") returned " + old);
+                if (store.remove(id) != null) violations.add(op + ": second remove(" + id + ") found a loan");
+            } else {
+                store.compact();
+                if (!store.isCompact()) violations.add(op + ": not compact after compact()");
+            }
+            if (op % 997 == 0) check(violations, op, store, model, rnd);
+        }
+        check(violations, operations, store, model, rnd);
+        store.compact();
+        check(violations, operations, store, model, rnd);
+
+        if (!violations.isEmpty()) {
+            for (String v : violations) System.err.println(v);
+            System.exit(1);
+        }
+        System.out.printf("OK: %d operations, %d loans left, every read agrees with a scan%n", operations, model.size());
+    }
+
+    private static void check(List<String> violations, int op, IssueStore store, TreeMap<Integer, IssueRecord> model, Random rnd) {
+        String at = op + ": ";
+        if (store.size() != model.size()) violations.add(at + "size " + store.size() + " != " + model.size());
+        List<IssueRecord> expected = new ArrayList<>(model.values());
+        List<IssueRecord> active = new ArrayList<>();
+        for (IssueRecord r : expected) if (!r.isReturned()) active.add(r);
+        if (store.activeCount() != active.size()) violations.add(at + "activeCount " + store.activeCount() + " != " + active.size());
+        if (!same(store.values(), expected)) violations.add(at + "values() differ from the loans in id order");
+        if (!same(store.active(), active)) violations.add(at + "active() differs from the unreturned loans");
+
+        for (Map.Entry<Integer, IssueRecord> e : model.entrySet()) {
+            if (!same(store.get(e.getKey()), e.getValue())) violations.add(at + "get(" + e.getKey() + ") = " + store.get(e.getKey()));
+        }
+        // positions are linear while removed rows remain, so only a sample
+        for (int i = 0; i < 50 && !expected.isEmpty(); i++) {
+            int index = rnd.nextInt(expected.size());
+            int id = expected.get(index).getId();
+            if (store.indexOf(id) != index) violations.add(at + "indexOf(" + id + ") != " + index);
+            if (store.idAt(index) != id) violations.add(at + "idAt(" + index + ") != " + id);
+        }
+        int last = model.isEmpty() ? 0 : model.lastKey();
+        for (int id = 1; id <= last; id++) {
+            if (!model.containsKey(id) && (store.contains(id) || store.indexOf(id) != -1)) {
+                violations.add(at + "removed loan " + id + " still found");
+            }
+        }
+
+        for (int user = 1; user <= USERS; user++) {
+            List<IssueRecord> of = new ArrayList<>();
+            for (IssueRecord r : expected) if (r.getUserId() == user) of.add(r);
+            if (!same(store.forUser(user), of)) violations.add(at + "forUser(" + user + ") differs from a scan");
+        }
+        for (int book = 1; book <= BOOKS; book++) {
+            List<IssueRecord> of = new ArrayList<>();
+            for (IssueRecord r : expected) if (r.getBookId() == book) of.add(r);
+            if (!same(store.forBook(book), of)) violations.add(at + "forBook(" + book + ") differs from a scan");
+        }
+
+        int day = 1000 + rnd.nextInt(60);
+        int[] before = expected.stream()
+                .filter(r -> r.isReturned() && r.getReturnDay() < day).mapToInt(IssueRecord::getId).toArray();
+        if (!Arrays.equals(store.returnedBefore(day), before)) violations.add(at + "returnedBefore(" + day + ") differs from a scan");
+
+        int n = expected.size();
+        int[] id = new int[n], book = new int[n], user = new int[n], issue = new int[n], due = new int[n], returned = new int[n];
+        store.copyColumns(id, book, user, issue, due, returned);
+        for (int i = 0; i < n; i++) {
+            IssueRecord r = expected.get(i);
+            if (id[i] != r.getId() || book[i] != r.getBookId() || user[i] != r.getUserId() || issue[i] != r.getIssueDay()
+                    || due[i] != r.getDueDay() || returned[i] != r.getReturnDay()) {
+                violations.add(at + "copyColumns row " + i + " differs from " + r);
+                break;
+            }
+        }
+        int[] byDue = expected.stream()
+                .sorted((a, b) -> a.getDueDay() != b.getDueDay() ? Integer.compare(a.getDueDay(), b.getDueDay())
+                        : Integer.compare(a.getId(), b.getId()))
+                .mapToInt(IssueRecord::getId).toArray();
+        if (!Arrays.equals(store.idsByDueDay(), byDue)) violations.add(at + "idsByDueDay() differs from a sort");
+    }
+
+    private static IssueRecord loan(Random rnd, int id) {
+        int issued = 1000 + rnd.nextInt(30);
+        int returned = rnd.nextInt(3) == 0 ? IssueRecord.NO_DATE : issued + rnd.nextInt(30);
+        return new IssueRecord(id, 1 + rnd.nextInt(BOOKS), 1 + rnd.nextInt(USERS), issued, issued + 14, returned);
+    }
+
+    private static int pick(Random rnd, TreeMap<Integer, IssueRecord> model) {
+        Integer id = model.ceilingKey(1 + rnd.nextInt(model.lastKey()));
+        return id != null ? id : model.lastKey();
+    }
+
+    private static boolean same(List<IssueRecord> a, List<IssueRecord> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) if (!same(a.get(i), b.get(i))) return false;
+        return true;
+    }
+
+    private static boolean same(IssueRecord a, IssueRecord b) {
+        if (a == null || b == null) return a == b;
+        return a.getId() == b.getId() && a.getBookId() == b.getBookId() && a.getUserId() == b.getUserId()
+                && a.getIssueDay() == b.getIssueDay() && a.getDueDay() == b.getDueDay() && a.getReturnDay() == b.getReturnDay();
+    }
+}
@@ -0,0 +1,74 @@
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Issues table that pages through {@link Library#queryIssues}; id and due
+ * date columns sort. Book titles and member names are resolved per visible
+ * cell through the id indexes.
+ */
+public class IssueTableModel extends PagedTableModel<IssueRecord> {
+    private static final String[] COLUMNS = {"IssueID", "BookID", "Book Title", "UserID", "User Name",
+            "IssueDate", "DueDate", "Returned"};
+    private static final Class<?>[] TYPES = {Integer.class, Integer.class, String.class, Integer.class,
+            String.class, String.class, String.class, String.class};
+    private static final Query.Loans.Sort[] SORTS = {Query.Loans.Sort.ID, null, null, null, null, null,
+            Query.Loans.Sort.DUE, null};
+
+    private final Library library;
+    private final DateTimeFormatter dtf = DateTimeFormatter.ISO_LOCAL_DATE;
+    private Query.Loans.Sort sort = Query.Loans.Sort.ID;
+    private boolean descending;
+
+    public IssueTableModel(Library library) {
+        this.library = library;
+    }
+
+    @Override
+    protected Page<IssueRecord> fetch(int offset, int limit) {
+        return library.queryIssues(new Query.Loans().sort(sort).descending(descending).offset(offset).limit(limit));
+    }
+
+    @Override
+    protected int idOf(IssueRecord rec) { return rec.getId(); }
+
+    @Override
+    public boolean sortBy(int column) {
+        if (SORTS[column] == null) return false;
+        descending = SORTS[column] == sort && !descending;
+        sort = SORTS[column];
+        fireTableDataChanged();
+        return true;
+    }
+
+    public IssueRecord getIssueAt(int row) { return getRowAt(row); }
+
+    @Override
+    public int getColumnCount() { return COLUMNS.length; }
+
+    @Override
+    public String getColumnName(int c) { return COLUMNS[c]; }
+
+    @Override
+    public Class<?> getColumnClass(int c) { return TYPES[c]; }
+
+    @Override
+    public Object getValueAt(int r, int c) {
+        IssueRecord rec = getIssueAt(r);
+        if (rec == null) return null;
+        switch (c) {
+            case 0: return rec.getId();
+            case 1: return rec.getBookId();
+            case 2: {
+                Book b = library.findBookById(rec.getBookId());
+                return (b == null) ? "N/A" : b.getTitle();
+            }
+            case 3: return rec.getUserId();
+            case 4: {
+                User u = library.findUserById(rec.getUserId());
+                return (u == null) ? "N/A" : u.getName();
+            }
+            case 5: return rec.getIssueDate().format(dtf);
+            case 6: return rec.getDueDate().format(dtf);
+            default: return (rec.getReturnDate() == null ? "-" : rec.getReturnDate().format(dtf));
+        }
+    }
+}
@@ -0,0 +1,704 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of Library mutations.
+ *
+ * Every mutation is encoded as one frame: [length][crc32][op count][ops...].
+ * Strings are an int byte length and UTF-8, so no field is too long to log;
+ * older segments hold them in writeUTF form, which replay still reads.
+ * A frame is either replayed completely or not at all, so a torn write at the
+ * tail (crash mid-append) is detected by the checksum and cut off on open.
+ * Records carry the full new state of the entity they touch (or just the id
+ * for deletes), which keeps replay idempotent on top of any newer snapshot.
+ *
+ * The log is split into numbered segment files ({@code journal-00000001.log},
+ * ...). {@link #roll} seals the active segment and starts the next one; a
+ * checkpoint folds sealed segments into the snapshot and then calls
+ * {@link #markCheckpoint}, which records the last folded segment in
+ * {@code journal.checkpoint} and deletes the folded segments. On open only
+ * the segments after that mark are replayed.
+ *
+ * Only the process holding the directory's writer lock ({@link DataDirLock})
+ * opens the journal; followers read the segments it writes through a
+ * {@link Tail}, which never changes a file.
+ */
+public class Journal implements Closeable {
+    static final byte PUT_BOOK = 1;
+    static final byte DELETE_BOOK = 2;
+    static final byte PUT_USER = 3;
+    static final byte DELETE_USER = 4;
+    static final byte PUT_ISSUE = 5;
+    // books and members with their edit version; ops 1 and 3 are from before versions
+    static final byte PUT_BOOK_VERSIONED = 6;
+    static final byte PUT_USER_VERSIONED = 7;
+
+    /** Receives decoded records during {@link #replay}. */
+    public interface Replayer {
+        void putBook(Book b);
+        void deleteBook(int bookId);
+        void putUser(User u);
+        void deleteUser(int userId);
+        void putIssue(IssueRecord r);
+    }
+
+    /** Ops of a single mutation, committed together as one frame. */
+    public static class Batch {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int count;
+
+        public Batch putBook(Book b) { return putBook(b, b.getAvailableCopies()); }
+        /** The book as it will be once a checkout or return has moved its shelf count to {@code availableCopies}. */
+        public Batch putBook(Book b, int availableCopies) {
+            try {
+                out.writeByte(PUT_BOOK_VERSIONED);
+                writeBook(out, b, availableCopies);
+                out.writeInt(b.getVersion());
+            } catch (IOException e) { throw new UncheckedIOException(e); }
+            count++;
+            return this;
+        }
+        public Batch deleteBook(int bookId) { return writeId(DELETE_BOOK, bookId); }
+        public Batch putUser(User u) {
+            try {
+                out.writeByte(PUT_USER_VERSIONED);
+                writeUser(out, u);
+                out.writeInt(u.getVersion());
+            } catch (IOException e) { throw new UncheckedIOException(e); }
+            count++;
+            return this;
+        }
+        public Batch deleteUser(int userId) { return writeId(DELETE_USER, userId); }
+        public Batch putIssue(IssueRecord r) {
+            try {
+                out.writeByte(PUT_ISSUE);
+                writeIssue(out, r);
+            } catch (IOException e) { throw new UncheckedIOException(e); }
+            count++;
+            return this;
+        }
+
+        private Batch writeId(byte op, int id) {
+            try {
+                out.writeByte(op);
+                out.writeInt(id);
+            } catch (IOException e) { throw new UncheckedIOException(e); }
+            count++;
+            return this;
+        }
+
+        public boolean isEmpty() { return count == 0; }
+    }
+
+    static final String LEGACY_FILE = "library.journal";
+    static final String CHECKPOINT_FILE = "journal.checkpoint";
+
+    private final File dir;
+    private long segment;
+    private long checkpointed;
+    private FileOutputStream fos;
+    private FileChannel channel;
+    private DataOutputStream out;
+    private volatile long activeBytes;
+
+    // group commit: appended/synced are frame sequence numbers
+    private final Object syncLock = new Object();
+    private long appended;
+    private volatile long synced;
+    // length of the active segment up to the last synced frame
+    private long syncedBytes;
+    // synced as of each failed write, whose unsynced frames were dropped
+    private final List<Long> rewinds = new ArrayList<>();
+    // a frame was left half written; set until rewind drops it
+    private boolean broken;
+    // set when a failed write could not start a new segment; the next append tries again
+    private boolean reopen;
+
+    /** Journal whose segments live in {@code dir}. */
+    public Journal(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Replays every intact frame of the segments after the checkpoint mark
+     * into {@code target}, truncates a torn tail if one is found, and starts
+     * a new active segment.
+     */
+    public void open(Replayer target) throws IOException {
+        File legacy = new File(dir, LEGACY_FILE);
+        if (legacy.exists() && segments().isEmpty()) {
+            // single-file journal of older versions: becomes the first segment
+            Files.move(legacy.toPath(), segmentFile(1).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        checkpointed = readCheckpoint();
+        long last = checkpointed;
+        for (Map.Entry<Long, File> e : segments().entrySet()) {
+            long n = e.getKey();
+            File f = e.getValue();
+            last = Math.max(last, n);
+            if (n <= checkpointed) {
+                // already folded; left behind by a crash before the delete
+                Files.deleteIfExists(f.toPath());
+                continue;
+            }
+            long good = replay(f, target);
+            if (f.length() > good) {
+                System.err.println("Truncating torn journal tail of " + f.getName() + " at offset " + good);
+                try (FileChannel ch = new RandomAccessFile(f, "rw").getChannel()) {
+                    ch.truncate(good);
+                }
+            }
+            if (good == 0) Files.deleteIfExists(f.toPath());
+        }
+        segment = last + 1;
+        openSegment();
+    }
+
+    private void openSegment() throws IOException {
+        fos = new FileOutputStream(segmentFile(segment), true);
+        channel = fos.getChannel();
+        out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+        activeBytes = channel.size();
+        syncedBytes = activeBytes;
+    }
+
+    /** Replays the intact frames of one segment; returns the length they cover. */
+    static long replay(File file, Replayer target) throws IOException {
+        long good = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int len;
+                try { len = in.readInt(); } catch (EOFException eof) { break; }
+                if (len <= 0) break;
+                int expected;
+                byte[] payload = new byte[len];
+                try {
+                    expected = in.readInt();
+                    in.readFully(payload);
+                } catch (EOFException eof) { break; }
+                crc.reset();
+                crc.update(payload, 0, len);
+                if ((int) crc.getValue() != expected) break;
+                apply(new DataInputStream(new ByteArrayInputStream(payload)), target);
+                good += 8 + len;
+            }
+        }
+        return good;
+    }
+
+    private static void apply(DataInputStream in, Replayer target) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte op = in.readByte();
+            switch (op) {
+                case PUT_BOOK: target.putBook(readBook(in)); break;
+                case DELETE_BOOK: target.deleteBook(in.readInt()); break;
+                case PUT_USER: target.putUser(readUser(in)); break;
+                case DELETE_USER: target.deleteUser(in.readInt()); break;
+                case PUT_ISSUE: target.putIssue(readIssue(in)); break;
+                case PUT_BOOK_VERSIONED: {
+                    Book b = readBook(in);
+                    b.setVersion(in.readInt());
+                    target.putBook(b);
+                    break;
+                }
+                case PUT_USER_VERSIONED: {
+                    User u = readUser(in);
+                    u.setVersion(in.readInt());
+                    target.putUser(u);
+                    break;
+                }
+                default: throw new IOException("Unknown journal op " + op);
+            }
+        }
+    }
+
+    public void commit(Batch batch) throws IOException {
+        commit(Collections.singletonList(batch));
+    }
+
+    /**
+     * Appends the batches as one frame and returns once it is durable. Threads
+     * committing at the same time share a single fsync: whoever gets the sync
+     * lock first forces everything appended so far, the rest find their frame
+     * already covered.
+     *
+     * If the append or the fsync fails, every frame not yet synced is dropped
+     * (see {@link #rewind}) and its commit throws, so the caller can write the
+     * batches again; later frames never land behind a partial one.
+     */
+    public void commit(List<Batch> batches) throws IOException {
+        int count = 0;
+        for (Batch b : batches) count += b.count;
+        if (count == 0) return;
+        long seq;
+        int epoch;
+        try {
+            synchronized (this) {
+                epoch = rewinds.size();
+                seq = append(batches, count);
+            }
+        } catch (IOException e) {
+            recover();
+            throw e;
+        }
+        // read synced first: if it covers the frame and no rewind dropped the frame since, it is on disk
+        long done = synced;
+        if (done >= seq && !dropped(seq, epoch)) return;
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (broken) rewind();
+            }
+            if (dropped(seq, epoch)) throw new IOException("Journal write dropped after an earlier failure");
+            if (synced >= seq) return;
+            long target;
+            long bytes;
+            try {
+                synchronized (this) {
+                    out.flush();
+                    target = appended;
+                    bytes = activeBytes;
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) { rewind(); }
+                throw e;
+            }
+            synced = target;
+            syncedBytes = bytes;
+        }
+    }
+
+    private void recover() {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (broken) rewind();
+            }
+        }
+    }
+
+    /** Whether the frame {@code seq}, appended when {@code epoch} rewinds had happened, was dropped since. */
+    private synchronized boolean dropped(long seq, int epoch) {
+        return epoch < rewinds.size() && seq > rewinds.get(epoch);
+    }
+
+    /** Buffers one frame; on failure marks the journal broken, so nothing follows the partial frame. */
+    private synchronized long append(List<Batch> batches, int count) throws IOException {
+        if (broken) throw new IOException("Journal write failed; waiting to start a new segment");
+        if (out == null) {
+            if (!reopen) throw new IOException("Journal is closed");
+            openSegment();
+            reopen = false;
+        }
+        try {
+            return writeFrame(batches, count);
+        } catch (IOException | RuntimeException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    private long writeFrame(List<Batch> batches, int count) throws IOException {
+        int len = 4;
+        for (Batch b : batches) len += b.bytes.size();
+        CRC32 crc = new CRC32();
+        crc.update(count >>> 24);
+        crc.update(count >>> 16);
+        crc.update(count >>> 8);
+        crc.update(count);
+        for (Batch b : batches) crc.update(b.bytes.toByteArray());
+        out.writeInt(len);
+        out.writeInt((int) crc.getValue());
+        out.writeInt(count);
+        for (Batch b : batches) b.bytes.writeTo(out);
+        LibraryMetrics.journalBytes.add(8 + len);
+        activeBytes += 8 + len;
+        return ++appended;
+    }
+
+    /**
+     * After a failed write: drops the frames not yet synced, whatever part of
+     * them is buffered or already in the file, by cutting the segment back to
+     * its last synced frame, and continues in a new segment. Should the cut
+     * fail too, replay still stops at the partial frame and goes on with the
+     * next segment, so nothing appended later is lost behind it. Called with
+     * both locks held.
+     */
+    private void rewind() {
+        broken = false;
+        rewinds.add(synced);
+        File f = segmentFile(segment);
+        try {
+            // the buffer holds the failed bytes: close the file under it rather than flushing it
+            fos.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close " + f.getName() + ": " + e.getMessage());
+        }
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+            if (ch.size() > syncedBytes) ch.truncate(syncedBytes);
+        } catch (IOException e) {
+            System.err.println("Failed to cut " + f.getName() + " back to offset " + syncedBytes + ": " + e.getMessage());
+        }
+        out = null;
+        activeBytes = 0;
+        segment++;
+        try {
+            openSegment();
+        } catch (IOException e) {
+            reopen = true;
+            System.err.println("Failed to start journal segment " + segment + ": " + e.getMessage());
+        }
+    }
+
+    // ---------- segments ----------
+    /**
+     * Seals the active segment (synced to disk) and starts a new one, so
+     * appends continue while the sealed ones are folded into a snapshot.
+     * Returns the number of the last sealed segment; an empty active segment
+     * is kept rather than sealed.
+     */
+    public long roll() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (broken) rewind();
+                if (activeBytes == 0) return segment - 1;
+                try {
+                    out.flush();
+                    channel.force(false);
+                } catch (IOException e) {
+                    rewind();
+                    throw e;
+                }
+                out.close();
+                synced = appended;
+                segment++;
+                try {
+                    openSegment();
+                } catch (IOException e) {
+                    out = null;
+                    activeBytes = 0;
+                    reopen = true;
+                    throw e;
+                }
+                return segment - 1;
+            }
+        }
+    }
+
+    /** Bytes in the active segment. */
+    public long activeSize() { return activeBytes; }
+
+    /** Last segment already folded into the snapshot (0 if none). */
+    public synchronized long getCheckpointed() { return checkpointed; }
+
+    /** Sealed segments after {@code after} up to and including {@code through}, oldest first. */
+    public List<File> segmentsBetween(long after, long through) {
+        List<File> out = new ArrayList<>();
+        for (Map.Entry<Long, File> e : segments().entrySet()) {
+            if (e.getKey() > after && e.getKey() <= through) out.add(e.getValue());
+        }
+        return out;
+    }
+
+    /**
+     * Records that the snapshot now covers every segment up to {@code through}
+     * and deletes those segments. Call only once the snapshot files are on disk.
+     */
+    public void markCheckpoint(long through) throws IOException {
+        File tmp = new File(dir, CHECKPOINT_FILE + ".tmp");
+        try (FileOutputStream f = new FileOutputStream(tmp)) {
+            DataOutputStream d = new DataOutputStream(f);
+            d.writeLong(through);
+            d.flush();
+            f.getChannel().force(true);
+        }
+        Files.move(tmp.toPath(), new File(dir, CHECKPOINT_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) { checkpointed = through; }
+        for (File f : segmentsBetween(0, through)) {
+            try {
+                Files.deleteIfExists(f.toPath());
+            } catch (IOException e) {
+                // e.g. a follower still reading it on Windows; open() removes it later
+                System.err.println("Could not delete folded " + f.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Takes the checkpoint lock: exclusive while the snapshot files and the
+     * mark are replaced, shared while a follower reads them.
+     */
+    public DataDirLock lockCheckpoint(boolean shared) throws IOException {
+        return DataDirLock.checkpoint(dir, shared);
+    }
+
+    private long readCheckpoint() throws IOException {
+        File f = new File(dir, CHECKPOINT_FILE);
+        if (!f.exists()) return 0;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+            return in.readLong();
+        }
+    }
+
+    private File segmentFile(long n) {
+        return new File(dir, String.format("journal-%08d.log", n));
+    }
+
+    /** Segment files on disk by number. */
+    private TreeMap<Long, File> segments() {
+        TreeMap<Long, File> out = new TreeMap<>();
+        File[] files = dir.listFiles((d, name) -> name.startsWith("journal-") && name.endsWith(".log"));
+        if (files == null) return out;
+        for (File f : files) {
+            String n = f.getName().substring("journal-".length(), f.getName().length() - ".log".length());
+            try {
+                out.put(Long.parseLong(n), f);
+            } catch (NumberFormatException e) {
+                // not one of ours
+            }
+        }
+        return out;
+    }
+
+    // ---------- following ----------
+    /** A tail that starts after the checkpoint mark; read the snapshot files under the same shared lock. */
+    public Tail tail() throws IOException {
+        return new Tail(readCheckpoint());
+    }
+
+    /**
+     * Follows the segments the writing process appends to, for a read-only
+     * replica: each {@link #poll} replays the frames committed since the last
+     * one, and moves on to the next segment once the writer has rolled. It
+     * never truncates, deletes or writes a file. The segment being read is
+     * kept open, so a checkpoint deleting it does not cut the read short.
+     */
+    public final class Tail implements Closeable {
+        private long segment;
+        // bytes of the segment replayed so far
+        private long offset;
+        private long mark;
+        private FileChannel channel;
+
+        private Tail(long mark) {
+            this.mark = mark;
+            segment = mark + 1;
+        }
+
+        /** The checkpoint mark as of the last poll. */
+        public long checkpointed() { return mark; }
+
+        /**
+         * Replays up to {@code max} whole frames committed since the last call
+         * into {@code target} and returns how many. Returns -1 if segments it
+         * had not read yet were folded into the snapshot and deleted: the
+         * replica has missed changes and must load again.
+         */
+        public int poll(Replayer target, int max) throws IOException {
+            mark = readCheckpoint();
+            int n = 0;
+            while (n < max) {
+                if (channel == null) {
+                    File f = segmentFile(segment);
+                    if (!f.exists()) {
+                        Long next = segments().higherKey(segment);
+                        if (next == null) break;
+                        // gone and folded, or never written (empty segments are deleted on open)
+                        if (readCheckpoint() >= segment) return -1;
+                        segment = next;
+                        continue;
+                    }
+                    try {
+                        channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+                    } catch (NoSuchFileException raced) {
+                        continue;
+                    }
+                }
+                n += replayFrames(target, max - n);
+                if (n == max) break;
+                // a later segment means this one is sealed: read what came before the roll, then move on
+                Long next = segments().higherKey(segment);
+                if (next == null) break;
+                n += replayFrames(target, max - n);
+                if (n == max) break;
+                channel.close();
+                channel = null;
+                // the one after may be gone already; the missing-file check above tells folded from never written
+                segment++;
+                offset = 0;
+            }
+            return n;
+        }
+
+        /** Replays whole, intact frames from {@code offset}; stops at a partial or torn one. */
+        private int replayFrames(Replayer target, int max) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            CRC32 crc = new CRC32();
+            int n = 0;
+            while (n < max) {
+                header.clear();
+                if (!readFully(header, offset)) break;
+                int len = header.getInt(0);
+                int expected = header.getInt(4);
+                if (len <= 0) break;
+                ByteBuffer payload = ByteBuffer.allocate(len);
+                if (!readFully(payload, offset + 8)) break;
+                crc.reset();
+                crc.update(payload.array(), 0, len);
+                if ((int) crc.getValue() != expected) break;
+                apply(new DataInputStream(new ByteArrayInputStream(payload.array())), target);
+                offset += 8 + len;
+                n++;
+            }
+            return n;
+        }
+
+        private boolean readFully(ByteBuffer buf, long position) throws IOException {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, position + buf.position()) < 0) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) channel.close();
+            channel = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out == null) return;
+        if (broken) {
+            // keep the partial frame out of the file; replay cuts off whatever part of it is there
+            fos.close();
+            out = null;
+            return;
+        }
+        out.flush();
+        channel.force(false);
+        out.close();
+        out = null;
+    }
+
+    // ---------- entity encoding ----------
+    static void writeBook(DataOutput out, Book b, int availableCopies) throws IOException {
+        out.writeInt(b.getId());
+        writeString(out, b.getTitle());
+        writeString(out, b.getAuthor());
+        writeString(out, b.getIsbn());
+        out.writeInt(b.getTotalCopies());
+        out.writeInt(availableCopies);
+        writeString(out, b.getCategory());
+    }
+
+    static Book readBook(DataInput in) throws IOException {
+        int id = in.readInt();
+        String title = readString(in);
+        String author = readString(in);
+        String isbn = readString(in);
+        int total = in.readInt();
+        int available = in.readInt();
+        String category = readString(in);
+        Book b = new Book(id, title, author, isbn, total, category);
+        b.setAvailableCopies(available);
+        return b;
+    }
+
+    static void writeUser(DataOutput out, User u) throws IOException {
+        boolean student = u instanceof Student;
+        out.writeBoolean(student);
+        out.writeInt(u.getId());
+        writeString(out, u.getName());
+        writeString(out, u.getEmail());
+        writeString(out, u.getPhone());
+        if (student) writeString(out, ((Student) u).getRollNumber());
+    }
+
+    static User readUser(DataInput in) throws IOException {
+        boolean student = in.readBoolean();
+        int id = in.readInt();
+        String name = readString(in);
+        String email = readString(in);
+        String phone = readString(in);
+        if (student) return new Student(id, name, email, phone, readString(in));
+        return new Librarian(id, name, email, phone);
+    }
+
+    static void writeIssue(DataOutput out, IssueRecord r) throws IOException {
+        out.writeInt(r.getId());
+        out.writeInt(r.getBookId());
+        out.writeInt(r.getUserId());
+        writeDate(out, r.getIssueDate());
+        writeDate(out, r.getDueDate());
+        writeDate(out, r.getReturnDate());
+    }
+
+    static IssueRecord readIssue(DataInput in) throws IOException {
+        int id = in.readInt();
+        int bookId = in.readInt();
+        int userId = in.readInt();
+        LocalDate issued = readDate(in);
+        LocalDate due = readDate(in);
+        LocalDate returned = readDate(in);
+        IssueRecord r = new IssueRecord(id, bookId, userId, issued, due);
+        r.setReturnDate(returned);
+        return r;
+    }
+
+    // string forms: null, writeUTF (64 KB at most; written before LONG_STRING), int length and UTF-8 bytes
+    private static final byte NULL_STRING = 0;
+    private static final byte UTF_STRING = 1;
+    private static final byte LONG_STRING = 2;
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeByte(NULL_STRING);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(LONG_STRING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte form = in.readByte();
+        switch (form) {
+            case NULL_STRING: return null;
+            case UTF_STRING: return in.readUTF();
+            case LONG_STRING: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            default: throw new IOException("Unknown journal string form " + form);
+        }
+    }
+
+    private static void writeDate(DataOutput out, LocalDate d) throws IOException {
+        out.writeLong(d == null ? Long.MIN_VALUE : d.toEpochDay());
+    }
+
+    private static LocalDate readDate(DataInput in) throws IOException {
+        long day = in.readLong();
+        return day == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(day);
+    }
+}
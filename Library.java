@@ -1,27 +1,257 @@
 import java.io.*;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+import javax.management.ObjectName;
 
+/**
+ * In-memory library core shared by every desk, kiosk and window of one process.
+ *
+ * Thread safety: the id maps and indexes are guarded by a StampedLock. Lookups
+ * run as optimistic reads and only fall back to the read lock when a writer
+ * raced them, so readers practically never block. Copy counts on a Book are
+ * CAS counters, so readers see them without the lock; they are only changed
+ * under the write lock, together with the loan that accounts for them, so a
+ * journaled copy count never runs ahead of the journaled loans.
+ * Every mutator also holds the shared side of {@code reloadGate}, so a
+ * reload (exclusive side) never lands in a half-applied operation.
+ *
+ * Persistence: every change is appended to the segmented {@link Journal} by
+ * the {@link PersistenceWorker}; the {@link Checkpointer} folds sealed
+ * segments into the snapshot files in the background, from the files alone.
+ *
+ * One process writes a data directory: a Library holds its writer lock
+ * ({@link DataDirLock}) until closed, and a second one refuses to open. Other
+ * processes open it with {@link #follower}, a read-only replica that loads
+ * the snapshot and then tails the writer's journal, a poll interval behind.
+ * Books and members carry an edit version, so an edit made from a copy read
+ * before someone else's edit is refused instead of overwriting it.
+ *
+ * Change events: every change is also published as a {@link LibraryEvent},
+ * recorded under the lock and delivered coalesced, in batches, by
+ * {@link LibraryEvents}; views and caches update from them instead of
+ * re-reading everything.
+ */
 public class Library {
-    private List<Book> books;
-    private List<User> users;
-    private List<IssueRecord> issues;
+    /** Fine charged per overdue day of a loan, in the smallest currency unit. */
+    public static final long DEFAULT_FINE_PER_DAY = 10;
+    /** Returned loans older than this move to the {@link LoanArchive} at the next checkpoint. */
+    public static final int DEFAULT_ARCHIVE_AFTER_DAYS = 365;
+    // archived ids dropped from memory per write-lock hold
+    private static final int EVICT_CHUNK = 4096;
+    /** How often a follower applies what the writer has committed. */
+    public static final long FOLLOW_INTERVAL_MILLIS = 500;
+    // journal frames a follower applies per write-lock hold
+    private static final int CATCH_UP_FRAMES = 1024;
 
-    private final File booksFile = new File("books.dat");
-    private final File usersFile = new File("users.dat");
-    private final File issuesFile = new File("issues.dat");
+    // one latency timer per public operation, published over JMX (see LibraryMetrics)
+    private static final LibraryMetrics.Timer T_ADD_BOOK = LibraryMetrics.timer("addBook");
+    private static final LibraryMetrics.Timer T_ADD_BOOKS = LibraryMetrics.timer("addBooks");
+    private static final LibraryMetrics.Timer T_GET_BOOK_COUNT = LibraryMetrics.timer("getBookCount");
+    private static final LibraryMetrics.Timer T_GET_BOOK_AT = LibraryMetrics.timer("getBookAt");
+    private static final LibraryMetrics.Timer T_UPDATE_BOOK = LibraryMetrics.timer("updateBook");
+    private static final LibraryMetrics.Timer T_DELETE_BOOK = LibraryMetrics.timer("deleteBook");
+    private static final LibraryMetrics.Timer T_FIND_BOOK_BY_ID = LibraryMetrics.timer("findBookById");
+    private static final LibraryMetrics.Timer T_FIND_BOOK_BY_ISBN = LibraryMetrics.timer("findBookByIsbn");
+    private static final LibraryMetrics.Timer T_INDEX_OF_BOOK = LibraryMetrics.timer("indexOfBook");
+    private static final LibraryMetrics.Timer T_SEARCH_BOOKS = LibraryMetrics.timer("searchBooks");
+    private static final LibraryMetrics.Timer T_ADD_STUDENT = LibraryMetrics.timer("addStudent");
+    private static final LibraryMetrics.Timer T_ADD_LIBRARIAN = LibraryMetrics.timer("addLibrarian");
+    private static final LibraryMetrics.Timer T_GET_USER_COUNT = LibraryMetrics.timer("getUserCount");
+    private static final LibraryMetrics.Timer T_GET_USER_AT = LibraryMetrics.timer("getUserAt");
+    private static final LibraryMetrics.Timer T_UPDATE_USER = LibraryMetrics.timer("updateUser");
+    private static final LibraryMetrics.Timer T_DELETE_USER = LibraryMetrics.timer("deleteUser");
+    private static final LibraryMetrics.Timer T_SEARCH_USERS = LibraryMetrics.timer("searchUsers");
+    private static final LibraryMetrics.Timer T_FILTER_BOOKS = LibraryMetrics.timer("filterBooks");
+    private static final LibraryMetrics.Timer T_FIND_USER_BY_ID = LibraryMetrics.timer("findUserById");
+    private static final LibraryMetrics.Timer T_INDEX_OF_USER = LibraryMetrics.timer("indexOfUser");
+    private static final LibraryMetrics.Timer T_ISSUE_BOOK = LibraryMetrics.timer("issueBook");
+    private static final LibraryMetrics.Timer T_RETURN_BOOK = LibraryMetrics.timer("returnBook");
+    private static final LibraryMetrics.Timer T_ISSUE_BOOKS = LibraryMetrics.timer("issueBooks");
+    private static final LibraryMetrics.Timer T_RETURN_BOOKS = LibraryMetrics.timer("returnBooks");
+    private static final LibraryMetrics.Timer T_GET_ISSUE_COUNT = LibraryMetrics.timer("getIssueCount");
+    private static final LibraryMetrics.Timer T_GET_ISSUE_AT = LibraryMetrics.timer("getIssueAt");
+    private static final LibraryMetrics.Timer T_FIND_ISSUE_BY_ID = LibraryMetrics.timer("findIssueById");
+    private static final LibraryMetrics.Timer T_INDEX_OF_ISSUE = LibraryMetrics.timer("indexOfIssue");
+    private static final LibraryMetrics.Timer T_GET_ACTIVE_ISSUES = LibraryMetrics.timer("getActiveIssues");
+    private static final LibraryMetrics.Timer T_GET_ACTIVE_ISSUE_COUNT = LibraryMetrics.timer("getActiveIssueCount");
+    private static final LibraryMetrics.Timer T_GET_ISSUES_FOR_USER = LibraryMetrics.timer("getIssuesForUser");
+    private static final LibraryMetrics.Timer T_GET_ACTIVE_ISSUES_FOR_USER = LibraryMetrics.timer("getActiveIssuesForUser");
+    private static final LibraryMetrics.Timer T_GET_ISSUES_FOR_BOOK = LibraryMetrics.timer("getIssuesForBook");
+    private static final LibraryMetrics.Timer T_GET_MOST_BORROWED_BOOKS = LibraryMetrics.timer("getMostBorrowedBooks");
+    private static final LibraryMetrics.Timer T_GET_BUSIEST_MEMBERS = LibraryMetrics.timer("getBusiestMembers");
+    private static final LibraryMetrics.Timer T_GET_LOANS_BY_CATEGORY_MONTH = LibraryMetrics.timer("getLoansByCategoryMonth");
+    private static final LibraryMetrics.Timer T_GET_AVERAGE_LOAN_DAYS = LibraryMetrics.timer("getAverageLoanDays");
+    private static final LibraryMetrics.Timer T_SNAPSHOT_LOANS = LibraryMetrics.timer("snapshotLoans");
+    private static final LibraryMetrics.Timer T_EVICT_ARCHIVED = LibraryMetrics.timer("evictArchived");
+    private static final LibraryMetrics.Timer T_GET_ISSUE_HISTORY_FOR_USER = LibraryMetrics.timer("getIssueHistoryForUser");
+    private static final LibraryMetrics.Timer T_GET_ARCHIVED_ISSUES = LibraryMetrics.timer("getArchivedIssues");
+    private static final LibraryMetrics.Timer T_QUERY_BOOKS = LibraryMetrics.timer("queryBooks");
+    private static final LibraryMetrics.Timer T_QUERY_USERS = LibraryMetrics.timer("queryUsers");
+    private static final LibraryMetrics.Timer T_QUERY_ISSUES = LibraryMetrics.timer("queryIssues");
+    private static final LibraryMetrics.Timer T_GET_BOOK_FACETS = LibraryMetrics.timer("getBookFacets");
+    private static final LibraryMetrics.Timer T_GET_OVERDUE_ISSUES = LibraryMetrics.timer("getOverdueIssues");
+    private static final LibraryMetrics.Timer T_GET_ISSUES_DUE_WITHIN = LibraryMetrics.timer("getIssuesDueWithin");
+    private static final LibraryMetrics.Timer T_LOAD_ALL = LibraryMetrics.timer("loadAll");
+    private static final LibraryMetrics.Timer T_SAVE_ALL = LibraryMetrics.timer("saveAll");
+    private static final LibraryMetrics.Timer T_FLUSH = LibraryMetrics.timer("flush");
+    private static final LibraryMetrics.Timer T_CATCH_UP = LibraryMetrics.timer("catchUp");
 
+    // primary storage, keyed by id and kept in insertion order
+    private IntMap<Book> books;
+    private IntMap<User> users;
+    // the working set of the loan history (active and recently returned loans) in
+    // columns, with its own per-member, per-book and active indexes; older
+    // returned loans are in the archive and only read on demand
+    private IssueStore issues = new IssueStore();
+    // unreturned issues by due day and by member, for overdue queries and fines
+    private final DueDateIndex dueIndex = new DueDateIndex();
+    private volatile long finePerDay = DEFAULT_FINE_PER_DAY;
+    // running circulation counters for the standard reports
+    private final CirculationStats stats = new CirculationStats();
+    private final SearchIndex bookSearch = new SearchIndex();
+    // member name and roll number, for the type-ahead pickers
+    private final SearchIndex userSearch = new SearchIndex();
+    // book ids by title and by author and member ids by name, for paged queries;
+    // each is built the first time a query sorts by it
+    private final SortedIds<String> booksByTitle = new SortedIds<>(bookText(Book::getTitle));
+    private final SortedIds<String> booksByAuthor = new SortedIds<>(bookText(Book::getAuthor));
+    private final SortedIds<String> usersByName = new SortedIds<>(new SortedIds.Order<>(id -> {
+        User u = users.get(id);
+        return u == null ? null : orEmpty(u.getName());
+    }, String.CASE_INSENSITIVE_ORDER, s -> s));
+    // book ids by category, by author and on the shelf, for filters and facet counts
+    private final BookFacets facets = new BookFacets();
+    // compact ISBN -> book id; entries can go stale on edits, so lookups re-check the book
+    private final HashMap<String, Integer> booksByIsbn = new HashMap<>();
+    // last id handed out per entity; persisted in the snapshot headers so
+    // ids of deleted records are never reused
+    private final AtomicInteger bookSeq = new AtomicInteger();
+    private final AtomicInteger userSeq = new AtomicInteger();
+    private final AtomicInteger issueSeq = new AtomicInteger();
+
+    private final StampedLock lock = new StampedLock();
+    private final ReentrantReadWriteLock reloadGate = new ReentrantReadWriteLock();
+
+    private final File booksFile;
+    private final File usersFile;
+    private final File issuesFile;
+    // Java-serialized snapshots from older versions, migrated once on load
+    private final File legacyBooksFile;
+    private final File legacyUsersFile;
+    private final File legacyIssuesFile;
+    private final Journal journal;
+    private final LoanArchive archive;
+    private final Checkpointer checkpointer;
+    private final PersistenceWorker persistence;
+    private final LibraryEvents events = new LibraryEvents();
+    private final ObjectName mbeanName;
+    // the directory's writer lock; null on a follower
+    private final DataDirLock writerLock;
+    // follower: no writer lock or persistence; the journal is tailed on its own thread
+    private final boolean readOnly;
+    private final ScheduledExecutorService follow;
+    private Journal.Tail tail; // guarded by the checkpointer's monitor
+
+    /** Uses the data files in the working directory. */
     public Library() {
+        this(new File("."));
+    }
+
+    /**
+     * Opens {@code dataDir} for writing. Throws IllegalStateException if
+     * another process (or Library) already writes it; open a {@link #follower}
+     * there instead. Throws UncheckedIOException if the lock cannot be taken.
+     */
+    public Library(File dataDir) {
+        this(dataDir, false);
+    }
+
+    /**
+     * A read-only replica of the Library another process writes in
+     * {@code dataDir}: loads the snapshot, then applies the writer's journal
+     * every {@link #FOLLOW_INTERVAL_MILLIS} and publishes the changes as
+     * events. Mutators throw IllegalStateException.
+     */
+    public static Library follower(File dataDir) {
+        return new Library(dataDir, true);
+    }
+
+    private Library(File dataDir, boolean readOnly) {
+        this.readOnly = readOnly;
+        writerLock = readOnly ? null : lockForWriting(dataDir);
+        booksFile = new File(dataDir, "books.bin");
+        usersFile = new File(dataDir, "users.bin");
+        issuesFile = new File(dataDir, "issues.bin");
+        legacyBooksFile = new File(dataDir, "books.dat");
+        legacyUsersFile = new File(dataDir, "users.dat");
+        legacyIssuesFile = new File(dataDir, "issues.dat");
+        journal = new Journal(dataDir);
+        archive = new LoanArchive(new File(dataDir, "archive"));
+        checkpointer = new Checkpointer(booksFile, usersFile, issuesFile, journal, archive,
+                DEFAULT_ARCHIVE_AFTER_DAYS, this::evictArchived);
         loadAll();
+        if (readOnly) {
+            persistence = null;
+            follow = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "library-follower");
+                t.setDaemon(true);
+                return t;
+            });
+            follow.scheduleWithFixedDelay(this::catchUp, FOLLOW_INTERVAL_MILLIS, FOLLOW_INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            follow = null;
+            persistence = new PersistenceWorker(journal);
+            persistence.addListener(new PersistenceWorker.Listener() {
+                public void saved(long upTo) { checkpointer.maybeCheckpoint(); }
+                public void failed(long upTo, Exception e) {}
+            });
+            checkpointer.start();
+        }
+        mbeanName = LibraryMetrics.registerLibrary(this, dataDir.getAbsoluteFile().toPath().normalize().toString());
+    }
+
+    /** Without the lock nothing keeps a second writer out, so failing to take it fails the open. */
+    private static DataDirLock lockForWriting(File dataDir) {
+        try {
+            return DataDirLock.writer(dataDir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to lock " + dataDir + " for writing", e);
+        }
+    }
+
+    /** True for a {@link #follower}, which only reads. */
+    public boolean isReadOnly() { return readOnly; }
+
+    private void checkWritable() {
+        if (readOnly) throw new IllegalStateException("Read-only: another process writes this library");
     }
 
     // ---------- persistence ----------
+    /** Reads a Java-serialized list written by older versions (migration only). */
     @SuppressWarnings("unchecked")
     private <T> List<T> readList(File f) {
         if (!f.exists()) return new ArrayList<>();
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f))) {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)))) {
             Object o = ois.readObject();
             if (o instanceof List) return (List<T>) o;
         } catch (Exception e) {
@@ -30,145 +260,1473 @@ public class Library {
         return new ArrayList<>();
     }
 
-    private void writeList(File f, List<?> list) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(f))) {
-            oos.writeObject(list);
-        } catch (Exception e) {
-            System.err.println("Failed to write " + f.getName() + ": " + e.getMessage());
+    private interface SnapshotReader<T> {
+        List<T> read(File f) throws IOException;
+    }
+
+    private static <T> List<T> readSnapshot(File f, SnapshotReader<T> reader) {
+        if (!f.exists()) return new ArrayList<>();
+        try {
+            return reader.read(f);
+        } catch (IOException e) {
+            System.err.println("Failed to read " + f.getName() + ": " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    private static int readLastId(File f, byte kind) {
+        if (!f.exists()) return 0;
+        try {
+            return BinaryStore.readLastId(f, kind);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private boolean writeSnapshot(List<Book> bookList, List<User> userList, List<IssueRecord> issueList,
+                                  int[] lastIds) {
+        try {
+            BinaryStore.writeBooks(booksFile, bookList, lastIds[0]);
+            BinaryStore.writeUsers(usersFile, userList, lastIds[1]);
+            BinaryStore.writeIssues(issuesFile, issueList, lastIds[2]);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to write snapshot: " + e.getMessage());
+            return false;
         }
     }
 
+    /** Loads the last snapshot, then replays the journal segments after it. */
     public void loadAll() {
-        books = readList(booksFile);
-        users = readList(usersFile);
-        issues = readList(issuesFile);
+        long start = LibraryMetrics.start();
+        synchronized (checkpointer) {
+            loadAllLocked();
+        }
+        T_LOAD_ALL.stop(start);
+    }
+
+    private void loadAllLocked() {
+        DataDirLock snapshotLock = null;
+        reloadGate.writeLock().lock();
+        long stamp = lock.writeLock();
+        // listeners hear one RELOADED instead of every record replayed
+        events.setMuted(true);
+        try {
+            if (persistence != null) flushQuietly();
+            // a follower reads the snapshot and the journal after its mark as of one checkpoint
+            if (readOnly) snapshotLock = lockCheckpointQuietly();
+            stats.clear();
+            // books are put before the loans are loaded; they must see none
+            issues.clear();
+            // the sort indexes are built again when next used
+            booksByTitle.drop();
+            booksByAuthor.drop();
+            usersByName.drop();
+            boolean migrate = !booksFile.exists() && !usersFile.exists() && !issuesFile.exists()
+                    && (legacyBooksFile.exists() || legacyUsersFile.exists() || legacyIssuesFile.exists());
+            List<Book> bookList = migrate ? readList(legacyBooksFile) : readSnapshot(booksFile, BinaryStore::readBooks);
+            bookSeq.set(readLastId(booksFile, BinaryStore.KIND_BOOKS));
+            books = new IntMap<>(bookList.size());
+            booksByIsbn.clear();
+            facets.clear();
+            for (Book b : bookList) putBook(b);
+            List<User> userList = migrate ? readList(legacyUsersFile) : readSnapshot(usersFile, BinaryStore::readUsers);
+            userSeq.set(readLastId(usersFile, BinaryStore.KIND_USERS));
+            users = new IntMap<>(userList.size());
+            for (User u : userList) putUser(u);
+            List<IssueRecord> issueList = migrate ? readList(legacyIssuesFile) : readSnapshot(issuesFile, BinaryStore::readIssues);
+            issueSeq.set(readLastId(issuesFile, BinaryStore.KIND_ISSUES));
+            issues = new IssueStore(issueList.size());
+            dueIndex.clear();
+            for (IssueRecord r : issueList) putIssue(r);
+            issueList = null; // the store has them; let the objects go before the replay
+            try {
+                if (readOnly) {
+                    if (tail != null) tail.close();
+                    tail = journal.tail();
+                    tail.poll(replayer, Integer.MAX_VALUE);
+                } else {
+                    journal.close();
+                    journal.open(replayer);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to open journal: " + e.getMessage());
+            }
+            issues.compact();
+            bookSearch.rebuild(books.values(), Book::getId, Library::bookFields, BOOK_FIELD_WEIGHTS);
+            userSearch.rebuild(users.values(), User::getId, Library::userFields, USER_FIELD_WEIGHTS);
+            if (migrate && !readOnly) migrateLegacyFiles();
+        } finally {
+            if (snapshotLock != null) unlockQuietly(snapshotLock);
+            events.setMuted(false);
+            events.publish(LibraryEvent.Type.RELOADED, 0);
+            lock.unlockWrite(stamp);
+            reloadGate.writeLock().unlock();
+        }
+    }
+
+    private DataDirLock lockCheckpointQuietly() {
+        try {
+            return journal.lockCheckpoint(true);
+        } catch (IOException e) {
+            System.err.println("Failed to lock the snapshot files: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void unlockQuietly(DataDirLock held) {
+        try {
+            held.close();
+        } catch (IOException e) {
+            System.err.println("Failed to release a lock: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Follower: applies the frames the writer has committed since the last
+     * call, a chunk per lock hold, and publishes them as change events. If a
+     * checkpoint deleted segments before they were read, loads everything
+     * again. After a checkpoint, drops the loans it archived, as the writer
+     * does (assuming the same {@link #setArchiveAfterDays archive-after}).
+     * The follower thread calls this; a no-op on the writer.
+     */
+    public void catchUp() {
+        if (!readOnly) return;
+        long start = LibraryMetrics.start();
+        try {
+            synchronized (checkpointer) {
+                long mark = tail.checkpointed();
+                int n;
+                do {
+                    n = apply(T_CATCH_UP, () -> {
+                        try {
+                            return tail.poll(followReplayer, CATCH_UP_FRAMES);
+                        } catch (IOException e) {
+                            System.err.println("Failed to read the journal: " + e.getMessage());
+                            return 0;
+                        }
+                    });
+                } while (n == CATCH_UP_FRAMES);
+                if (n < 0) {
+                    loadAll();
+                    return;
+                }
+                if (tail.checkpointed() > mark) evictArchivedCopies();
+            }
+        } finally {
+            T_CATCH_UP.stop(start);
+        }
+    }
+
+    /** The loans a checkpoint of the writer has archived, by the same age rule. */
+    private void evictArchivedCopies() {
+        int days = checkpointer.getArchiveAfterDays();
+        if (days <= 0) return;
+        int cutoff = (int) (LocalDate.now().toEpochDay() - days);
+        evictArchived(underReadLock(T_EVICT_ARCHIVED, () -> issues.returnedBefore(cutoff)));
+    }
+
+    /**
+     * One-time switch from the old Java-serialized .dat files: writes the
+     * loaded state in the binary format and moves the old files aside.
+     */
+    private void migrateLegacyFiles() {
+        if (!writeSnapshot(new ArrayList<>(books.values()), new ArrayList<>(users.values()),
+                issues.values(), lastIds())) return;
+        try {
+            journal.markCheckpoint(journal.roll());
+        } catch (IOException e) {
+            System.err.println("Failed to checkpoint journal: " + e.getMessage());
+        }
+        for (File f : new File[]{legacyBooksFile, legacyUsersFile, legacyIssuesFile}) {
+            if (f.exists() && !f.renameTo(new File(f.getPath() + ".migrated"))) {
+                System.err.println("Could not move aside " + f.getName());
+            }
+        }
+        System.err.println("Migrated .dat files to the binary snapshot format");
     }
 
+    /**
+     * Checkpoints now, on the calling thread: folds the journal into the
+     * snapshot files. Mutators keep running meanwhile. Background checkpoints
+     * make this optional; it just leaves the shortest replay (e.g. on close).
+     */
     public void saveAll() {
-        writeList(booksFile, books);
-        writeList(usersFile, users);
-        writeList(issuesFile, issues);
+        checkWritable();
+        long start = LibraryMetrics.start();
+        try {
+            flushQuietly();
+            checkpointer.checkpoint();
+        } catch (IOException e) {
+            System.err.println("Failed to write snapshot: " + e.getMessage());
+        } finally {
+            T_SAVE_ALL.stop(start);
+        }
+    }
+
+    /** Blocks until every change made so far is on disk. */
+    public void flush() throws IOException {
+        if (persistence == null) return;
+        long start = LibraryMetrics.start();
+        try {
+            persistence.flush();
+        } finally {
+            T_FLUSH.stop(start);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            persistence.flush();
+        } catch (IOException e) {
+            // the worker keeps retrying; the snapshot written next holds only what reached the journal
+            System.err.println("Journal write failed: " + e.getMessage());
+        }
+    }
+
+    /** Drains pending writes, checkpoints and releases the journal. */
+    public void close() {
+        LibraryMetrics.unregister(mbeanName);
+        if (readOnly) {
+            follow.shutdown();
+            try {
+                follow.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (checkpointer) {
+                try {
+                    tail.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close journal: " + e.getMessage());
+                }
+            }
+            events.close();
+            return;
+        }
+        try {
+            persistence.close();
+        } catch (IOException e) {
+            System.err.println("Changes not written to the journal are lost: " + e.getMessage());
+        }
+        checkpointer.close();
+        saveAll();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close journal: " + e.getMessage());
+        }
+        events.close();
+        // the next writer may open the directory now
+        if (writerLock != null) unlockQuietly(writerLock);
+    }
+
+    /** Hears about background writes; a follower writes nothing. */
+    public void addPersistenceListener(PersistenceWorker.Listener l) {
+        if (persistence != null) persistence.addListener(l);
+    }
+
+    public void removePersistenceListener(PersistenceWorker.Listener l) {
+        if (persistence != null) persistence.removeListener(l);
+    }
+
+    /** Listens for changes to books, members and loans; see {@link LibraryEvents} for how they arrive. */
+    public void addChangeListener(LibraryEvents.Listener l) { events.addListener(l); }
+    public void removeChangeListener(LibraryEvents.Listener l) { events.removeListener(l); }
+
+    /** Waits until every change made so far has been delivered to the change listeners. */
+    public void flushEvents() { events.flush(); }
+
+    /**
+     * Hands the change to the background writer; returns without waiting for
+     * the disk. Mutators encode the batch before they touch any state, so a
+     * change that cannot be logged is never made in memory either.
+     */
+    private void log(Journal.Batch batch) {
+        persistence.submit(batch);
+    }
+
+    // ---------- journal replay ----------
+    private final Journal.Replayer replayer = new Journal.Replayer() {
+        public void putBook(Book b) { Library.this.putBook(b); }
+        public void deleteBook(int bookId) { removeBook(bookId); }
+        public void putUser(User u) { Library.this.putUser(u); }
+        public void deleteUser(int userId) { removeUser(userId); }
+        public void putIssue(IssueRecord r) { Library.this.putIssue(r); }
+    };
+
+    // a follower's replay also keeps up the indexes a load rebuilds once at the end
+    private final Journal.Replayer followReplayer = new Journal.Replayer() {
+        public void putBook(Book b) {
+            unsortBook(b.getId());
+            Library.this.putBook(b);
+            indexBook(b);
+            sortBook(b.getId());
+        }
+        public void deleteBook(int bookId) { removeBook(bookId); }
+        public void putUser(User u) {
+            usersByName.remove(u.getId());
+            Library.this.putUser(u);
+            indexUser(u);
+            usersByName.add(u.getId());
+        }
+        public void deleteUser(int userId) { removeUser(userId); }
+        public void putIssue(IssueRecord r) { Library.this.putIssue(r); }
+    };
+
+    // ---------- locking ----------
+    /**
+     * Runs {@code op} as an optimistic read and retries under the read lock if a
+     * writer got in the way. {@code op} must only read; it may see a torn state
+     * (and even throw) on the optimistic attempt, which is then discarded.
+     */
+    private <T> T read(LibraryMetrics.Timer timer, Supplier<T> op) {
+        long start = LibraryMetrics.start();
+        try {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    T result = op.get();
+                    if (lock.validate(stamp)) return result;
+                } catch (RuntimeException raced) {
+                    // torn read while a writer was active; retry below
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return op.get();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        } finally {
+            timer.stop(start);
+        }
+    }
+
+    /** Runs {@code op} under the read lock, for indexes that cannot be walked optimistically. */
+    private <T> T underReadLock(LibraryMetrics.Timer timer, Supplier<T> op) {
+        long start = LibraryMetrics.start();
+        long stamp = lock.readLock();
+        try {
+            return op.get();
+        } finally {
+            lock.unlockRead(stamp);
+            timer.stop(start);
+        }
+    }
+
+    /** Runs {@code op} holding the shared checkpoint gate and the index write lock; refused on a follower. */
+    private <T> T write(LibraryMetrics.Timer timer, Supplier<T> op) {
+        checkWritable();
+        return apply(timer, op);
+    }
+
+    /** Same as {@link #write} on a follower too, for changes that come from the data files. */
+    private <T> T apply(LibraryMetrics.Timer timer, Supplier<T> op) {
+        long start = LibraryMetrics.start();
+        reloadGate.readLock().lock();
+        try {
+            long stamp = lock.writeLock();
+            try {
+                return op.get();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        } finally {
+            reloadGate.readLock().unlock();
+            timer.stop(start);
+        }
+    }
+
+    /** Squeezes holes out of a map before positional reads, under the write lock. */
+    private void compactIfNeeded(IntMap<?> map) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0 && map.isCompact() && lock.validate(stamp)) return;
+        stamp = lock.writeLock();
+        try {
+            map.compact();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Same for the issue store. */
+    private void compactIfNeeded() {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0 && issues.isCompact() && lock.validate(stamp)) return;
+        stamp = lock.writeLock();
+        try {
+            issues.compact();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
     // ---------- id helpers ----------
-    private int nextBookId() {
-        int max = 0;
-        for (Book b : books) if (b.getId() > max) max = b.getId();
-        return max + 1;
+    private int nextBookId() { return bookSeq.incrementAndGet(); }
+    private int nextUserId() { return userSeq.incrementAndGet(); }
+    private int nextIssueId() { return issueSeq.incrementAndGet(); }
+
+    private int[] lastIds() { return new int[]{bookSeq.get(), userSeq.get(), issueSeq.get()}; }
+
+    /** Loaded or replayed records push the sequence past their id. */
+    private static void advance(AtomicInteger seq, int id) {
+        seq.accumulateAndGet(id, Math::max);
+    }
+
+    private void putBook(Book b) {
+        Book old = books.put(b.getId(), b);
+        events.publish(old == null ? LibraryEvent.Type.BOOK_ADDED
+                : sameButCopies(old, b) ? LibraryEvent.Type.COPIES_CHANGED : LibraryEvent.Type.BOOK_UPDATED, b.getId());
+        // a replayed edit replaces the book
+        facets.remove(b.getId());
+        facets.add(b);
+        indexIsbn(b);
+        stats.recategorize(b.getId(), b.getCategory(), issues.forBook(b.getId()));
+        advance(bookSeq, b.getId());
     }
-    private int nextUserId() {
-        int max = 0;
-        for (User u : users) if (u.getId() > max) max = u.getId();
-        return max + 1;
+
+    private void putUser(User u) {
+        User old = users.put(u.getId(), u);
+        events.publish(old == null ? LibraryEvent.Type.USER_ADDED : LibraryEvent.Type.USER_UPDATED, u.getId());
+        advance(userSeq, u.getId());
     }
-    private int nextIssueId() {
-        int max = 0;
-        for (IssueRecord r : issues) if (r.getId() > max) max = r.getId();
-        return max + 1;
+
+    /** True if a replayed book differs from the one it replaces only in its available copies. */
+    private static boolean sameButCopies(Book a, Book b) {
+        return Objects.equals(a.getTitle(), b.getTitle()) && a.getAuthorCode() == b.getAuthorCode()
+                && Objects.equals(a.getIsbn(), b.getIsbn()) && a.getTotalCopies() == b.getTotalCopies()
+                && a.getCategoryCode() == b.getCategoryCode();
     }
 
     // ---------- book operations ----------
     public Book addBook(String title, String author, String isbn, int totalCopies, String category) {
-        Book b = new Book(nextBookId(), title, author, isbn, totalCopies, category);
-        books.add(b);
-        saveAll();
-        return b;
+        return write(T_ADD_BOOK, () -> {
+            Book b = new Book(nextBookId(), title, author, isbn, totalCopies, category);
+            Journal.Batch batch = new Journal.Batch().putBook(b);
+            books.put(b.getId(), b);
+            indexIsbn(b);
+            indexBook(b);
+            sortBook(b.getId());
+            facets.add(b);
+            events.publish(LibraryEvent.Type.BOOK_ADDED, b.getId());
+            log(batch);
+            return b;
+        });
     }
 
-    public List<Book> getBooks() { return books; }
+    /**
+     * Bulk insert for imports: adds every draft (its id is ignored) under one
+     * lock hold and one journal record. A draft whose ISBN is already in the
+     * catalog, or earlier in {@code drafts}, is skipped. Returns the added
+     * books in draft order, with null for each skipped draft.
+     */
+    public List<Book> addBooks(List<Book> drafts) {
+        return write(T_ADD_BOOKS, () -> {
+            List<Book> added = new ArrayList<>(drafts.size());
+            int[] ids = new int[drafts.size()];
+            int n = 0;
+            Journal.Batch batch = new Journal.Batch();
+            for (Book d : drafts) {
+                if (findByIsbn(d.getIsbn()) != null) {
+                    added.add(null);
+                    continue;
+                }
+                Book b = new Book(nextBookId(), d.getTitle(), d.getAuthor(), d.getIsbn(), d.getTotalCopies(),
+                        d.getCategory());
+                batch.putBook(b);
+                books.put(b.getId(), b);
+                indexIsbn(b);
+                indexBook(b);
+                facets.add(b);
+                events.publish(LibraryEvent.Type.BOOK_ADDED, b.getId());
+                ids[n++] = b.getId();
+                added.add(b);
+            }
+            booksByTitle.addAll(ids, n);
+            booksByAuthor.addAll(ids, n);
+            if (!batch.isEmpty()) log(batch);
+            return added;
+        });
+    }
+
+    /**
+     * Read-only live view in insertion order. Iterating it is only safe while
+     * no other thread writes; use {@link #getBookCount()} / {@link #getBookAt}
+     * or copy it under concurrency.
+     */
+    public List<Book> getBooks() { return books.values(); }
+
+    public int getBookCount() { return read(T_GET_BOOK_COUNT, books::size); }
+
+    /** Book at {@code row} of {@link #getBooks()}. */
+    public Book getBookAt(int row) {
+        compactIfNeeded(books);
+        return read(T_GET_BOOK_AT, () -> books.values().get(row));
+    }
 
-    public void updateBook(Book book) {
-        Optional<Book> opt = books.stream().filter(b -> b.getId() == book.getId()).findFirst();
-        if (opt.isPresent()) {
-            Book existing = opt.get();
+    /**
+     * Saves an edit: {@code book} is a copy with the new fields and the
+     * {@link Book#getVersion version} of the book it was made from. If the
+     * book was edited since, the edit is refused instead of overwriting that
+     * one. Copies checked out meanwhile stay out: the shelf count moves with
+     * the new total.
+     */
+    public void updateBook(Book book) throws Exception {
+        String error = write(T_UPDATE_BOOK, () -> {
+            Book existing = books.get(book.getId());
+            if (existing == null) return "Book not found";
+            if (existing.getVersion() != book.getVersion()) return "Book was changed by someone else; reload it and try again";
+            Book edited = new Book(existing.getId(), book.getTitle(), book.getAuthor(), book.getIsbn(),
+                    existing.getTotalCopies(), book.getCategory());
+            edited.setAvailableCopies(existing.getAvailableCopies());
+            edited.setTotalCopies(book.getTotalCopies());
+            edited.setVersion(existing.getVersion() + 1);
+            Journal.Batch batch = new Journal.Batch().putBook(edited);
+            unsortBook(existing.getId());
+            facets.remove(existing.getId());
             existing.setTitle(book.getTitle());
             existing.setAuthor(book.getAuthor());
             existing.setIsbn(book.getIsbn());
             existing.setTotalCopies(book.getTotalCopies());
-            existing.setAvailableCopies(book.getAvailableCopies());
             existing.setCategory(book.getCategory());
-            saveAll();
-        }
+            existing.setVersion(existing.getVersion() + 1);
+            stats.recategorize(existing.getId(), existing.getCategory(), issues.forBook(existing.getId()));
+            indexIsbn(existing);
+            indexBook(existing);
+            sortBook(existing.getId());
+            facets.add(existing);
+            events.publish(LibraryEvent.Type.BOOK_UPDATED, existing.getId());
+            log(batch);
+            return null;
+        });
+        if (error != null) throw new Exception(error);
     }
 
     public void deleteBook(int bookId) {
-        books.removeIf(b -> b.getId() == bookId);
-        // also remove any non-returned issues referencing it — simple approach: remove those issues
-        issues.removeIf(r -> r.getBookId() == bookId);
-        saveAll();
+        write(T_DELETE_BOOK, () -> {
+            Journal.Batch batch = new Journal.Batch().deleteBook(bookId);
+            removeBook(bookId);
+            log(batch);
+            return null;
+        });
+    }
+
+    private void removeBook(int bookId) {
+        unsortBook(bookId);
+        Book removed = books.remove(bookId);
+        if (removed != null) {
+            facets.remove(bookId);
+            String key = compactIsbn(removed.getIsbn());
+            if (key != null) booksByIsbn.remove(key, bookId);
+            events.publish(LibraryEvent.Type.BOOK_DELETED, bookId);
+        }
+        bookSearch.remove(bookId);
+        // also remove any issues referencing it — simple approach: remove those issues
+        removeIssues(issues.forBook(bookId));
     }
 
     public Book findBookById(int id) {
-        return books.stream().filter(b -> b.getId() == id).findFirst().orElse(null);
+        return read(T_FIND_BOOK_BY_ID, () -> books.get(id));
+    }
+
+    /** Book with this ISBN, ignoring hyphens and spaces, or null. */
+    public Book findBookByIsbn(String isbn) {
+        // HashMap is not safe to walk optimistically
+        return underReadLock(T_FIND_BOOK_BY_ISBN, () -> findByIsbn(isbn));
+    }
+
+    private Book findByIsbn(String isbn) {
+        String key = compactIsbn(isbn);
+        if (key == null) return null;
+        Integer id = booksByIsbn.get(key);
+        Book b = id == null ? null : books.get(id);
+        return b != null && key.equals(compactIsbn(b.getIsbn())) ? b : null;
+    }
+
+    /** Row of the book in {@link #getBooks()}, or -1. */
+    public int indexOfBook(int id) {
+        compactIfNeeded(books);
+        return read(T_INDEX_OF_BOOK, () -> books.indexOf(id));
+    }
+
+    /**
+     * Ranked catalog search over title, author, ISBN and category. Every word
+     * of the query must match the start of a word in one of those fields.
+     */
+    public List<Book> searchBooks(String query, int limit) {
+        // the token dictionary is a TreeMap, which is not safe to walk optimistically
+        return underReadLock(T_SEARCH_BOOKS, () -> {
+            List<Book> out = new ArrayList<>();
+            for (int id : bookSearch.search(query, limit)) out.add(books.get(id));
+            return out;
+        });
+    }
+
+    /**
+     * Books whose author and category are exactly the given values (null =
+     * any), in id order, at most {@code limit}. Answered from the facet
+     * bitmaps, so no book is read that does not match.
+     */
+    public List<Book> filterBooks(String author, String category, int limit) {
+        return underReadLock(T_FILTER_BOOKS, () -> {
+            List<Book> out = new ArrayList<>();
+            IdBitmap match = facets.matching(author, category, false);
+            if (match == null) {
+                for (Book b : books.values()) {
+                    if (out.size() >= limit) break;
+                    out.add(b);
+                }
+                return out;
+            }
+            for (int id : match.toArray()) {
+                if (out.size() >= limit) break;
+                out.add(books.get(id));
+            }
+            return out;
+        });
+    }
+
+    /**
+     * Facet counts for a catalog query: how many books match it, how many of
+     * those are on the shelf, and the books per category and per author
+     * (the {@code maxAuthors} most frequent), each counted under the query's
+     * other filters. Bitmap intersections only; search text, when given, is
+     * looked up first. Sort and paging of {@code q} are ignored.
+     */
+    public BookFacets.Counts getBookFacets(Query.Books q, int maxAuthors) {
+        return underReadLock(T_GET_BOOK_FACETS, () -> {
+            IdBitmap hits = null;
+            if (q.text != null) {
+                int[] ids = bookSearch.search(q.text, Integer.MAX_VALUE);
+                hits = IdBitmap.of(ids, ids.length);
+            }
+            return facets.count(books.size(), hits, q.author, q.category, q.availableOnly, maxAuthors);
+        });
+    }
+
+    /** Order of books by a text field, case-insensitive; a missing value sorts as empty. */
+    private SortedIds.Order<String> bookText(Function<Book, String> field) {
+        return new SortedIds.Order<>(id -> {
+            Book b = books.get(id);
+            return b == null ? null : orEmpty(field.apply(b));
+        }, String.CASE_INSENSITIVE_ORDER, s -> s);
+    }
+
+    private static String orEmpty(String s) { return s == null ? "" : s; }
+
+    private void sortBook(int id) {
+        booksByTitle.add(id);
+        booksByAuthor.add(id);
+    }
+
+    private void unsortBook(int id) {
+        booksByTitle.remove(id);
+        booksByAuthor.remove(id);
+    }
+
+    private static final int[] BOOK_FIELD_WEIGHTS = {3, 2, 3, 3, 1};
+
+    /** ISBN reduced to its digits (and check character X), or null if there are none. */
+    static String compactIsbn(String isbn) {
+        if (isbn == null) return null;
+        StringBuilder sb = new StringBuilder(isbn.length());
+        for (int i = 0; i < isbn.length(); i++) {
+            char c = isbn.charAt(i);
+            if (c >= '0' && c <= '9') sb.append(c);
+            else if (c == 'X' || c == 'x') sb.append('X');
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    private void indexIsbn(Book b) {
+        String key = compactIsbn(b.getIsbn());
+        if (key != null) booksByIsbn.put(key, b.getId());
+    }
+
+    private void indexBook(Book b) {
+        bookSearch.put(b.getId(), bookFields(b), BOOK_FIELD_WEIGHTS);
+    }
+
+    private static String[] bookFields(Book b) {
+        String isbn = b.getIsbn();
+        // also index the ISBN without separators so "978013" finds "978-0-13-..."
+        String compactIsbn = compactIsbn(isbn);
+        if (compactIsbn != null && compactIsbn.equals(isbn)) compactIsbn = null;
+        return new String[]{b.getTitle(), b.getAuthor(), isbn, compactIsbn, b.getCategory()};
     }
 
     // ---------- user operations ----------
+    private static final int[] USER_FIELD_WEIGHTS = {3, 3};
+
+    private void indexUser(User u) {
+        userSearch.put(u.getId(), userFields(u), USER_FIELD_WEIGHTS);
+    }
+
+    private static String[] userFields(User u) {
+        String roll = u instanceof Student ? ((Student) u).getRollNumber() : null;
+        return new String[]{u.getName(), roll};
+    }
+
+    /** Members whose name or roll number has words starting with every word of {@code query}, best first. */
+    public List<User> searchUsers(String query, int limit) {
+        return underReadLock(T_SEARCH_USERS, () -> {
+            List<User> out = new ArrayList<>();
+            for (int id : userSearch.search(query, limit)) out.add(users.get(id));
+            return out;
+        });
+    }
+
     public User addStudent(String name, String email, String phone, String roll) {
-        Student s = new Student(nextUserId(), name, email, phone, roll);
-        users.add(s);
-        saveAll();
-        return s;
+        return write(T_ADD_STUDENT, () -> {
+            Student s = new Student(nextUserId(), name, email, phone, roll);
+            Journal.Batch batch = new Journal.Batch().putUser(s);
+            users.put(s.getId(), s);
+            indexUser(s);
+            usersByName.add(s.getId());
+            events.publish(LibraryEvent.Type.USER_ADDED, s.getId());
+            log(batch);
+            return s;
+        });
     }
     public User addLibrarian(String name, String email, String phone) {
-        Librarian l = new Librarian(nextUserId(), name, email, phone);
-        users.add(l);
-        saveAll();
-        return l;
+        return write(T_ADD_LIBRARIAN, () -> {
+            Librarian l = new Librarian(nextUserId(), name, email, phone);
+            Journal.Batch batch = new Journal.Batch().putUser(l);
+            users.put(l.getId(), l);
+            indexUser(l);
+            usersByName.add(l.getId());
+            events.publish(LibraryEvent.Type.USER_ADDED, l.getId());
+            log(batch);
+            return l;
+        });
     }
 
-    public List<User> getUsers() { return users; }
+    /** Read-only live view in insertion order; same caveats as {@link #getBooks()}. */
+    public List<User> getUsers() { return users.values(); }
+
+    public int getUserCount() { return read(T_GET_USER_COUNT, users::size); }
+
+    public User getUserAt(int row) {
+        compactIfNeeded(users);
+        return read(T_GET_USER_AT, () -> users.values().get(row));
+    }
 
-    public void updateUser(User u) {
-        Optional<User> opt = users.stream().filter(x -> x.getId() == u.getId()).findFirst();
-        if (opt.isPresent()) {
-            User existing = opt.get();
+    /** Saves an edit made on a copy of the member, refused like {@link #updateBook} if it is stale. */
+    public void updateUser(User u) throws Exception {
+        String error = write(T_UPDATE_USER, () -> {
+            User existing = users.get(u.getId());
+            if (existing == null) return "Member not found";
+            if (existing.getVersion() != u.getVersion()) return "Member was changed by someone else; reload and try again";
+            String roll = null;
+            if (existing instanceof Student) {
+                roll = u instanceof Student ? ((Student) u).getRollNumber() : ((Student) existing).getRollNumber();
+            }
+            User edited = existing instanceof Student
+                    ? new Student(existing.getId(), u.getName(), u.getEmail(), u.getPhone(), roll)
+                    : new Librarian(existing.getId(), u.getName(), u.getEmail(), u.getPhone());
+            edited.setVersion(existing.getVersion() + 1);
+            Journal.Batch batch = new Journal.Batch().putUser(edited);
+            usersByName.remove(existing.getId());
             existing.setName(u.getName());
             existing.setEmail(u.getEmail());
             existing.setPhone(u.getPhone());
-            if (existing instanceof Student && u instanceof Student) {
-                ((Student) existing).setRollNumber(((Student) u).getRollNumber());
-            }
-            saveAll();
-        }
+            if (existing instanceof Student) ((Student) existing).setRollNumber(roll);
+            existing.setVersion(existing.getVersion() + 1);
+            indexUser(existing);
+            usersByName.add(existing.getId());
+            events.publish(LibraryEvent.Type.USER_UPDATED, existing.getId());
+            log(batch);
+            return null;
+        });
+        if (error != null) throw new Exception(error);
     }
 
     public void deleteUser(int userId) {
-        users.removeIf(u -> u.getId() == userId);
+        write(T_DELETE_USER, () -> {
+            Journal.Batch batch = new Journal.Batch().deleteUser(userId);
+            removeUser(userId);
+            log(batch);
+            return null;
+        });
+    }
+
+    private void removeUser(int userId) {
+        usersByName.remove(userId);
+        if (users.remove(userId) != null) events.publish(LibraryEvent.Type.USER_DELETED, userId);
+        userSearch.remove(userId);
         // remove issues for that user
-        issues.removeIf(r -> r.getUserId() == userId);
-        saveAll();
+        removeIssues(issues.forUser(userId));
     }
 
     public User findUserById(int id) {
-        return users.stream().filter(u -> u.getId() == id).findFirst().orElse(null);
+        return read(T_FIND_USER_BY_ID, () -> users.get(id));
+    }
+
+    /** Row of the member in {@link #getUsers()}, or -1. */
+    public int indexOfUser(int id) {
+        compactIfNeeded(users);
+        return read(T_INDEX_OF_USER, () -> users.indexOf(id));
     }
 
     // ---------- issue / return ----------
     public IssueRecord issueBook(int bookId, int userId, LocalDate issueDate, LocalDate dueDate) throws Exception {
-        Book b = findBookById(bookId);
-        if (b == null) throw new Exception("Book not found");
-        if (!b.isAvailable()) throw new Exception("No copies available");
-        b.issueOne();
-        IssueRecord rec = new IssueRecord(nextIssueId(), bookId, userId, issueDate, dueDate);
-        issues.add(rec);
-        saveAll();
-        return rec;
+        checkWritable();
+        long start = LibraryMetrics.start();
+        reloadGate.readLock().lock();
+        try {
+            long stamp = lock.writeLock();
+            try {
+                Book b = books.get(bookId);
+                if (b == null) throw new Exception("Book not found");
+                if (!users.containsKey(userId)) throw new Exception("Member not found");
+                // counted under the lock, so a putBook journaled by another desk never holds a copy
+                // whose loan is not journaled with it
+                int available = b.getAvailableCopies();
+                if (available <= 0) throw new Exception("No copies available");
+                IssueRecord rec = new IssueRecord(nextIssueId(), bookId, userId, issueDate, dueDate);
+                Journal.Batch batch = new Journal.Batch().putBook(b, available - 1).putIssue(rec);
+                b.issueOne();
+                putIssue(rec);
+                facets.refreshAvailable(b);
+                events.publish(LibraryEvent.Type.COPIES_CHANGED, bookId);
+                log(batch);
+                return rec;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        } finally {
+            reloadGate.readLock().unlock();
+            T_ISSUE_BOOK.stop(start);
+        }
     }
 
     public void returnBook(int issueId, LocalDate returnDate) throws Exception {
-        IssueRecord rec = issues.stream().filter(r -> r.getId() == issueId).findFirst().orElse(null);
-        if (rec == null) throw new Exception("Issue record not found");
-        if (rec.isReturned()) throw new Exception("Already returned");
-        rec.setReturnDate(returnDate);
-        Book b = findBookById(rec.getBookId());
-        if (b != null) b.returnOne();
-        saveAll();
+        checkWritable();
+        long start = LibraryMetrics.start();
+        reloadGate.readLock().lock();
+        try {
+            long stamp = lock.writeLock();
+            try {
+                IssueRecord rec = issues.get(issueId);
+                if (rec == null) throw new Exception("Issue record not found");
+                if (rec.isReturned()) throw new Exception("Already returned");
+                Book b = books.get(rec.getBookId());
+                Journal.Batch batch = new Journal.Batch().putIssue(returned(rec, returnDate));
+                if (b != null) batch.putBook(b, Math.min(b.getTotalCopies(), b.getAvailableCopies() + 1));
+                markReturned(rec, returnDate);
+                deactivate(rec);
+                if (b != null) {
+                    b.returnOne();
+                    facets.refreshAvailable(b);
+                    events.publish(LibraryEvent.Type.COPIES_CHANGED, b.getId());
+                }
+                log(batch);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        } finally {
+            reloadGate.readLock().unlock();
+            T_RETURN_BOOK.stop(start);
+        }
+    }
+
+    /** One checkout of a batch. */
+    public static final class Checkout {
+        public final int bookId;
+        public final int userId;
+
+        public Checkout(int bookId, int userId) {
+            this.bookId = bookId;
+            this.userId = userId;
+        }
+    }
+
+    /** Per-item outcome of a batch: the issue record on success, else the reason it was refused. */
+    public static final class Outcome {
+        public final IssueRecord record;
+        public final String error;
+
+        Outcome(IssueRecord record, String error) {
+            this.record = record;
+            this.error = error;
+        }
+
+        public boolean isOk() { return error == null; }
+    }
+
+    private static final String NOT_APPLIED = "Not applied: another item in the batch failed";
+
+    /**
+     * Issues a stack of books in one go. Every item is checked first (book and
+     * member exist, a copy is left, taking earlier items of the batch into
+     * account), then the valid ones are applied under one lock hold and
+     * written as a single journal record. With {@code atomic}, one invalid
+     * item refuses the whole batch. Outcomes are in the order of
+     * {@code checkouts}.
+     */
+    public List<Outcome> issueBooks(List<Checkout> checkouts, LocalDate issueDate, LocalDate dueDate, boolean atomic) {
+        return write(T_ISSUE_BOOKS, () -> {
+            String[] errors = new String[checkouts.size()];
+            // copies each book will have left, counting earlier items of the batch
+            IntMap<int[]> left = new IntMap<>();
+            boolean failed = false;
+            for (int i = 0; i < checkouts.size(); i++) {
+                Checkout c = checkouts.get(i);
+                Book b = books.get(c.bookId);
+                int[] copies = b == null ? null : left.get(c.bookId);
+                if (b != null && copies == null) left.put(c.bookId, copies = new int[]{b.getAvailableCopies()});
+                if (b == null) errors[i] = "Book not found";
+                else if (!users.containsKey(c.userId)) errors[i] = "Member not found";
+                else if (copies[0] <= 0) errors[i] = "No copies available";
+                else copies[0]--;
+                failed |= errors[i] != null;
+            }
+            List<Outcome> out = new ArrayList<>(checkouts.size());
+            if (atomic && failed) {
+                for (String e : errors) out.add(new Outcome(null, e != null ? e : NOT_APPLIED));
+                return out;
+            }
+            Journal.Batch batch = new Journal.Batch();
+            IssueRecord[] recs = new IssueRecord[checkouts.size()];
+            IntMap<Book> touched = new IntMap<>();
+            for (int i = 0; i < checkouts.size(); i++) {
+                if (errors[i] != null) continue;
+                Checkout c = checkouts.get(i);
+                recs[i] = new IssueRecord(nextIssueId(), c.bookId, c.userId, issueDate, dueDate);
+                batch.putIssue(recs[i]);
+                touched.put(c.bookId, books.get(c.bookId));
+            }
+            // copy counts are written and re-indexed once per book, after all claims
+            for (Book b : touched.values()) batch.putBook(b, left.get(b.getId())[0]);
+            for (int i = 0; i < checkouts.size(); i++) {
+                if (errors[i] != null) {
+                    out.add(new Outcome(null, errors[i]));
+                    continue;
+                }
+                touched.get(recs[i].getBookId()).issueOne();
+                putIssue(recs[i]);
+                out.add(new Outcome(recs[i], null));
+            }
+            for (Book b : touched.values()) {
+                facets.refreshAvailable(b);
+                events.publish(LibraryEvent.Type.COPIES_CHANGED, b.getId());
+            }
+            if (!batch.isEmpty()) log(batch);
+            return out;
+        });
+    }
+
+    /**
+     * Returns a stack of issues with one journal record, like
+     * {@link #issueBooks}: unknown, already returned or repeated ids are
+     * refused per item, or refuse the whole batch with {@code atomic}.
+     */
+    public List<Outcome> returnBooks(List<Integer> issueIds, LocalDate returnDate, boolean atomic) {
+        return write(T_RETURN_BOOKS, () -> {
+            String[] errors = new String[issueIds.size()];
+            IntMap<IssueRecord> seen = new IntMap<>();
+            boolean failed = false;
+            for (int i = 0; i < issueIds.size(); i++) {
+                int id = issueIds.get(i);
+                IssueRecord rec = issues.get(id);
+                if (rec == null) errors[i] = "Issue record not found";
+                else if (rec.isReturned()) errors[i] = "Already returned";
+                else if (seen.containsKey(id)) errors[i] = "Listed twice";
+                else seen.put(id, rec);
+                failed |= errors[i] != null;
+            }
+            List<Outcome> out = new ArrayList<>(issueIds.size());
+            if (atomic && failed) {
+                for (String e : errors) out.add(new Outcome(null, e != null ? e : NOT_APPLIED));
+                return out;
+            }
+            Journal.Batch batch = new Journal.Batch();
+            IntMap<Book> touched = new IntMap<>();
+            // copies each book will have on the shelf once the batch is back
+            IntMap<int[]> shelved = new IntMap<>();
+            for (int i = 0; i < issueIds.size(); i++) {
+                if (errors[i] != null) continue;
+                IssueRecord rec = issues.get(issueIds.get(i));
+                batch.putIssue(returned(rec, returnDate));
+                Book b = books.get(rec.getBookId());
+                if (b == null) continue;
+                int[] copies = shelved.get(b.getId());
+                if (copies == null) {
+                    shelved.put(b.getId(), copies = new int[]{b.getAvailableCopies()});
+                    touched.put(b.getId(), b);
+                }
+                copies[0] = Math.min(b.getTotalCopies(), copies[0] + 1);
+            }
+            for (Book b : touched.values()) batch.putBook(b, shelved.get(b.getId())[0]);
+            for (int i = 0; i < issueIds.size(); i++) {
+                if (errors[i] != null) {
+                    out.add(new Outcome(null, errors[i]));
+                    continue;
+                }
+                IssueRecord rec = issues.get(issueIds.get(i));
+                markReturned(rec, returnDate);
+                deactivate(rec);
+                Book b = books.get(rec.getBookId());
+                if (b != null) b.returnOne();
+                out.add(new Outcome(rec, null));
+            }
+            for (Book b : touched.values()) {
+                facets.refreshAvailable(b);
+                events.publish(LibraryEvent.Type.COPIES_CHANGED, b.getId());
+            }
+            if (!batch.isEmpty()) log(batch);
+            return out;
+        });
+    }
+
+    /** {@code rec} as it will be once returned on {@code returnDate}, for the journal. */
+    private static IssueRecord returned(IssueRecord rec, LocalDate returnDate) {
+        IssueRecord r = new IssueRecord(rec.getId(), rec.getBookId(), rec.getUserId(), rec.getIssueDate(),
+                rec.getDueDate());
+        r.setReturnDate(returnDate);
+        return r;
+    }
+
+    /** Read-only live view in insertion order; same caveats as {@link #getBooks()}. */
+    public List<IssueRecord> getIssues() { return issues.values(); }
+
+    public int getIssueCount() { return read(T_GET_ISSUE_COUNT, issues::size); }
+
+    public IssueRecord getIssueAt(int row) {
+        compactIfNeeded();
+        return read(T_GET_ISSUE_AT, () -> issues.values().get(row));
+    }
+
+    public IssueRecord findIssueById(int id) { return read(T_FIND_ISSUE_BY_ID, () -> issues.get(id)); }
+
+    /** Row of the issue in {@link #getIssues()}, or -1. */
+    public int indexOfIssue(int id) {
+        compactIfNeeded();
+        return read(T_INDEX_OF_ISSUE, () -> issues.indexOf(id));
     }
 
-    public List<IssueRecord> getIssues() { return issues; }
     public List<IssueRecord> getActiveIssues() {
-        List<IssueRecord> out = new ArrayList<>();
-        for (IssueRecord r : issues) if (!r.isReturned()) out.add(r);
+        return read(T_GET_ACTIVE_ISSUES, () -> issues.active());
+    }
+
+    public int getActiveIssueCount() { return read(T_GET_ACTIVE_ISSUE_COUNT, () -> issues.activeCount()); }
+
+    /** All issues (returned or not) of a member, oldest first. */
+    public List<IssueRecord> getIssuesForUser(int userId) {
+        return read(T_GET_ISSUES_FOR_USER, () -> issues.forUser(userId));
+    }
+
+    /** Books a member currently holds. */
+    public List<IssueRecord> getActiveIssuesForUser(int userId) {
+        return read(T_GET_ACTIVE_ISSUES_FOR_USER, () -> dueIndex.forUser(userId));
+    }
+
+    // ---------- paged queries ----------
+    // matches in under 1/256 of the catalog are sorted instead of walking an index for them
+    private static final int SORT_MATCHES_BELOW = 256;
+
+    private static final SortedIds.Order<Integer> ID_ORDER =
+            new SortedIds.Order<>(id -> id, Comparator.naturalOrder(), Integer::valueOf);
+
+    private final SortedIds.Order<Integer> dueOrder = new SortedIds.Order<>(id -> {
+        IssueRecord r = issues.get(id);
+        return r == null ? null : r.getDueDay();
+    }, Comparator.naturalOrder(), Integer::valueOf);
+
+    /**
+     * A page of books. Title and author order come from the sort indexes and
+     * id order from the catalog itself, so a page is read off an index
+     * without sorting anything. Author, category and availability filters
+     * are one intersection of the facet bitmaps, which gives the total; the
+     * walk then stops at the end of the page. With search text only the hits
+     * are sorted. The first query by title or by author builds that index.
+     * A book being checked out can still count as available for the moment
+     * between claiming its last copy and recording the loan.
+     */
+    public Page<Book> queryBooks(Query.Books q) {
+        SortedIds<String> index = q.sort == Query.Books.Sort.TITLE ? booksByTitle
+                : q.sort == Query.Books.Sort.AUTHOR ? booksByAuthor : null;
+        while (true) {
+            if (q.text == null && index != null) buildIfNeeded(index);
+            else if (q.text == null) compactIfNeeded(books);
+            Page<Book> page = underReadLock(T_QUERY_BOOKS, () -> {
+                IdBitmap match = facets.matching(q.author, q.category, q.availableOnly);
+                if (q.text != null) {
+                    SortedIds.Order<?> order = index == null ? ID_ORDER : index.order();
+                    int[] hits = bookSearch.search(q.text, Integer.MAX_VALUE);
+                    if (match != null) {
+                        int n = 0;
+                        for (int id : hits) if (match.contains(id)) hits[n++] = id;
+                        hits = Arrays.copyOf(hits, n);
+                    }
+                    return pageOf(q, order, hits, null, books::get);
+                }
+                if (index == null) {
+                    if (match != null) return pageOf(q, ID_ORDER, match.toArray(), null, books::get);
+                    IntUnaryOperator idAt = pos -> books.values().get(pos).getId();
+                    return page(q, ID_ORDER, books.size(), idAt, idAt::applyAsInt, null, -1, books::get);
+                }
+                // a reload in between drops the indexes; build it again
+                if (!index.isBuilt()) return null;
+                // a few matches are cheaper to sort than to look for along the index
+                if (match != null && match.cardinality() <= index.size() / SORT_MATCHES_BELOW) {
+                    return pageOf(q, index.order(), match.toArray(), null, books::get);
+                }
+                return page(q, index.order(), index.size(), index::idAt, index::keyAt,
+                        match == null ? null : match::contains, match == null ? -1 : match.cardinality(), books::get);
+            });
+            if (page != null) return page;
+        }
+    }
+
+    /** A page of members, like {@link #queryBooks}: name order comes from a sort index. */
+    public Page<User> queryUsers(Query.Members q) {
+        IntPredicate filter = q.type == null ? null : id -> q.type.isInstance(users.get(id));
+        boolean byName = q.sort == Query.Members.Sort.NAME;
+        while (true) {
+            if (q.text == null && byName) buildIfNeeded(usersByName);
+            else if (q.text == null) compactIfNeeded(users);
+            Page<User> page = underReadLock(T_QUERY_USERS, () -> {
+                if (q.text != null) {
+                    SortedIds.Order<?> order = byName ? usersByName.order() : ID_ORDER;
+                    return pageOf(q, order, userSearch.search(q.text, Integer.MAX_VALUE), filter, users::get);
+                }
+                if (!byName) {
+                    IntUnaryOperator idAt = pos -> users.values().get(pos).getId();
+                    return page(q, ID_ORDER, users.size(), idAt, idAt::applyAsInt, filter, -1, users::get);
+                }
+                if (!usersByName.isBuilt()) return null;
+                return page(q, usersByName.order(), usersByName.size(), usersByName::idAt, usersByName::keyAt,
+                        filter, -1, users::get);
+            });
+            if (page != null) return page;
+        }
+    }
+
+    /** Builds a sort index from the catalog or the member list, under the write lock, unless it is built. */
+    private void buildIfNeeded(SortedIds<String> index) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0 && index.isBuilt() && lock.validate(stamp)) return;
+        stamp = lock.writeLock();
+        try {
+            if (index.isBuilt()) return;
+            boolean members = index == usersByName;
+            int[] ids = new int[members ? users.size() : books.size()];
+            int n = 0;
+            if (members) for (User u : users.values()) ids[n++] = u.getId();
+            else for (Book b : books.values()) ids[n++] = b.getId();
+            index.rebuild(ids, n);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * A page of loans of the working set. A member's or a book's loans come
+     * off its chain and unreturned or overdue ones off the active indexes,
+     * and only those are sorted. Unfiltered, id order is the store's own;
+     * due-date order over the whole working set is sorted per query, from
+     * the due-day column.
+     */
+    public Page<IssueRecord> queryIssues(Query.Loans q) {
+        boolean whole = q.userId == 0 && q.bookId == 0 && !q.activeOnly && q.overdueAsOf == null;
+        if (whole && q.sort == Query.Loans.Sort.ID) compactIfNeeded();
+        return underReadLock(T_QUERY_ISSUES, () -> {
+            SortedIds.Order<Integer> order = q.sort == Query.Loans.Sort.DUE ? dueOrder : ID_ORDER;
+            if (whole) {
+                if (order == ID_ORDER) {
+                    IntUnaryOperator idAt = issues::idAt;
+                    return page(q, order, issues.size(), idAt, idAt::applyAsInt, null, -1, issues::get);
+                }
+                return pageOf(q, order, issues.idsByDueDay(), null, issues::get);
+            }
+            List<IssueRecord> candidates = q.userId != 0 ? issues.forUser(q.userId)
+                    : q.bookId != 0 ? issues.forBook(q.bookId)
+                    : q.overdueAsOf != null ? dueIndex.overdue(q.overdueAsOf) : issues.active();
+            long overdueBefore = q.overdueAsOf == null ? 0 : q.overdueAsOf.toEpochDay();
+            int[] ids = new int[candidates.size()];
+            int n = 0;
+            for (IssueRecord r : candidates) {
+                if ((q.userId == 0 || r.getUserId() == q.userId)
+                        && (q.bookId == 0 || r.getBookId() == q.bookId)
+                        && (!q.activeOnly || !r.isReturned())
+                        && (q.overdueAsOf == null || !r.isReturned() && r.getDueDay() != IssueRecord.NO_DATE
+                                && r.getDueDay() < overdueBefore)) ids[n++] = r.getId();
+            }
+            return pageOf(q, order, Arrays.copyOf(ids, n), null, issues::get);
+        });
+    }
+
+    /** {@link #page} over a set of ids that is sorted first. */
+    private static <K, T> Page<T> pageOf(Query<?> q, SortedIds.Order<K> order, int[] ids, IntPredicate filter,
+                                         IntFunction<T> record) {
+        if (order == ID_ORDER) Arrays.sort(ids);
+        else order.sort(ids);
+        return page(q, order, ids.length, pos -> ids[pos], pos -> order.keyOf.apply(ids[pos]), filter, -1, record);
+    }
+
+    /**
+     * One page of the records at positions 0..size-1 of an order, which
+     * {@code idAt} and {@code keyAt} describe: skips to the cursor (found by
+     * binary search) or the offset, then takes up to the limit. With a filter
+     * the positions before the page are visited to count what is skipped, and
+     * the rest too unless the number of {@code matches} is known (-1 if not);
+     * without one the total is {@code size} and only the page is visited.
+     */
+    private static <K, T> Page<T> page(Query<?> q, SortedIds.Order<K> order, int size, IntUnaryOperator idAt,
+                                       IntFunction<K> keyAt, IntPredicate filter, int matches,
+                                       IntFunction<T> record) {
+        int step = q.descending ? -1 : 1;
+        // with a cursor: the first position of the walk
+        int first = 0;
+        if (q.after != null) {
+            K key = order.parse.apply(q.afterKey());
+            int id = q.afterId();
+            first = order.after(size, idAt, keyAt, key, id);
+            if (q.descending) {
+                first--;
+                if (first >= 0 && order.compare(keyAt.apply(first), idAt.applyAsInt(first), key, id) == 0) first--;
+            }
+        }
+        List<T> rows = new ArrayList<>(Math.min(q.limit, size));
+        int total = 0;
+        int skipped = 0;
+        int last = -1;
+        if (filter == null) {
+            total = size;
+            skipped = q.after == null ? Math.min(q.offset, size) : q.descending ? size - 1 - first : first;
+            int pos = q.descending ? size - 1 - skipped : skipped;
+            for (; pos >= 0 && pos < size && rows.size() < q.limit; pos += step) {
+                rows.add(record.apply(idAt.applyAsInt(pos)));
+                last = pos;
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                int pos = q.descending ? size - 1 - i : i;
+                int id = idAt.applyAsInt(pos);
+                if (!filter.test(id)) continue;
+                total++;
+                boolean before = q.after == null ? skipped < q.offset : q.descending ? pos > first : pos < first;
+                if (before) {
+                    skipped++;
+                } else if (rows.size() < q.limit) {
+                    rows.add(record.apply(id));
+                    last = pos;
+                } else if (matches >= 0) {
+                    break;
+                }
+            }
+            if (matches >= 0) total = matches;
+        }
+        String next = last >= 0 && skipped + rows.size() < total ? idAt.applyAsInt(last) + ":" + keyAt.apply(last) : null;
+        return new Page<>(rows, total, skipped, next);
+    }
+
+    // ---------- circulation analytics ----------
+    // The running counters cover the working set: loans archived by a
+    // checkpoint leave them, so their figures cover roughly the last
+    // archive-after days once archiving has run. Whole-history reports use
+    // snapshotLoans(true).
+
+    /** The {@code k} most borrowed books in the working set, from the running counters. */
+    public List<CirculationStats.Count> getMostBorrowedBooks(int k) {
+        return underReadLock(T_GET_MOST_BORROWED_BOOKS, () -> stats.mostBorrowed(k));
+    }
+
+    /** The {@code k} members with the most loans in the working set, from the running counters. */
+    public List<CirculationStats.Count> getBusiestMembers(int k) {
+        return underReadLock(T_GET_BUSIEST_MEMBERS, () -> stats.busiestMembers(k));
+    }
+
+    /** Loans in the working set per category (the book's current one) per month of issue. */
+    public Map<String, Map<YearMonth, Long>> getLoansByCategoryMonth() {
+        return underReadLock(T_GET_LOANS_BY_CATEGORY_MONTH, stats::loansByCategoryMonth);
+    }
+
+    /** Mean days between issue and return over the returned loans in the working set. */
+    public double getAverageLoanDays() {
+        return underReadLock(T_GET_AVERAGE_LOAN_DAYS, stats::getAverageLoanDays);
+    }
+
+    /**
+     * Copies the working set of the loan history into a {@link LoanSnapshot}
+     * for ad-hoc reports. Holds the read lock only while copying; the reports
+     * run lock-free.
+     */
+    public LoanSnapshot snapshotLoans() {
+        return underReadLock(T_SNAPSHOT_LOANS, () -> new LoanSnapshot(issues, books));
+    }
+
+    /**
+     * Like {@link #snapshotLoans()}, optionally with the archived loans too,
+     * for reports over the whole history. The archive is read from disk
+     * first, without the index lock.
+     */
+    public LoanSnapshot snapshotLoans(boolean withArchive) {
+        if (!withArchive) return snapshotLoans();
+        // no checkpoint may move loans between the tiers while both are read
+        synchronized (checkpointer) {
+            LoanSnapshot.Rows archived = new LoanSnapshot.Rows();
+            try {
+                archive.forEach(archived::add);
+            } catch (IOException e) {
+                System.err.println("Failed to read the loan archive: " + e.getMessage());
+            }
+            return underReadLock(T_SNAPSHOT_LOANS, () -> {
+                // deletes not folded by a checkpoint yet still have loans in the archive
+                archived.dropDeleted(books, users);
+                return new LoanSnapshot(issues, archived, books);
+            });
+        }
+    }
+
+    // ---------- archive ----------
+    public int getArchiveAfterDays() { return checkpointer.getArchiveAfterDays(); }
+
+    /** Age in days after which returned loans are archived; 0 keeps every loan in memory. */
+    public void setArchiveAfterDays(int days) { checkpointer.setArchiveAfterDays(days); }
+
+    /** Every loan of a member, archived or not, oldest first. Reads the archive. */
+    public List<IssueRecord> getIssueHistoryForUser(int userId) {
+        long start = LibraryMetrics.start();
+        try {
+            synchronized (checkpointer) {
+                List<IssueRecord> live = getIssuesForUser(userId);
+                List<IssueRecord> out = new ArrayList<>();
+                // a deleted member has no loans; the archive keeps them until the next checkpoint
+                if (findUserById(userId) == null) return out;
+                try {
+                    for (IssueRecord r : archive.forUser(userId)) {
+                        // after a crash a loan can be in both tiers; the working set wins
+                        if (findIssueById(r.getId()) == null && findBookById(r.getBookId()) != null) out.add(r);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Failed to read the loan archive: " + e.getMessage());
+                }
+                out.addAll(live);
+                out.sort(Comparator.comparingInt(IssueRecord::getId));
+                return out;
+            }
+        } finally {
+            T_GET_ISSUE_HISTORY_FOR_USER.stop(start);
+        }
+    }
+
+    /** Archived loans returned from {@code from} through {@code to}, for audits. Reads the archive. */
+    public List<IssueRecord> getArchivedIssues(LocalDate from, LocalDate to) {
+        long start = LibraryMetrics.start();
+        try {
+            List<IssueRecord> out = archive.returnedBetween(from, to);
+            // deletes not folded by a checkpoint yet
+            out.removeIf(r -> findBookById(r.getBookId()) == null || findUserById(r.getUserId()) == null);
+            return out;
+        } catch (IOException e) {
+            System.err.println("Failed to read the loan archive: " + e.getMessage());
+            return new ArrayList<>();
+        } finally {
+            T_GET_ARCHIVED_ISSUES.stop(start);
+        }
+    }
+
+    /**
+     * Drops loans a checkpoint has just archived from the working set, a
+     * chunk per lock hold so desks are not stalled by a large first archive.
+     * A loan that changed since is kept.
+     */
+    private void evictArchived(int[] ids) {
+        for (int from = 0; from < ids.length; from += EVICT_CHUNK) {
+            int to = Math.min(ids.length, from + EVICT_CHUNK);
+            int first = from;
+            apply(T_EVICT_ARCHIVED, () -> {
+                for (int i = first; i < to; i++) {
+                    IssueRecord r = issues.get(ids[i]);
+                    if (r == null || !r.isReturned()) continue;
+                    issues.remove(r.getId());
+                    stats.remove(r);
+                    events.publish(LibraryEvent.Type.ISSUE_REMOVED, r.getId());
+                }
+                return null;
+            });
+        }
+        compactIfNeeded();
+    }
+
+    // ---------- overdue tracking ----------
+    /** Unreturned issues due before {@code asOf}, earliest due first. */
+    public List<IssueRecord> getOverdueIssues(LocalDate asOf) {
+        // day buckets live in a TreeMap
+        return underReadLock(T_GET_OVERDUE_ISSUES, () -> dueIndex.overdue(asOf));
+    }
+
+    /** Unreturned issues due from {@code from} through {@code days} days later, earliest due first. */
+    public List<IssueRecord> getIssuesDueWithin(LocalDate from, int days) {
+        return underReadLock(T_GET_ISSUES_DUE_WITHIN, () -> dueIndex.dueBetween(from, from.plusDays(days)));
+    }
+
+    public long getFinePerDay() { return finePerDay; }
+    public void setFinePerDay(long finePerDay) { this.finePerDay = finePerDay; }
+
+    /** Fine a member owes on their overdue loans as of {@code asOf}. */
+    public long getFine(int userId, LocalDate asOf) {
+        long total = 0;
+        for (IssueRecord r : getActiveIssuesForUser(userId)) total += fineOf(r, asOf);
+        return total;
+    }
+
+    /** Fine totals of every member with an overdue loan as of {@code asOf}, by member id. */
+    public Map<Integer, Long> getFines(LocalDate asOf) {
+        Map<Integer, Long> out = new TreeMap<>();
+        for (IssueRecord r : getOverdueIssues(asOf)) out.merge(r.getUserId(), fineOf(r, asOf), Long::sum);
         return out;
     }
+
+    private long fineOf(IssueRecord r, LocalDate asOf) {
+        if (r.getDueDate() == null || !r.getDueDate().isBefore(asOf)) return 0;
+        return (asOf.toEpochDay() - r.getDueDate().toEpochDay()) * finePerDay;
+    }
+
+    public List<IssueRecord> getIssuesForBook(int bookId) {
+        return read(T_GET_ISSUES_FOR_BOOK, () -> issues.forBook(bookId));
+    }
+
+    // ---------- issue indexes ----------
+    /** Inserts or replaces an issue and keeps the secondary indexes in step. */
+    private void putIssue(IssueRecord rec) {
+        IssueRecord old = issues.put(rec);
+        events.publish(old != null && rec.isReturned() && !old.isReturned() ? LibraryEvent.Type.ISSUE_RETURNED
+                : LibraryEvent.Type.ISSUE_CREATED, rec.getId());
+        advance(issueSeq, rec.getId());
+        if (old != null) stats.remove(old);
+        stats.add(rec, categoryOf(rec.getBookId()));
+        if (old != null) deactivate(old);
+        if (!rec.isReturned()) dueIndex.add(rec);
+    }
+
+    private void removeIssues(List<IssueRecord> loans) {
+        for (IssueRecord r : loans) {
+            issues.remove(r.getId());
+            deactivate(r);
+            stats.remove(r);
+            events.publish(LibraryEvent.Type.ISSUE_REMOVED, r.getId());
+        }
+    }
+
+    /** Sets the return date on the store and on {@code rec}, re-counting the loan in the circulation stats. */
+    private void markReturned(IssueRecord rec, LocalDate returnDate) {
+        stats.remove(rec);
+        rec.setReturnDate(returnDate);
+        issues.setReturnDay(rec.getId(), rec.getReturnDay());
+        events.publish(LibraryEvent.Type.ISSUE_RETURNED, rec.getId());
+        stats.add(rec, categoryOf(rec.getBookId()));
+    }
+
+    private String categoryOf(int bookId) {
+        Book b = books.get(bookId);
+        return b == null ? null : b.getCategory();
+    }
+
+    private void deactivate(IssueRecord rec) {
+        dueIndex.remove(rec);
+    }
 }
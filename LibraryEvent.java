@@ -0,0 +1,57 @@
+/**
+ * One change to the Library's records, as delivered to a
+ * {@link LibraryEvents.Listener}. Events name the record, not its new
+ * state: a listener reads what it needs back from the Library.
+ */
+public final class LibraryEvent {
+    public enum Type {
+        BOOK_ADDED, BOOK_UPDATED, BOOK_DELETED,
+        /** A copy of the book was issued or returned; nothing else about it changed. */
+        COPIES_CHANGED,
+        USER_ADDED, USER_UPDATED, USER_DELETED,
+        ISSUE_CREATED, ISSUE_RETURNED,
+        /** The loan left the working set: deleted with its book or member, or archived. */
+        ISSUE_REMOVED,
+        /** Everything may have changed (the data was loaded again); the id is 0. */
+        RELOADED;
+
+        /** The kind of record the event is about; events coalesce per record. */
+        int entity() {
+            switch (this) {
+                case BOOK_ADDED: case BOOK_UPDATED: case BOOK_DELETED: case COPIES_CHANGED: return 1;
+                case USER_ADDED: case USER_UPDATED: case USER_DELETED: return 2;
+                case ISSUE_CREATED: case ISSUE_RETURNED: case ISSUE_REMOVED: return 3;
+                default: return 0;
+            }
+        }
+
+        boolean creates() { return this == BOOK_ADDED || this == USER_ADDED || this == ISSUE_CREATED; }
+
+        boolean removes() { return this == BOOK_DELETED || this == USER_DELETED || this == ISSUE_REMOVED; }
+    }
+
+    public final Type type;
+    public final int id;
+
+    public LibraryEvent(Type type, int id) {
+        this.type = type;
+        this.id = id;
+    }
+
+    /**
+     * What {@code earlier} then {@code later} on one record amount to, or
+     * null if nothing: a record created and removed again was never seen. A
+     * creation absorbs later changes, and an edit absorbs copy changes.
+     */
+    static Type merge(Type earlier, Type later) {
+        if (later.removes()) return earlier.creates() ? null : later;
+        if (earlier.creates()) return earlier;
+        if (earlier == Type.BOOK_UPDATED && later == Type.COPIES_CHANGED) return earlier;
+        return later;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + id;
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers {@link LibraryEvent}s to listeners on a background thread, so
+ * the Library only records them while it holds its lock.
+ *
+ * Events wait in a queue with at most one entry per record: a later event
+ * on the same record is merged into the queued one ({@link LibraryEvent#merge}),
+ * and a {@link LibraryEvent.Type#RELOADED} replaces the whole queue and
+ * makes later events redundant until it is delivered. A queue grown past
+ * {@value #MAX_PENDING} records (a large import or archive) turns into a
+ * RELOADED too. The thread hands each listener everything queued since its
+ * last round, in the order the records first changed, so a burst (a batch
+ * checkout, a stream of desk edits) arrives as one list however slow the
+ * listener is.
+ */
+public class LibraryEvents implements AutoCloseable {
+    /** Called on the delivery thread; GUI listeners must hop to the EDT themselves. */
+    public interface Listener {
+        void changed(List<LibraryEvent> events);
+    }
+
+    static final int MAX_PENDING = 100_000;
+    private static final long RELOADED_KEY = 0;
+
+    private final Object lock = new Object();
+    // record (entity << 32 | id) -> queued event type
+    private Map<Long, LibraryEvent.Type> pending = new LinkedHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private boolean muted;
+    private boolean delivering;
+    private boolean closed;
+
+    public LibraryEvents() {
+        thread = new Thread(this::run, "library-events");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void addListener(Listener l) { listeners.add(l); }
+    public void removeListener(Listener l) { listeners.remove(l); }
+
+    /** Queues an event; dropped while muted or when nobody listens. */
+    public void publish(LibraryEvent.Type type, int id) {
+        if (listeners.isEmpty()) return;
+        synchronized (lock) {
+            if (muted || closed || pending.containsKey(RELOADED_KEY)) return;
+            if (type == LibraryEvent.Type.RELOADED || pending.size() == MAX_PENDING) {
+                pending.clear();
+                pending.put(RELOADED_KEY, LibraryEvent.Type.RELOADED);
+                lock.notifyAll();
+                return;
+            }
+            long key = (long) type.entity() << 32 | (id & 0xffffffffL);
+            LibraryEvent.Type queued = pending.get(key);
+            LibraryEvent.Type merged = queued == null ? type : LibraryEvent.merge(queued, type);
+            if (merged == null) pending.remove(key);
+            else pending.put(key, merged);
+            lock.notifyAll();
+        }
+    }
+
+    /** While muted (a reload replaying every record), events are dropped. */
+    public void setMuted(boolean muted) {
+        synchronized (lock) {
+            this.muted = muted;
+        }
+    }
+
+    /** Waits until every event queued so far has been handed to the listeners. */
+    public void flush() {
+        synchronized (lock) {
+            boolean interrupted = false;
+            while ((!pending.isEmpty() || delivering) && !closed) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Delivers what is queued, then stops the thread. */
+    @Override
+    public void close() {
+        flush();
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<LibraryEvent> batch = new ArrayList<>();
+            synchronized (lock) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) return;
+                for (Map.Entry<Long, LibraryEvent.Type> e : pending.entrySet()) {
+                    batch.add(new LibraryEvent(e.getValue(), (int) (long) e.getKey()));
+                }
+                batch = Collections.unmodifiableList(batch);
+                pending = new LinkedHashMap<>();
+                delivering = true;
+            }
+            for (Listener l : listeners) {
+                try {
+                    l.changed(batch);
+                } catch (RuntimeException e) {
+                    System.err.println("Change listener failed: " + e);
+                }
+            }
+            synchronized (lock) {
+                delivering = false;
+                lock.notifyAll();
+            }
+        }
+    }
+}
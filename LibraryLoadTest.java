@@ -0,0 +1,132 @@
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop load generator for {@link LibraryServer}. Each simulated
+ * client sends its next request as soon as the previous one is answered,
+ * so throughput is limited by the server rather than by an arrival rate.
+ * By default every request is a catalog search with words from
+ * {@link SyntheticData}; a share of the clients can be made to check a book
+ * out and return it instead.
+ *
+ * Usage: java LibraryLoadTest [base-url] [clients] [seconds] [checkout-percent]
+ *
+ * Point it at a server on a synthetic catalog, whose queries match:
+ *   java SyntheticData data 100000 && java LibraryServer 8080 data
+ * The first fifth of the run is warmup and is not counted.
+ */
+public class LibraryLoadTest {
+    public static void main(String[] args) throws Exception {
+        String base = args.length > 0 ? args[0] : "http://localhost:" + LibraryServer.DEFAULT_PORT;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int checkoutPercent = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        if (base.endsWith("/")) base = base.substring(0, base.length() - 1);
+
+        ExecutorService virtual = LibraryServer.virtualThreadExecutor();
+        ExecutorService pool = virtual != null ? virtual : Executors.newFixedThreadPool(clients);
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10)).build();
+        int[] counts = stats(http, base);
+        if (checkoutPercent > 0 && (counts[0] == 0 || counts[1] == 0)) {
+            System.err.println("Checkouts need books and members on the server");
+            System.exit(2);
+        }
+        String[] queries = SyntheticData.queries(4096, 11);
+        System.out.printf("%d clients for %d s against %s (%d books, %d members), %d%% checkouts, %s%n",
+                clients, seconds, base, counts[0], counts[1], checkoutPercent,
+                virtual != null ? "virtual threads" : "platform threads");
+
+        LibraryMetrics.Timer search = LibraryMetrics.timer("load.search");
+        LibraryMetrics.Timer checkout = LibraryMetrics.timer("load.checkout");
+        LongAdder errors = new LongAdder();
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds) / 5;
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        for (int c = 0; c < clients; c++) {
+            final int seed = c;
+            final String url = base;
+            pool.execute(() -> {
+                Random rnd = new Random(seed);
+                while (System.nanoTime() < end) {
+                    boolean write = rnd.nextInt(100) < checkoutPercent;
+                    long start = LibraryMetrics.start();
+                    try {
+                        if (write) checkoutAndReturn(http, url, 1 + rnd.nextInt(counts[0]), 1 + rnd.nextInt(counts[1]));
+                        else {
+                            String q = URLEncoder.encode(queries[rnd.nextInt(queries.length)], StandardCharsets.UTF_8);
+                            expect(http.send(get(url + "/books?q=" + q), HttpResponse.BodyHandlers.discarding()), 200);
+                        }
+                    } catch (Exception e) {
+                        errors.increment();
+                        continue;
+                    }
+                    if (start < warmupEnd) continue;
+                    (write ? checkout : search).stop(start);
+                }
+            });
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds) / 5);
+        errors.reset();
+        pool.shutdown();
+        pool.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+
+        double measured = seconds * 0.8;
+        report("search", search, measured);
+        if (checkoutPercent > 0) report("checkout+return", checkout, measured);
+        System.out.println("errors: " + errors.sum());
+    }
+
+    private static void report(String name, LibraryMetrics.Timer t, double seconds) {
+        System.out.printf("%-16s %9d req %10.0f req/s   p50 %7.2f ms  p90 %7.2f ms  p99 %7.2f ms  p99.9 %7.2f ms  max %7.2f ms%n",
+                name, t.getCount(), t.getCount() / seconds, t.getP50Micros() / 1000, t.getP90Micros() / 1000,
+                t.getP99Micros() / 1000, t.getP999Micros() / 1000, t.getMaxMicros() / 1000);
+    }
+
+    /** Issues a book and returns it again; "no copies" counts as a normal answer. */
+    private static void checkoutAndReturn(HttpClient http, String base, int bookId, int userId) throws Exception {
+        String body = "{\"bookId\":" + bookId + ",\"userId\":" + userId + "}";
+        HttpResponse<String> r = http.send(HttpRequest.newBuilder(URI.create(base + "/issues"))
+                .POST(HttpRequest.BodyPublishers.ofString(body)).timeout(Duration.ofSeconds(30)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (r.statusCode() == 409) return;
+        expect(r, 201);
+        String json = r.body();
+        int from = json.indexOf(':') + 1;
+        String issueId = json.substring(from, json.indexOf(',', from));
+        expect(http.send(HttpRequest.newBuilder(URI.create(base + "/issues/" + issueId + "/return"))
+                .POST(HttpRequest.BodyPublishers.noBody()).timeout(Duration.ofSeconds(30)).build(),
+                HttpResponse.BodyHandlers.discarding()), 200);
+    }
+
+    /** Book and member counts from /stats. */
+    private static int[] stats(HttpClient http, String base) throws Exception {
+        HttpResponse<String> r = http.send(get(base + "/stats"), HttpResponse.BodyHandlers.ofString());
+        expect(r, 200);
+        return new int[]{field(r.body(), "books"), field(r.body(), "members")};
+    }
+
+    private static int field(String json, String name) {
+        int from = json.indexOf("\"" + name + "\":") + name.length() + 3;
+        int to = from;
+        while (to < json.length() && Character.isDigit(json.charAt(to))) to++;
+        return Integer.parseInt(json.substring(from, to));
+    }
+
+    private static HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofSeconds(30)).build();
+    }
+
+    private static void expect(HttpResponse<?> r, int status) throws Exception {
+        if (r.statusCode() != status) throw new Exception("HTTP " + r.statusCode() + " from " + r.uri());
+    }
+}
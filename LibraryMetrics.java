@@ -0,0 +1,224 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Process-wide operation metrics, published as JMX MBeans under the
+ * {@code library} domain:
+ * - one {@code type=Operation} bean per timed operation, with a count,
+ *   mean, percentiles and max;
+ * - one {@code type=Library} bean per open data directory, with dataset
+ *   sizes and bytes written.
+ *
+ * Timing is on by default and cheap enough to leave on. {@link #start()} is
+ * one volatile read plus System.nanoTime(), and recording is a few
+ * uncontended atomic adds. When disabled (the JMX attribute MetricsEnabled,
+ * or {@code -Dlibrary.metrics=false}), start() returns 0 and nothing else
+ * runs. With {@code -Dlibrary.metrics.jfr=true} every timed operation is
+ * also emitted as a JFR event ({@code library.Operation}).
+ */
+public final class LibraryMetrics {
+    private static volatile boolean enabled = !"false".equals(System.getProperty("library.metrics"));
+    private static final boolean JFR = Boolean.getBoolean("library.metrics.jfr");
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    /** Bytes appended to journals (frame headers included). */
+    public static final LongAdder journalBytes = new LongAdder();
+    /** Bytes written to snapshot files. */
+    public static final LongAdder snapshotBytes = new LongAdder();
+
+    private LibraryMetrics() {}
+
+    public static boolean isEnabled() { return enabled; }
+    public static void setEnabled(boolean on) { enabled = on; }
+
+    /** Start timestamp for {@link Timer#stop}, or 0 when metrics are off. */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /** The timer for {@code name}, registered as an MBean on first use. */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, n -> {
+            Timer t = new Timer(n);
+            register("library:type=Operation,name=" + ObjectName.quote(n), t, TimerMBean.class);
+            return t;
+        });
+    }
+
+    // ---------- timers ----------
+    public interface TimerMBean {
+        long getCount();
+        double getMeanMicros();
+        double getP50Micros();
+        double getP90Micros();
+        double getP99Micros();
+        double getP999Micros();
+        double getMaxMicros();
+        void reset();
+    }
+
+    /**
+     * Call count and latency histogram of one operation. The histogram has
+     * log-linear buckets: 8 per power of two, so a percentile is within
+     * about 6% of the true value.
+     */
+    public static final class Timer implements TimerMBean {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int LINEAR = SUB * 2;
+        private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB;
+
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        Timer(String name) {
+            this.name = name;
+        }
+
+        public String getName() { return name; }
+
+        /** Records the time since {@code start} (from {@link LibraryMetrics#start()}); no-op for 0. */
+        public void stop(long start) {
+            if (start == 0) return;
+            record(System.nanoTime() - start);
+        }
+
+        void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            buckets.incrementAndGet(bucket(nanos));
+            if (JFR) OperationEvent.emit(name, nanos);
+        }
+
+        static int bucket(long v) {
+            if (v < LINEAR) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+            return LINEAR + (exp - SUB_BITS - 1) * SUB + sub;
+        }
+
+        /** Midpoint of the values that fall into bucket {@code i}. */
+        static double bucketValue(int i) {
+            if (i < LINEAR) return i;
+            int exp = (i - LINEAR) / SUB + SUB_BITS + 1;
+            int sub = (i - LINEAR) % SUB;
+            long low = (long) (SUB + sub) << (exp - SUB_BITS);
+            return low + ((1L << (exp - SUB_BITS)) - 1) / 2.0;
+        }
+
+        /** Latency at quantile {@code q} (0..1) in nanoseconds, 0 if nothing was recorded. */
+        public double percentileNanos(double q) {
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) n += buckets.get(i);
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(bucketValue(i), maxNanos.get());
+            }
+            return maxNanos.get();
+        }
+
+        @Override public long getCount() { return count.sum(); }
+        @Override public double getMeanMicros() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+        }
+        @Override public double getP50Micros() { return percentileNanos(0.50) / 1000; }
+        @Override public double getP90Micros() { return percentileNanos(0.90) / 1000; }
+        @Override public double getP99Micros() { return percentileNanos(0.99) / 1000; }
+        @Override public double getP999Micros() { return percentileNanos(0.999) / 1000; }
+        @Override public double getMaxMicros() { return maxNanos.get() / 1000.0; }
+
+        @Override
+        public void reset() {
+            count.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+            for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+        }
+    }
+
+    // ---------- dataset gauges ----------
+    public interface LibraryStatsMBean {
+        int getBooks();
+        int getUsers();
+        int getIssues();
+        int getActiveIssues();
+        long getJournalBytesWritten();
+        long getSnapshotBytesWritten();
+        boolean isMetricsEnabled();
+        void setMetricsEnabled(boolean on);
+    }
+
+    /** Registers the gauges of one Library; returns the name to unregister with, or null. */
+    static ObjectName registerLibrary(Library library, String dataDir) {
+        LibraryStatsMBean gauges = new LibraryStatsMBean() {
+            public int getBooks() { return library.getBookCount(); }
+            public int getUsers() { return library.getUserCount(); }
+            public int getIssues() { return library.getIssueCount(); }
+            public int getActiveIssues() { return library.getActiveIssueCount(); }
+            public long getJournalBytesWritten() { return journalBytes.sum(); }
+            public long getSnapshotBytesWritten() { return snapshotBytes.sum(); }
+            public boolean isMetricsEnabled() { return enabled; }
+            public void setMetricsEnabled(boolean on) { enabled = on; }
+        };
+        return register("library:type=Library,dir=" + ObjectName.quote(dataDir), gauges, LibraryStatsMBean.class);
+    }
+
+    static void unregister(ObjectName name) {
+        if (name == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (Exception e) {
+            // already gone
+        }
+    }
+
+    private static <T> ObjectName register(String name, T bean, Class<T> type) {
+        try {
+            ObjectName on = new ObjectName(name);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(on)) return null;
+            server.registerMBean(new StandardMBean(bean, type), on);
+            return on;
+        } catch (Exception e) {
+            System.err.println("Could not register MBean " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // ---------- JFR ----------
+    /** JFR event for one timed operation; only loaded when JFR output is switched on. */
+    @jdk.jfr.Name("library.Operation")
+    @jdk.jfr.Label("Library Operation")
+    @jdk.jfr.Category("Library")
+    static final class OperationEvent extends jdk.jfr.Event {
+        @jdk.jfr.Label("Operation")
+        String operation;
+        @jdk.jfr.Label("Duration")
+        @jdk.jfr.Timespan(jdk.jfr.Timespan.NANOSECONDS)
+        long nanos;
+
+        static void emit(String operation, long nanos) {
+            OperationEvent e = new OperationEvent();
+            if (!e.shouldCommit()) return;
+            e.operation = operation;
+            e.nanos = nanos;
+            e.commit();
+        }
+    }
+}
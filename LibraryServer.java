@@ -0,0 +1,567 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Headless mode: serves the Library core as JSON over HTTP for the kiosks and
+ * the OPAC website, on the JDK's built-in HttpServer. Each request gets its
+ * own virtual thread where the JDK has them (21+); older JDKs fall back to a
+ * fixed pool and queue the excess. Request bodies are flat JSON objects.
+ *
+ * GET    /books?q=..&limit=..       catalog search; or ?isbn=..; or exact ?author=..&category=..
+ * GET    /books/page                ?sort=id|title|author&desc=true&offset=..|after=..&limit=..
+ *                                   filters: q, author, category, available=true
+ * GET    /books/facets              same filters; ?authors=N (default 20) most frequent authors listed
+ * GET    /books/{id}
+ * POST   /books                     {title, author, isbn, copies, category}
+ * PUT    /books/{id}                same fields; missing ones are kept. With the "version" read
+ *                                   from GET, refused (409) if the book was edited since
+ * DELETE /books/{id}
+ * GET    /members/page              ?sort=id|name, paging as for books; filters: q, type=student|librarian
+ * GET    /members/{id}
+ * POST   /members                   {name, email, phone, rollNumber} or {..., "librarian": true}
+ * DELETE /members/{id}
+ * GET    /members/{id}/issues       ?active=true for unreturned only, ?archived=true for the whole history
+ * GET    /members/{id}/fine
+ * POST   /issues                    {bookId, userId, days}
+ * POST   /issues/{id}/return
+ * GET    /issues/overdue
+ * GET    /issues/page               ?sort=id|due, paging as for books; filters: userId, bookId, active=true, overdue=true
+ * GET    /stats
+ *
+ * Pages come back as {"total", "offset", "next", "rows"}; "next" is the
+ * cursor to pass as ?after= for the following page, null on the last one.
+ *
+ * Errors come back as {"error": "..."}: 400 for malformed requests, 404 for
+ * unknown ids or routes, 409 when the Library refuses the operation, 500 for
+ * anything else (logged with its stack trace).
+ *
+ * Only one process writes a data directory. Started with --follow, the
+ * server serves a read-only replica of the one another process writes (see
+ * {@link Library#follower}); every change is refused with 409.
+ */
+public class LibraryServer implements AutoCloseable {
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_LOAN_DAYS = 14;
+    public static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int BACKLOG = 4096;
+    // platform threads used when virtual threads are not available
+    private static final int FALLBACK_THREADS = 256;
+
+    private static final LibraryMetrics.Timer T_REQUEST = LibraryMetrics.timer("http.request");
+
+    private final Library library;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    public LibraryServer(Library library, int port) throws IOException {
+        this.library = library;
+        ExecutorService virtual = virtualThreadExecutor();
+        virtualThreads = virtual != null;
+        executor = virtualThreads ? virtual : Executors.newFixedThreadPool(FALLBACK_THREADS, r -> {
+            Thread t = new Thread(r, "http-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    /** A virtual-thread-per-task executor, or null on a JDK without virtual threads. */
+    static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public void start() { server.start(); }
+
+    public int getPort() { return server.getAddress().getPort(); }
+
+    public boolean usesVirtualThreads() { return virtualThreads; }
+
+    /** Stops accepting requests and gives running ones a second to finish. The Library stays open. */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---------- dispatch ----------
+    /** An HTTP error status with the message sent to the client. */
+    static final class HttpError extends Exception {
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        long start = LibraryMetrics.start();
+        int status = 200;
+        String body;
+        try {
+            String[] path = ex.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/+");
+            body = route(ex.getRequestMethod(), path, query(ex.getRequestURI().getRawQuery()), ex);
+            if (body == null) status = 204;
+            else if ("POST".equals(ex.getRequestMethod()) && path.length == 1) status = 201;
+        } catch (HttpError e) {
+            status = e.status;
+            body = error(e.getMessage());
+        } catch (NumberFormatException e) {
+            status = 400;
+            body = error("Not a number: " + e.getMessage());
+        } catch (Exception e) {
+            if (e instanceof RuntimeException && !(e instanceof IllegalStateException)) {
+                // a bug, not a refusal: the client gets no details, the server log gets the trace
+                System.err.println("Request failed: " + ex.getRequestMethod() + " " + ex.getRequestURI());
+                e.printStackTrace();
+                status = 500;
+                body = error("Internal error");
+            } else {
+                // Library refuses operations with a plain Exception (IllegalStateException when
+                // read-only) and a message for the user
+                String msg = e.getMessage() == null ? e.toString() : e.getMessage();
+                status = msg.endsWith("not found") ? 404 : 409;
+                body = error(msg);
+            }
+        }
+        try {
+            send(ex, status, body);
+        } finally {
+            T_REQUEST.stop(start);
+        }
+    }
+
+    private String route(String method, String[] path, Map<String, String> q, HttpExchange ex) throws Exception {
+        // route key: numeric segments become {id}, e.g. "POST issues/{id}/return"
+        StringBuilder key = new StringBuilder(method).append(' ');
+        int id = 0;
+        for (int i = 0; i < path.length; i++) {
+            if (i > 0) key.append('/');
+            if (!path[i].isEmpty() && path[i].length() < 10 && path[i].chars().allMatch(Character::isDigit)) {
+                id = Integer.parseInt(path[i]);
+                key.append("{id}");
+            } else {
+                key.append(path[i]);
+            }
+        }
+        switch (key.toString()) {
+            case "GET books": return searchBooks(q);
+            case "GET books/page": return queryBooks(q);
+            case "GET books/facets": return bookFacets(q);
+            case "GET books/{id}": return Json.book(found(library.findBookById(id), "Book"));
+            case "POST books": return addBook(body(ex));
+            case "PUT books/{id}": return updateBook(id, body(ex));
+            case "DELETE books/{id}":
+                found(library.findBookById(id), "Book");
+                library.deleteBook(id);
+                return null;
+            case "GET members/page": return queryMembers(q);
+            case "GET members/{id}": return Json.user(found(library.findUserById(id), "Member"));
+            case "POST members": return addMember(body(ex));
+            case "DELETE members/{id}":
+                found(library.findUserById(id), "Member");
+                library.deleteUser(id);
+                return null;
+            case "GET members/{id}/issues":
+                found(library.findUserById(id), "Member");
+                if ("true".equals(q.get("active"))) return Json.issues(library.getActiveIssuesForUser(id));
+                return Json.issues("true".equals(q.get("archived"))
+                        ? library.getIssueHistoryForUser(id) : library.getIssuesForUser(id));
+            case "GET members/{id}/fine":
+                found(library.findUserById(id), "Member");
+                return "{\"userId\":" + id + ",\"fine\":" + library.getFine(id, LocalDate.now()) + "}";
+            case "POST issues": return issue(body(ex));
+            case "POST issues/{id}/return":
+                library.returnBook(id, LocalDate.now());
+                return Json.issue(library.findIssueById(id));
+            case "GET issues/page": return queryIssues(q);
+            case "GET issues/overdue": return Json.issues(library.getOverdueIssues(LocalDate.now()));
+            case "GET stats":
+                return "{\"books\":" + library.getBookCount() + ",\"members\":" + library.getUserCount()
+                        + ",\"issues\":" + library.getIssueCount() + ",\"activeIssues\":"
+                        + library.getActiveIssueCount() + "}";
+            default: throw new HttpError(404, "No route for " + method + " /" + String.join("/", path));
+        }
+    }
+
+    // ---------- handlers ----------
+    private String searchBooks(Map<String, String> q) throws HttpError {
+        if (q.containsKey("isbn")) {
+            Book b = library.findBookByIsbn(q.get("isbn"));
+            return b == null ? "[]" : "[" + Json.book(b) + "]";
+        }
+        String text = q.get("q");
+        boolean filter = q.containsKey("author") || q.containsKey("category");
+        if (!filter && (text == null || text.trim().isEmpty())) throw new HttpError(400, "Missing search text ?q=");
+        int limit = q.containsKey("limit") ? Integer.parseInt(q.get("limit")) : DEFAULT_SEARCH_LIMIT;
+        limit = Math.max(1, Math.min(limit, 1000));
+        List<Book> found = filter ? library.filterBooks(q.get("author"), q.get("category"), limit)
+                : library.searchBooks(text, limit);
+        StringBuilder sb = new StringBuilder("[");
+        for (Book b : found) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append(Json.book(b));
+        }
+        return sb.append(']').toString();
+    }
+
+    private String queryBooks(Map<String, String> q) throws HttpError {
+        Query.Books query = paged(new Query.Books(), q).sort(sort(Query.Books.Sort.class, q, Query.Books.Sort.ID))
+                .text(q.get("q")).author(q.get("author")).category(q.get("category"))
+                .availableOnly("true".equals(q.get("available")));
+        try {
+            return Json.page(library.queryBooks(query), Json::book);
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, e.getMessage());
+        }
+    }
+
+    private String bookFacets(Map<String, String> q) {
+        int authors = q.containsKey("authors") ? Integer.parseInt(q.get("authors")) : DEFAULT_SEARCH_LIMIT;
+        Query.Books query = new Query.Books().text(q.get("q")).author(q.get("author")).category(q.get("category"))
+                .availableOnly("true".equals(q.get("available")));
+        BookFacets.Counts c = library.getBookFacets(query, Math.max(0, Math.min(authors, 1000)));
+        return "{\"total\":" + c.total + ",\"available\":" + c.available + ",\"categories\":"
+                + Json.counts(c.categories) + ",\"authors\":" + Json.counts(c.authors) + "}";
+    }
+
+    private String queryMembers(Map<String, String> q) throws HttpError {
+        String type = q.get("type");
+        Query.Members query = paged(new Query.Members(), q)
+                .sort(sort(Query.Members.Sort.class, q, Query.Members.Sort.ID)).text(q.get("q"))
+                .type("student".equals(type) ? Student.class : "librarian".equals(type) ? Librarian.class : null);
+        try {
+            return Json.page(library.queryUsers(query), Json::user);
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, e.getMessage());
+        }
+    }
+
+    private String queryIssues(Map<String, String> q) throws HttpError {
+        Query.Loans query = paged(new Query.Loans(), q).sort(sort(Query.Loans.Sort.class, q, Query.Loans.Sort.ID))
+                .user(q.containsKey("userId") ? Integer.parseInt(q.get("userId")) : 0)
+                .book(q.containsKey("bookId") ? Integer.parseInt(q.get("bookId")) : 0)
+                .activeOnly("true".equals(q.get("active")))
+                .overdueAsOf("true".equals(q.get("overdue")) ? LocalDate.now() : null);
+        try {
+            return Json.page(library.queryIssues(query), Json::issue);
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, e.getMessage());
+        }
+    }
+
+    /** Applies ?offset=, ?after=, ?limit= (at most 1000) and ?desc=true. */
+    private static <Q extends Query<Q>> Q paged(Q query, Map<String, String> q) {
+        int limit = q.containsKey("limit") ? Integer.parseInt(q.get("limit")) : Query.DEFAULT_LIMIT;
+        return query.limit(Math.min(limit, 1000)).offset(q.containsKey("offset") ? Integer.parseInt(q.get("offset")) : 0)
+                .after(q.get("after")).descending("true".equals(q.get("desc")));
+    }
+
+    private static <E extends Enum<E>> E sort(Class<E> keys, Map<String, String> q, E byDefault) throws HttpError {
+        String key = q.get("sort");
+        if (key == null) return byDefault;
+        try {
+            return Enum.valueOf(keys, key.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(400, "Unknown sort " + key);
+        }
+    }
+
+    private String addBook(Map<String, String> f) throws HttpError {
+        String title = required(f, "title");
+        int copies = f.containsKey("copies") ? Integer.parseInt(f.get("copies")) : 1;
+        if (copies < 1) throw new HttpError(400, "copies must be at least 1");
+        return Json.book(library.addBook(title, f.get("author"), f.get("isbn"), copies, f.get("category")));
+    }
+
+    private String updateBook(int id, Map<String, String> f) throws Exception {
+        Book b = found(library.findBookById(id), "Book");
+        int total = f.containsKey("copies") ? Integer.parseInt(f.get("copies")) : b.getTotalCopies();
+        int out = b.getTotalCopies() - b.getAvailableCopies();
+        if (total < out) throw new HttpError(409, "copies cannot go below the " + out + " on loan");
+        Book edit = new Book(id, f.getOrDefault("title", b.getTitle()), f.getOrDefault("author", b.getAuthor()),
+                f.getOrDefault("isbn", b.getIsbn()), total, f.getOrDefault("category", b.getCategory()));
+        edit.setAvailableCopies(total - out);
+        edit.setVersion(f.containsKey("version") ? Integer.parseInt(f.get("version")) : b.getVersion());
+        library.updateBook(edit);
+        return Json.book(library.findBookById(id));
+    }
+
+    private String addMember(Map<String, String> f) throws HttpError {
+        String name = required(f, "name");
+        User u = "true".equals(f.get("librarian"))
+                ? library.addLibrarian(name, f.get("email"), f.get("phone"))
+                : library.addStudent(name, f.get("email"), f.get("phone"), f.get("rollNumber"));
+        return Json.user(u);
+    }
+
+    private String issue(Map<String, String> f) throws Exception {
+        int bookId = Integer.parseInt(required(f, "bookId"));
+        int userId = Integer.parseInt(required(f, "userId"));
+        int days = f.containsKey("days") ? Integer.parseInt(f.get("days")) : DEFAULT_LOAN_DAYS;
+        LocalDate today = LocalDate.now();
+        return Json.issue(library.issueBook(bookId, userId, today, today.plusDays(days)));
+    }
+
+    private static <T> T found(T entity, String what) throws HttpError {
+        if (entity == null) throw new HttpError(404, what + " not found");
+        return entity;
+    }
+
+    private static String required(Map<String, String> f, String field) throws HttpError {
+        String v = f.get(field);
+        if (v == null || v.trim().isEmpty()) throw new HttpError(400, "Missing field " + field);
+        return v;
+    }
+
+    // ---------- I/O ----------
+    private static Map<String, String> query(String raw) {
+        Map<String, String> out = new HashMap<>();
+        if (raw == null) return out;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String k = eq < 0 ? pair : pair.substring(0, eq);
+            String v = eq < 0 ? "" : pair.substring(eq + 1);
+            out.put(URLDecoder.decode(k, StandardCharsets.UTF_8), URLDecoder.decode(v, StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    private static Map<String, String> body(HttpExchange ex) throws IOException, HttpError {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (InputStream in = ex.getRequestBody()) {
+            in.transferTo(buf);
+        }
+        return Json.parseObject(buf.toString(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange ex, int status, String body) throws IOException {
+        // closing the exchange also drains an unread request body, keeping the connection reusable
+        try (HttpExchange e = ex) {
+            if (body == null) {
+                e.sendResponseHeaders(status, -1);
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            e.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            e.sendResponseHeaders(status, bytes.length);
+            e.getResponseBody().write(bytes);
+        }
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + Json.quote(message) + "}";
+    }
+
+    // ---------- JSON ----------
+    /** Just enough JSON for this API: entity writers and a flat-object reader. */
+    static final class Json {
+        private Json() {}
+
+        static String book(Book b) {
+            return "{\"id\":" + b.getId() + ",\"title\":" + quote(b.getTitle()) + ",\"author\":" + quote(b.getAuthor())
+                    + ",\"isbn\":" + quote(b.getIsbn()) + ",\"category\":" + quote(b.getCategory())
+                    + ",\"copies\":" + b.getTotalCopies() + ",\"available\":" + b.getAvailableCopies()
+                    + ",\"version\":" + b.getVersion() + "}";
+        }
+
+        static String user(User u) {
+            StringBuilder sb = new StringBuilder("{\"id\":").append(u.getId())
+                    .append(",\"name\":").append(quote(u.getName()))
+                    .append(",\"email\":").append(quote(u.getEmail()))
+                    .append(",\"phone\":").append(quote(u.getPhone()))
+                    .append(",\"version\":").append(u.getVersion());
+            if (u instanceof Student) sb.append(",\"rollNumber\":").append(quote(((Student) u).getRollNumber()));
+            else sb.append(",\"librarian\":true");
+            return sb.append('}').toString();
+        }
+
+        static String issue(IssueRecord r) {
+            return "{\"id\":" + r.getId() + ",\"bookId\":" + r.getBookId() + ",\"userId\":" + r.getUserId()
+                    + ",\"issueDate\":" + quote(str(r.getIssueDate())) + ",\"dueDate\":" + quote(str(r.getDueDate()))
+                    + ",\"returnDate\":" + quote(str(r.getReturnDate())) + "}";
+        }
+
+        static String issues(List<IssueRecord> list) {
+            StringBuilder sb = new StringBuilder("[");
+            for (IssueRecord r : list) {
+                if (sb.length() > 1) sb.append(',');
+                sb.append(issue(r));
+            }
+            return sb.append(']').toString();
+        }
+
+        static <T> String page(Page<T> page, Function<T, String> row) {
+            StringBuilder sb = new StringBuilder("{\"total\":").append(page.total)
+                    .append(",\"offset\":").append(page.offset)
+                    .append(",\"next\":").append(quote(page.next))
+                    .append(",\"rows\":[");
+            for (int i = 0; i < page.rows.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(row.apply(page.rows.get(i)));
+            }
+            return sb.append("]}").toString();
+        }
+
+        static String counts(Map<String, Integer> counts) {
+            StringBuilder sb = new StringBuilder("{");
+            for (Map.Entry<String, Integer> e : counts.entrySet()) {
+                if (sb.length() > 1) sb.append(',');
+                sb.append(quote(e.getKey())).append(':').append(e.getValue());
+            }
+            return sb.append('}').toString();
+        }
+
+        private static String str(Object o) { return o == null ? null : o.toString(); }
+
+        static String quote(String s) {
+            if (s == null) return "null";
+            StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                        if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                        else sb.append(c);
+                }
+            }
+            return sb.append('"').toString();
+        }
+
+        /**
+         * Parses an object whose values are strings, numbers, booleans or
+         * null. Values come back as their text (null for JSON null); nested
+         * objects and arrays are rejected.
+         */
+        static Map<String, String> parseObject(String s) throws HttpError {
+            Map<String, String> out = new HashMap<>();
+            int[] pos = {skip(s, 0)};
+            expect(s, pos, '{');
+            if (peek(s, pos) == '}') {
+                pos[0]++;
+            } else {
+                while (true) {
+                    String key = string(s, pos);
+                    expect(s, pos, ':');
+                    out.put(key, value(s, pos));
+                    char c = peek(s, pos);
+                    pos[0]++;
+                    if (c == '}') break;
+                    if (c != ',') throw new HttpError(400, "Malformed JSON at " + (pos[0] - 1));
+                }
+            }
+            if (skip(s, pos[0]) != s.length()) throw new HttpError(400, "Trailing data after JSON object");
+            return out;
+        }
+
+        private static String value(String s, int[] pos) throws HttpError {
+            char c = peek(s, pos);
+            if (c == '"') return string(s, pos);
+            if (c == '{' || c == '[') throw new HttpError(400, "Nested JSON values are not supported");
+            int start = pos[0];
+            while (pos[0] < s.length() && ",}] \t\r\n".indexOf(s.charAt(pos[0])) < 0) pos[0]++;
+            String literal = s.substring(start, pos[0]);
+            if (literal.isEmpty()) throw new HttpError(400, "Malformed JSON at " + start);
+            return "null".equals(literal) ? null : literal;
+        }
+
+        private static String string(String s, int[] pos) throws HttpError {
+            expect(s, pos, '"');
+            StringBuilder sb = new StringBuilder();
+            while (pos[0] < s.length()) {
+                char c = s.charAt(pos[0]++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos[0] >= s.length()) break;
+                char e = s.charAt(pos[0]++);
+                switch (e) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos[0] + 4 > s.length()) throw new HttpError(400, "Bad \\u escape");
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(pos[0], pos[0] + 4), 16));
+                        } catch (NumberFormatException bad) {
+                            throw new HttpError(400, "Bad \\u escape");
+                        }
+                        pos[0] += 4;
+                        break;
+                    default: sb.append(e);
+                }
+            }
+            throw new HttpError(400, "Unterminated JSON string");
+        }
+
+        private static char peek(String s, int[] pos) throws HttpError {
+            pos[0] = skip(s, pos[0]);
+            if (pos[0] >= s.length()) throw new HttpError(400, "Unexpected end of JSON");
+            return s.charAt(pos[0]);
+        }
+
+        private static void expect(String s, int[] pos, char c) throws HttpError {
+            if (peek(s, pos) != c) throw new HttpError(400, "Expected '" + c + "' at " + pos[0]);
+            pos[0]++;
+        }
+
+        private static int skip(String s, int i) {
+            while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+            return i;
+        }
+    }
+
+    /** Arguments: [port] [data dir] [--follow]. */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        File dataDir = new File(args.length > 1 ? args[1] : ".");
+        boolean follow = args.length > 2 && "--follow".equals(args[2]);
+        Library library = follow ? Library.follower(dataDir) : new Library(dataDir);
+        LibraryServer server = new LibraryServer(library, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            library.close();
+        }, "library-shutdown"));
+        server.start();
+        System.out.println("Serving the library on http://localhost:" + server.getPort() + "/ ("
+                + (server.usesVirtualThreads() ? "virtual threads" : FALLBACK_THREADS + " threads") + ")"
+                + (follow ? ", read-only" : ""));
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks that concurrent desks never oversell a copy. Threads check books
+ * out and return them, one at a time and in batches, on a small catalog so
+ * every book is contended, while readers watch the copy counts. Afterwards,
+ * and again after the data directory is closed and loaded back from disk,
+ * every book must satisfy available + active loans = total copies.
+ *
+ * Usage: java LibraryStressTest [threads] [seconds] [books] [copies]
+ *
+ * Runs in a fresh temporary directory; exits with status 1 on a violation.
+ */
+public class LibraryStressTest {
+    private static final int MEMBERS = 50;
+    private static final int BATCH = 8;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int bookCount = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int copies = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        File dir = Files.createTempDirectory("library-stress").toFile();
+        Library library = new Library(dir);
+        for (int i = 0; i < bookCount; i++) library.addBook("Title " + i, "Author", "isbn" + i, copies, "Stress");
+        for (int i = 0; i < MEMBERS; i++) library.addStudent("Member " + i, "", "", "R" + i);
+        System.out.printf("%d threads for %d s on %d books x %d copies in %s%n", threads, seconds, bookCount, copies, dir);
+
+        LongAdder issued = new LongAdder();
+        LongAdder refused = new LongAdder();
+        LongAdder returned = new LongAdder();
+        LongAdder badReads = new LongAdder();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final Random rnd = new Random(t);
+            workers.add(pool.submit(() -> {
+                List<Integer> mine = new ArrayList<>();
+                LocalDate today = LocalDate.now();
+                while (System.nanoTime() < end) {
+                    int op = rnd.nextInt(10);
+                    if (op < 4) {
+                        try {
+                            mine.add(library.issueBook(1 + rnd.nextInt(bookCount), 1 + rnd.nextInt(MEMBERS),
+                                    today, today.plusDays(14)).getId());
+                            issued.increment();
+                        } catch (Exception e) {
+                            if (!"No copies available".equals(e.getMessage())) throw e;
+                            refused.increment();
+                        }
+                    } else if (op < 5) {
+                        List<Library.Checkout> batch = new ArrayList<>();
+                        for (int i = 0; i < BATCH; i++) {
+                            batch.add(new Library.Checkout(1 + rnd.nextInt(bookCount), 1 + rnd.nextInt(MEMBERS)));
+                        }
+                        for (Library.Outcome o : library.issueBooks(batch, today, today.plusDays(14), rnd.nextBoolean())) {
+                            if (o.isOk()) {
+                                mine.add(o.record.getId());
+                                issued.increment();
+                            } else {
+                                refused.increment();
+                            }
+                        }
+                    } else if (op < 7 && !mine.isEmpty()) {
+                        library.returnBook(mine.remove(rnd.nextInt(mine.size())), today);
+                        returned.increment();
+                    } else if (op < 8 && !mine.isEmpty()) {
+                        List<Integer> batch = new ArrayList<>();
+                        for (int i = 0; i < BATCH && !mine.isEmpty(); i++) batch.add(mine.remove(mine.size() - 1));
+                        for (Library.Outcome o : library.returnBooks(batch, today, false)) {
+                            if (!o.isOk()) throw new IllegalStateException("Return refused: " + o.error);
+                            returned.increment();
+                        }
+                    } else {
+                        Book b = library.findBookById(1 + rnd.nextInt(bookCount));
+                        int available = b.getAvailableCopies();
+                        if (available < 0 || available > b.getTotalCopies()) badReads.increment();
+                    }
+                }
+                return null;
+            }));
+        }
+        pool.shutdown();
+        for (Future<?> f : workers) f.get();
+
+        System.out.printf("issued %d, refused %d, returned %d, out-of-range reads %d%n",
+                issued.sum(), refused.sum(), returned.sum(), badReads.sum());
+        List<String> violations = check("live", library);
+        library.close();
+        Library reloaded = new Library(dir);
+        violations.addAll(check("reloaded", reloaded));
+        reloaded.close();
+        if (badReads.sum() > 0) violations.add(badReads.sum() + " reads saw a copy count out of range");
+        if (!violations.isEmpty()) {
+            for (String v : violations) System.err.println(v);
+            System.exit(1);
+        }
+        System.out.println("OK: available + active loans = total copies for every book, live and after reload");
+    }
+
+    /** Books whose copies are not all either on the shelf or on an active loan. */
+    private static List<String> check(String when, Library library) {
+        int[] active = new int[library.getBookCount() + 1];
+        for (IssueRecord r : library.getActiveIssues()) active[r.getBookId()]++;
+        List<String> out = new ArrayList<>();
+        for (Book b : library.getBooks()) {
+            int accounted = b.getAvailableCopies() + active[b.getId()];
+            if (accounted != b.getTotalCopies()) {
+                out.add(when + ": " + b + ": " + b.getAvailableCopies() + " available + " + active[b.getId()]
+                        + " on loan != " + b.getTotalCopies());
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Returned loans moved out of the working set: read-only files in the
+ * snapshot issue format, one per month of return
+ * ({@code archive/loans-2024-03.bin}). Nothing here is loaded at startup;
+ * each query maps and scans only the months it needs.
+ *
+ * Only the {@link Checkpointer} adds loans, through a {@link Writer}. A
+ * month file is rewritten through a temp file and a rename, so readers see
+ * either the old or the new version. Ids already in a month are skipped, so
+ * a loan archived twice (crash between archiving and the snapshot that drops
+ * it) is stored once. The writer also drops the archived loans of books and
+ * members deleted since, as deleting them drops their loans in memory.
+ */
+public class LoanArchive {
+    private static final String PREFIX = "loans-";
+    private static final String SUFFIX = ".bin";
+    // many months can be open in one checkpoint, so each gets a small buffer
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final File dir;
+
+    public LoanArchive(File dir) {
+        this.dir = dir;
+    }
+
+    // ---------- queries ----------
+    /** Archived loans of a member, oldest first. */
+    public List<IssueRecord> forUser(int userId) throws IOException {
+        List<IssueRecord> out = new ArrayList<>();
+        scan(null, null, r -> { if (r.getUserId() == userId) out.add(r); });
+        out.sort(Comparator.comparingInt(IssueRecord::getId));
+        return out;
+    }
+
+    /** Archived loans of a book, oldest first. */
+    public List<IssueRecord> forBook(int bookId) throws IOException {
+        List<IssueRecord> out = new ArrayList<>();
+        scan(null, null, r -> { if (r.getBookId() == bookId) out.add(r); });
+        out.sort(Comparator.comparingInt(IssueRecord::getId));
+        return out;
+    }
+
+    /** Archived loans returned from {@code from} through {@code to}, in order of return month, then id. */
+    public List<IssueRecord> returnedBetween(LocalDate from, LocalDate to) throws IOException {
+        List<IssueRecord> out = new ArrayList<>();
+        long first = from.toEpochDay();
+        long last = to.toEpochDay();
+        scan(YearMonth.from(from), YearMonth.from(to), r -> {
+            if (r.getReturnDay() >= first && r.getReturnDay() <= last) out.add(r);
+        });
+        return out;
+    }
+
+    /** Number of archived loans, from the file headers. */
+    public long count() throws IOException {
+        long n = 0;
+        for (File f : months(null, null)) n += BinaryStore.readCount(f, BinaryStore.KIND_ISSUES);
+        return n;
+    }
+
+    /** Streams every archived loan, month by month. */
+    public void forEach(Consumer<? super IssueRecord> sink) throws IOException {
+        scan(null, null, sink);
+    }
+
+    private void scan(YearMonth from, YearMonth to, Consumer<? super IssueRecord> sink) throws IOException {
+        for (File f : months(from, to)) BinaryStore.readIssues(f, sink);
+    }
+
+    /** Month files from {@code from} through {@code to} (null = unbounded), oldest first. */
+    private List<File> months(YearMonth from, YearMonth to) {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        List<File> out = new ArrayList<>();
+        if (files == null) return out;
+        Arrays.sort(files);
+        for (File f : files) {
+            YearMonth m = monthOf(f);
+            if (m == null || from != null && m.isBefore(from) || to != null && m.isAfter(to)) continue;
+            out.add(f);
+        }
+        return out;
+    }
+
+    private static YearMonth monthOf(File f) {
+        String name = f.getName();
+        try {
+            return YearMonth.parse(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private File fileFor(YearMonth m) {
+        return new File(dir, PREFIX + m + SUFFIX);
+    }
+
+    // ---------- writing ----------
+    /**
+     * Starts adding loans; nothing is visible until {@link Writer#commit}.
+     * Loans already archived that {@code keep} rejects are left out of every
+     * month the writer rewrites.
+     */
+    Writer writer(Predicate<IssueRecord> keep) {
+        return new Writer(keep);
+    }
+
+    /**
+     * Adds returned loans to their month files. Each month touched is
+     * copied into a new file, with the added loans after the old ones, and
+     * replaces the old file on commit.
+     */
+    final class Writer implements AutoCloseable {
+        private final Predicate<IssueRecord> keep;
+        private final IntMap<Month> open = new IntMap<>();
+        private int added;
+
+        private Writer(Predicate<IssueRecord> keep) {
+            this.keep = keep;
+        }
+
+        private final class Month {
+            final BinaryStore.Appender<IssueRecord> out;
+            final IntMap<Boolean> ids = new IntMap<>();
+
+            Month(File f) throws IOException {
+                out = BinaryStore.appendIssues(f, 0, BUFFER_SIZE);
+                if (!f.exists()) return;
+                try {
+                    BinaryStore.readIssues(f, r -> {
+                        if (!keep.test(r)) return;
+                        ids.put(r.getId(), Boolean.TRUE);
+                        try {
+                            out.add(r);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    out.close();
+                    throw e.getCause();
+                }
+            }
+        }
+
+        /** Queues a returned loan; false if its month already holds it. */
+        boolean add(IssueRecord r) throws IOException {
+            Month month = month(YearMonth.from(r.getReturnDate()));
+            if (month.ids.put(r.getId(), Boolean.TRUE) != null) return false;
+            month.out.add(r);
+            added++;
+            return true;
+        }
+
+        /**
+         * Rewrites every month that holds a loan {@code keep} rejects, e.g.
+         * of a book or member deleted since; the others are only read.
+         */
+        void purge() throws IOException {
+            for (File f : months(null, null)) {
+                YearMonth m = monthOf(f);
+                boolean[] hit = {false};
+                BinaryStore.readIssues(f, r -> hit[0] |= !keep.test(r));
+                if (hit[0]) month(m);
+            }
+        }
+
+        private Month month(YearMonth m) throws IOException {
+            int key = m.getYear() * 12 + m.getMonthValue() - 1;
+            Month month = open.get(key);
+            if (month == null) {
+                if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+                month = new Month(fileFor(m));
+                open.put(key, month);
+            }
+            return month;
+        }
+
+        /** Loans queued so far. */
+        int size() { return added; }
+
+        void commit() throws IOException {
+            for (Month m : open.values()) m.out.commit();
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failed = null;
+            for (Month m : open.values()) {
+                try {
+                    m.out.close();
+                } catch (IOException e) {
+                    failed = e;
+                }
+            }
+            if (failed != null) throw failed;
+        }
+    }
+}
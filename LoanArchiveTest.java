@@ -0,0 +1,146 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that archiving returned loans moves them out of the working set
+ * without changing what the history reads return. A synthetic library with
+ * ten years of loans is checkpointed: exactly the loans returned before the
+ * archive-after cutoff must leave memory and land in the archive, while
+ * members' histories and the whole-history snapshot stay as they were, also
+ * after a reopen. Deleting a member and then a book must drop their archived
+ * loans from every read, before the next checkpoint purges them from the
+ * archive and after it.
+ *
+ * Usage: java LoanArchiveTest
+ *
+ * Runs in a fresh temporary directory; exits with status 1 on a violation.
+ */
+public class LoanArchiveTest {
+    private static final int MEMBERS = 50;
+    private static final LocalDate EPOCH = LocalDate.of(2000, 1, 1);
+
+    public static void main(String[] args) throws Exception {
+        List<String> violations = new ArrayList<>();
+        File dir = Files.createTempDirectory("library-archive").toFile();
+        SyntheticData.write(dir, 5000, 42);
+        Library library = new Library(dir);
+        LocalDate today = LocalDate.now();
+        LocalDate cutoff = today.minusDays(library.getArchiveAfterDays());
+        int total = library.getIssueCount();
+        int active = library.getActiveIssueCount();
+        int cold = 0;
+        for (IssueRecord r : library.getIssues()) if (r.isReturned() && r.getReturnDate().isBefore(cutoff)) cold++;
+        Map<Integer, String> histories = histories(library);
+
+        // a loan returned today is not old enough to archive
+        int shelved = 0;
+        for (Book b : library.getBooks()) {
+            if (b.isAvailable()) {
+                shelved = b.getId();
+                break;
+            }
+        }
+        IssueRecord fresh = library.issueBook(shelved, 1, today, today.plusDays(7));
+        library.returnBook(fresh.getId(), today);
+        histories.put(1, histories.get(1) + library.findIssueById(fresh.getId()) + '\n');
+        library.saveAll();
+        LoanArchive archive = new LoanArchive(new File(dir, "archive"));
+
+        if (cold == 0) violations.add("the synthetic data has no loans old enough to archive");
+        if (archive.count() != cold) violations.add("archive holds " + archive.count() + " loans, expected " + cold);
+        if (library.getIssueCount() != total + 1 - cold) {
+            violations.add("working set holds " + library.getIssueCount() + " loans, expected " + (total + 1 - cold));
+        }
+        if (library.getActiveIssueCount() != active) violations.add("active loans changed by archiving");
+        if (library.findIssueById(fresh.getId()) == null) violations.add("a loan returned today was archived");
+        for (IssueRecord r : library.getIssues()) {
+            if (r.isReturned() && r.getReturnDate().isBefore(cutoff)) violations.add("loan " + r.getId() + " is old but still in memory");
+        }
+        for (IssueRecord r : library.getArchivedIssues(EPOCH, today)) {
+            if (!r.getReturnDate().isBefore(cutoff)) violations.add("archived loan " + r.getId() + " is not old enough");
+        }
+        checkHistories(violations, "after archiving", library, histories, total + 1);
+        library.close();
+        library = new Library(dir);
+        if (library.getIssueCount() != total + 1 - cold) violations.add("reopen loaded archived loans into the working set");
+        checkHistories(violations, "after a reopen", library, histories, total + 1);
+
+        // a member whose history reaches into the archive
+        int member = -1;
+        for (int u = 2; u <= MEMBERS && member < 0; u++) {
+            if (library.getIssueHistoryForUser(u).size() > library.getIssuesForUser(u).size()) member = u;
+        }
+        if (member < 0) {
+            violations.add("no member has archived loans");
+        } else {
+            int loans = library.getIssueHistoryForUser(member).size();
+            int archivedLoans = loans - library.getIssuesForUser(member).size();
+            long inArchive = archive.count();
+            library.deleteUser(member);
+            checkDeleted(violations, "member before the checkpoint", library, member, -1, total + 1 - loans);
+            library.saveAll();
+            if (archive.count() != inArchive - archivedLoans) violations.add("checkpoint did not purge the deleted member's loans");
+            checkDeleted(violations, "member after the checkpoint", library, member, -1, total + 1 - loans);
+            total -= loans;
+        }
+
+        // a book with archived loans, deleted and not checkpointed before the reopen
+        int book = library.getArchivedIssues(EPOCH, today).get(0).getBookId();
+        int loans = library.getIssuesForBook(book).size();
+        for (IssueRecord r : library.getArchivedIssues(EPOCH, today)) if (r.getBookId() == book) loans++;
+        library.deleteBook(book);
+        checkDeleted(violations, "book before the checkpoint", library, member, book, total + 1 - loans);
+        library.close();
+        library = new Library(dir);
+        checkDeleted(violations, "book after a reopen", library, member, book, total + 1 - loans);
+        library.saveAll();
+        for (IssueRecord r : archive.returnedBetween(EPOCH, today)) {
+            if (r.getBookId() == book) violations.add("checkpoint did not purge archived loan " + r.getId() + " of the deleted book");
+        }
+        library.close();
+
+        if (!violations.isEmpty()) {
+            for (String v : violations) System.err.println(v);
+            System.exit(1);
+        }
+        System.out.printf("OK: %d loans archived, histories unchanged, deletes reach the archive%n", cold);
+    }
+
+    private static void checkHistories(List<String> violations, String when, Library library,
+                                       Map<Integer, String> expected, int total) {
+        Map<Integer, String> now = histories(library);
+        for (int u = 1; u <= MEMBERS; u++) {
+            if (!expected.get(u).equals(now.get(u))) violations.add(when + ": history of member " + u + " differs");
+        }
+        int size = library.snapshotLoans(true).size;
+        if (size != total) violations.add(when + ": whole-history snapshot has " + size + " loans, expected " + total);
+    }
+
+    /** Neither the member nor the book (if not -1) has loans in any read, and the rest are intact. */
+    private static void checkDeleted(List<String> violations, String when, Library library, int member, int book, int total) {
+        if (member > 0 && !library.getIssueHistoryForUser(member).isEmpty()) violations.add(when + ": deleted member still has a history");
+        for (IssueRecord r : library.getArchivedIssues(EPOCH, LocalDate.now())) {
+            if (r.getUserId() == member || r.getBookId() == book) {
+                violations.add(when + ": audit still lists loan " + r.getId());
+                break;
+            }
+        }
+        int size = library.snapshotLoans(true).size;
+        if (size != total) violations.add(when + ": whole-history snapshot has " + size + " loans, expected " + total);
+    }
+
+    private static Map<Integer, String> histories(Library library) {
+        Map<Integer, String> out = new HashMap<>();
+        for (int u = 1; u <= MEMBERS; u++) {
+            StringBuilder sb = new StringBuilder();
+            for (IssueRecord r : library.getIssueHistoryForUser(u)) sb.append(r).append('\n');
+            out.put(u, sb.toString());
+        }
+        return out;
+    }
+}
@@ -0,0 +1,286 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Point-in-time copy of the loan history in columns of ints, for ad-hoc
+ * reports. It is taken once under the Library's read lock. Reports then run
+ * on it without any lock, split across the fork-join pool, so they neither
+ * block the desks nor see half-applied changes.
+ *
+ * Dates are epoch days ({@link #NO_DATE} when absent). Each loan carries its
+ * book's category at snapshot time as an index into {@link #categories}.
+ */
+public final class LoanSnapshot {
+    public static final int NO_DATE = IssueRecord.NO_DATE;
+
+    public final int size;
+    public final int[] issueId;
+    public final int[] bookId;
+    public final int[] userId;
+    public final int[] issueDay;
+    public final int[] dueDay;
+    public final int[] returnDay;
+    public final int[] category;
+    public final String[] categories;
+    private final int maxBookId;
+    private final int maxUserId;
+
+    LoanSnapshot(IssueStore loans, IntMap<Book> books) {
+        this(loans, new Rows(), books);
+    }
+
+    /** The working set followed by archived loans; a loan in both counts once. */
+    LoanSnapshot(IssueStore loans, Rows archived, IntMap<Book> books) {
+        int live = loans.size();
+        archived.dropAll(loans);
+        size = live + archived.size;
+        issueId = new int[size];
+        bookId = new int[size];
+        userId = new int[size];
+        issueDay = new int[size];
+        dueDay = new int[size];
+        returnDay = new int[size];
+        category = new int[size];
+        loans.copyColumns(issueId, bookId, userId, issueDay, dueDay, returnDay);
+        System.arraycopy(archived.id, 0, issueId, live, archived.size);
+        System.arraycopy(archived.book, 0, bookId, live, archived.size);
+        System.arraycopy(archived.user, 0, userId, live, archived.size);
+        System.arraycopy(archived.issue, 0, issueDay, live, archived.size);
+        System.arraycopy(archived.due, 0, dueDay, live, archived.size);
+        System.arraycopy(archived.returned, 0, returnDay, live, archived.size);
+        // category code per book first, so each loan costs one map lookup; books
+        // share their dictionary category code, so each distinct one is keyed once
+        Map<String, Integer> codes = new TreeMap<>();
+        IntMap<int[]> byDictionaryCode = new IntMap<>();
+        IntMap<int[]> bookCategory = new IntMap<>(books.size());
+        for (Book b : books.values()) {
+            int[] code = byDictionaryCode.get(b.getCategoryCode());
+            if (code == null) {
+                String key = CirculationStats.categoryKey(b.getCategory());
+                Integer c = codes.get(key);
+                if (c == null) codes.put(key, c = codes.size());
+                byDictionaryCode.put(b.getCategoryCode(), code = new int[]{c});
+            }
+            bookCategory.put(b.getId(), code);
+        }
+        int maxBook = 0;
+        int maxUser = 0;
+        for (int i = 0; i < size; i++) {
+            int[] code = bookCategory.get(bookId[i]);
+            category[i] = code != null ? code[0] : codes.computeIfAbsent("(unknown)", k -> codes.size());
+            maxBook = Math.max(maxBook, bookId[i]);
+            maxUser = Math.max(maxUser, userId[i]);
+        }
+        categories = new String[codes.size()];
+        for (Map.Entry<String, Integer> e : codes.entrySet()) categories[e.getValue()] = e.getKey();
+        maxBookId = maxBook;
+        maxUserId = maxUser;
+    }
+
+    /** Loans gathered outside the store (e.g. from the archive), in columns. */
+    static final class Rows {
+        int size;
+        int[] id = new int[16];
+        int[] book = new int[16];
+        int[] user = new int[16];
+        int[] issue = new int[16];
+        int[] due = new int[16];
+        int[] returned = new int[16];
+
+        void add(IssueRecord r) {
+            if (size == id.length) {
+                int n = size * 2;
+                id = Arrays.copyOf(id, n);
+                book = Arrays.copyOf(book, n);
+                user = Arrays.copyOf(user, n);
+                issue = Arrays.copyOf(issue, n);
+                due = Arrays.copyOf(due, n);
+                returned = Arrays.copyOf(returned, n);
+            }
+            id[size] = r.getId();
+            book[size] = r.getBookId();
+            user[size] = r.getUserId();
+            issue[size] = r.getIssueDay();
+            due[size] = r.getDueDay();
+            returned[size] = r.getReturnDay();
+            size++;
+        }
+
+        /** Removes the rows whose loan is also in {@code store}. */
+        void dropAll(IssueStore store) {
+            retain(i -> !store.contains(id[i]));
+        }
+
+        /** Removes the rows of books or members no longer in the catalog: deleting them drops their loans. */
+        void dropDeleted(IntMap<Book> books, IntMap<User> users) {
+            retain(i -> books.containsKey(book[i]) && users.containsKey(user[i]));
+        }
+
+        private void retain(IntPredicate keep) {
+            int to = 0;
+            for (int i = 0; i < size; i++) {
+                if (!keep.test(i)) continue;
+                id[to] = id[i];
+                book[to] = book[i];
+                user[to] = user[i];
+                issue[to] = issue[i];
+                due[to] = due[i];
+                returned[to] = returned[i];
+                to++;
+            }
+            size = to;
+        }
+    }
+
+    // ---------- parallel aggregation ----------
+    /** Folds one loan (a row of the snapshot) into a partial result. */
+    public interface Accumulator<A> {
+        void add(A partial, int row);
+    }
+
+    /**
+     * Splits the rows into ranges, folds each range into its own partial
+     * result on the common fork-join pool and merges the partials. {@code merge}
+     * may return either argument after folding the other into it.
+     */
+    public <A> A aggregate(Supplier<A> init, Accumulator<A> add, BinaryOperator<A> merge) {
+        // a few ranges per core keeps the cores busy without a partial per tiny range
+        int leaves = ForkJoinPool.commonPool().getParallelism() * 4;
+        int threshold = Math.max(16_384, size / Math.max(1, leaves));
+        return ForkJoinPool.commonPool().invoke(new Fold<>(0, size, threshold, init, add, merge));
+    }
+
+    private static final class Fold<A> extends RecursiveTask<A> {
+        private final int from;
+        private final int to;
+        private final int threshold;
+        private final Supplier<A> init;
+        private final Accumulator<A> add;
+        private final BinaryOperator<A> merge;
+
+        Fold(int from, int to, int threshold, Supplier<A> init, Accumulator<A> add, BinaryOperator<A> merge) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.init = init;
+            this.add = add;
+            this.merge = merge;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from <= threshold) {
+                A partial = init.get();
+                for (int row = from; row < to; row++) add.add(partial, row);
+                return partial;
+            }
+            int mid = (from + to) >>> 1;
+            Fold<A> left = new Fold<>(from, mid, threshold, init, add, merge);
+            left.fork();
+            A right = new Fold<>(mid, to, threshold, init, add, merge).compute();
+            return merge.apply(left.join(), right);
+        }
+    }
+
+    // ---------- reports ----------
+    /** Loans per category per month of issue, for loans issued from {@code from} through {@code to}. */
+    public Map<String, Map<YearMonth, Long>> loansByCategoryMonth(LocalDate from, LocalDate to) {
+        YearMonth first = YearMonth.from(from);
+        int months = (int) (first.until(YearMonth.from(to), ChronoUnit.MONTHS) + 1);
+        int lo = (int) from.toEpochDay();
+        int hi = (int) to.toEpochDay();
+        int width = Math.max(0, months);
+        long[] counts = aggregate(() -> new long[categories.length * width], (acc, row) -> {
+            int d = issueDay[row];
+            if (d == NO_DATE || d < lo || d > hi) return;
+            LocalDate date = LocalDate.ofEpochDay(d);
+            int m = (date.getYear() - first.getYear()) * 12 + date.getMonthValue() - first.getMonthValue();
+            acc[category[row] * width + m]++;
+        }, LoanSnapshot::sum);
+        Map<String, Map<YearMonth, Long>> out = new TreeMap<>();
+        for (int c = 0; c < categories.length; c++) {
+            for (int m = 0; m < width; m++) {
+                long n = counts[c * width + m];
+                if (n > 0) out.computeIfAbsent(categories[c], k -> new TreeMap<>()).put(first.plusMonths(m), n);
+            }
+        }
+        return out;
+    }
+
+    /** Mean loan length in days of returned loans, per category. */
+    public Map<String, Double> averageLoanDaysByCategory() {
+        // per category: [returned loans, summed days]
+        long[] acc = aggregate(() -> new long[categories.length * 2], (a, row) -> {
+            if (returnDay[row] == NO_DATE || issueDay[row] == NO_DATE) return;
+            a[category[row] * 2]++;
+            a[category[row] * 2 + 1] += returnDay[row] - issueDay[row];
+        }, LoanSnapshot::sum);
+        Map<String, Double> out = new TreeMap<>();
+        for (int c = 0; c < categories.length; c++) {
+            if (acc[c * 2] > 0) out.put(categories[c], (double) acc[c * 2 + 1] / acc[c * 2]);
+        }
+        return out;
+    }
+
+    /** Mean loan length in days over all returned loans, or 0 if none. */
+    public double averageLoanDays() {
+        // [returned loans, summed days]
+        long[] acc = aggregate(() -> new long[2], (a, row) -> {
+            if (returnDay[row] == NO_DATE || issueDay[row] == NO_DATE) return;
+            a[0]++;
+            a[1] += returnDay[row] - issueDay[row];
+        }, LoanSnapshot::sum);
+        return acc[0] == 0 ? 0 : (double) acc[1] / acc[0];
+    }
+
+    /** The {@code k} books borrowed most often. */
+    public List<CirculationStats.Count> mostBorrowed(int k) {
+        return top(k, countBy(bookId, maxBookId, Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    /** The {@code k} books borrowed most often among loans issued from {@code from} through {@code to}. */
+    public List<CirculationStats.Count> mostBorrowed(int k, LocalDate from, LocalDate to) {
+        return top(k, countBy(bookId, maxBookId, (int) from.toEpochDay(), (int) to.toEpochDay()));
+    }
+
+    /** The {@code k} members with the most loans. */
+    public List<CirculationStats.Count> busiestMembers(int k) {
+        return top(k, countBy(userId, maxUserId, Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    /** The {@code k} members with the most loans issued from {@code from} through {@code to}. */
+    public List<CirculationStats.Count> busiestMembers(int k, LocalDate from, LocalDate to) {
+        return top(k, countBy(userId, maxUserId, (int) from.toEpochDay(), (int) to.toEpochDay()));
+    }
+
+    private long[] countBy(int[] key, int maxKey, int lo, int hi) {
+        return aggregate(() -> new long[maxKey + 1], (acc, row) -> {
+            int d = issueDay[row];
+            if (d != NO_DATE && d >= lo && d <= hi) acc[key[row]]++;
+        }, LoanSnapshot::sum);
+    }
+
+    private static List<CirculationStats.Count> top(int k, long[] counts) {
+        PriorityQueue<CirculationStats.Count> top = new PriorityQueue<>(CirculationStats.BY_COUNT);
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] > 0) CirculationStats.offer(top, k, new CirculationStats.Count(id, counts[id]));
+        }
+        return CirculationStats.sorted(top);
+    }
+
+    private static long[] sum(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) a[i] += b[i];
+        return a;
+    }
+}
@@ -0,0 +1,70 @@
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Daily overdue sweep. Runs once on {@link #start()} and again just after
+ * every local midnight. It reads only the Library's due-date index, so
+ * returned loans are never visited. Listeners are called on the sweeping
+ * thread.
+ */
+public class OverdueMonitor implements AutoCloseable {
+    public interface Listener {
+        void swept(LocalDate asOf, List<IssueRecord> overdue);
+    }
+
+    private final Library library;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "overdue-sweep");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public OverdueMonitor(Library library) {
+        this.library = library;
+    }
+
+    public void addListener(Listener l) { listeners.add(l); }
+    public void removeListener(Listener l) { listeners.remove(l); }
+
+    /** Sweeps now in the background, then every day after midnight. */
+    public void start() {
+        scheduler.execute(this::sweepAndReschedule);
+    }
+
+    /** Sweeps on the calling thread, e.g. after returns, and notifies the listeners. */
+    public List<IssueRecord> sweep() {
+        LocalDate today = LocalDate.now();
+        List<IssueRecord> overdue = library.getOverdueIssues(today);
+        for (Listener l : listeners) l.swept(today, overdue);
+        return overdue;
+    }
+
+    private void sweepAndReschedule() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            System.err.println("Overdue sweep failed: " + e.getMessage());
+        }
+        // recomputed every day, so DST shifts and clock changes are picked up
+        LocalDateTime now = LocalDateTime.now();
+        long delay = Duration.between(now, now.toLocalDate().plusDays(1).atStartOfDay()).toMillis() + 1000;
+        try {
+            scheduler.schedule(this::sweepAndReschedule, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException closed) {
+            // close() raced the sweep
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,21 @@
+import java.util.List;
+
+/** One page of a {@link Query} result. */
+public final class Page<T> {
+    public final List<T> rows;
+    /** Rows matching the query in all. */
+    public final int total;
+    /** Position of the first row in the whole result. */
+    public final int offset;
+    /** Cursor for the next page ({@link Query#after}), or null on the last page. */
+    public final String next;
+
+    Page(List<T> rows, int total, int offset, String next) {
+        this.rows = rows;
+        this.total = total;
+        this.offset = offset;
+        this.next = next;
+    }
+
+    public boolean hasNext() { return next != null; }
+}
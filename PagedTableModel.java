@@ -0,0 +1,94 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table rows fetched from the Library one {@link Page} at a time, as the
+ * table scrolls: only the last few pages asked for are held, and the row
+ * count is the query total. Sorting is done by the Library's sort indexes
+ * ({@link #sortBy}), not by a row sorter, which would read every row.
+ */
+public abstract class PagedTableModel<T> extends AbstractTableModel {
+    static final int PAGE_SIZE = 100;
+    private static final int CACHED_PAGES = 8;
+
+    // first row of a page -> the page, least recently used first
+    private final Map<Integer, Page<T>> pages = new LinkedHashMap<Integer, Page<T>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Page<T>> eldest) { return size() > CACHED_PAGES; }
+    };
+    private int rowCount = -1;
+
+    /** Rows {@code offset} to {@code offset + limit} of the current query. */
+    protected abstract Page<T> fetch(int offset, int limit);
+
+    protected abstract int idOf(T row);
+
+    /**
+     * Sorts by the column if the Library has an order for it, toggling the
+     * direction when it already sorts by it; false if it has none.
+     */
+    public abstract boolean sortBy(int column);
+
+    /** Row {@code row}, or null if the result shrank below it since the count was read. */
+    public T getRowAt(int row) {
+        int start = row - row % PAGE_SIZE;
+        Page<T> page = pages.get(start);
+        if (page == null) {
+            page = fetch(start, PAGE_SIZE);
+            pages.put(start, page);
+            rowCount = page.total;
+        }
+        int i = row - start;
+        return i < page.rows.size() ? page.rows.get(i) : null;
+    }
+
+    /**
+     * Records changed: reads the cached pages again. If they still hold the
+     * same records in the same places, and the row count is the same, only
+     * those rows are repainted, so the selection survives; else the table
+     * reloads.
+     */
+    public void refresh() {
+        Map<Integer, int[]> before = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Page<T>> e : pages.entrySet()) before.put(e.getKey(), ids(e.getValue()));
+        int count = rowCount;
+        pages.clear();
+        rowCount = -1;
+        if (count < 0 || getRowCount() != count) {
+            fireTableDataChanged();
+            return;
+        }
+        for (Map.Entry<Integer, int[]> e : before.entrySet()) {
+            getRowAt(e.getKey());
+            if (!Arrays.equals(ids(pages.get(e.getKey())), e.getValue()) || rowCount != count) {
+                fireTableDataChanged();
+                return;
+            }
+        }
+        for (Map.Entry<Integer, int[]> e : before.entrySet()) {
+            if (e.getValue().length > 0) fireTableRowsUpdated(e.getKey(), e.getKey() + e.getValue().length - 1);
+        }
+    }
+
+    private int[] ids(Page<T> page) {
+        int[] ids = new int[page.rows.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = idOf(page.rows.get(i));
+        return ids;
+    }
+
+    /** Also drops the cached pages, which may be stale. */
+    @Override
+    public void fireTableDataChanged() {
+        pages.clear();
+        rowCount = -1;
+        super.fireTableDataChanged();
+    }
+
+    @Override
+    public int getRowCount() {
+        if (rowCount < 0) getRowAt(0);
+        return rowCount;
+    }
+}
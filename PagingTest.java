@@ -0,0 +1,297 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Checks the paged query API against brute-force scans. For books, members
+ * and loans, in every sort order, both directions and with each filter,
+ * paging by offset and paging by cursor must both return exactly the sorted
+ * matches of a scan, with the right totals. Then pages are fetched by cursor
+ * while books, members and loans are added, deleted, checked out and
+ * returned between pages: rows that exist throughout must come back exactly
+ * once, and no row may come back twice or out of order.
+ *
+ * Usage: java PagingTest
+ *
+ * Runs in a fresh temporary directory; exits with status 1 on a violation.
+ */
+public class PagingTest {
+    private static final int LIMIT = 7;
+    private static final String[] TITLES = {"the Hobbit", "The hobbit", "Dune", "dune: Messiah", "Emma", "",
+            "Zebra Days", "a Tale", "A tale", "Middlemarch"};
+    private static final String[] AUTHORS = {"Austen", "austen", "Eliot", "Herbert", "Tolkien", "Zola"};
+    private static final String[] CATEGORIES = {"Fiction", "History", "Science", "Poetry"};
+
+    /** Fetches one page starting at an offset or after a cursor. */
+    private interface Fetch<T> {
+        Page<T> page(int offset, String after);
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> violations = new ArrayList<>();
+        File dir = Files.createTempDirectory("library-paging").toFile();
+        Library library = new Library(dir);
+        Random rnd = new Random(22);
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 150; i++) addBook(library, rnd, i);
+        for (int i = 0; i < 60; i++) library.addStudent(TITLES[i % TITLES.length] + " Student", "", "", "R" + i);
+        for (int i = 0; i < 15; i++) library.addLibrarian("Desk " + AUTHORS[i % AUTHORS.length], "", "");
+        for (int i = 0; i < 120; i++) issue(library, rnd, today);
+        for (IssueRecord r : library.getActiveIssues()) if (rnd.nextInt(3) == 0) library.returnBook(r.getId(), today);
+
+        for (Query.Books.Sort sort : Query.Books.Sort.values()) {
+            for (boolean descending : new boolean[]{false, true}) {
+                String what = "books by " + sort + (descending ? " descending" : "");
+                checkBooks(violations, what, library, sort, descending, b -> true, () -> new Query.Books());
+                checkBooks(violations, what + " in History", library, sort, descending,
+                        b -> "History".equals(b.getCategory()), () -> new Query.Books().category("History"));
+                checkBooks(violations, what + " by austen", library, sort, descending,
+                        b -> "austen".equals(b.getAuthor()), () -> new Query.Books().author("austen"));
+                checkBooks(violations, what + " available", library, sort, descending,
+                        Book::isAvailable, () -> new Query.Books().availableOnly(true));
+                checkBooks(violations, what + " available Science", library, sort, descending,
+                        b -> b.isAvailable() && "Science".equals(b.getCategory()),
+                        () -> new Query.Books().category("Science").availableOnly(true));
+                Set<Integer> hits = ids(library.searchBooks("hobbit", Integer.MAX_VALUE), Book::getId);
+                checkBooks(violations, what + " matching hobbit", library, sort, descending,
+                        b -> hits.contains(b.getId()), () -> new Query.Books().text("hobbit"));
+                checkBooks(violations, what + " matching hobbit in Poetry", library, sort, descending,
+                        b -> hits.contains(b.getId()) && "Poetry".equals(b.getCategory()),
+                        () -> new Query.Books().text("hobbit").category("Poetry"));
+            }
+        }
+        for (Query.Members.Sort sort : Query.Members.Sort.values()) {
+            for (boolean descending : new boolean[]{false, true}) {
+                String what = "members by " + sort + (descending ? " descending" : "");
+                checkMembers(violations, what, library, sort, descending, u -> true, () -> new Query.Members());
+                checkMembers(violations, what + " librarians", library, sort, descending,
+                        u -> u instanceof Librarian, () -> new Query.Members().type(Librarian.class));
+                Set<Integer> hits = ids(library.searchUsers("dune", Integer.MAX_VALUE), User::getId);
+                checkMembers(violations, what + " matching dune", library, sort, descending,
+                        u -> hits.contains(u.getId()), () -> new Query.Members().text("dune"));
+            }
+        }
+        for (Query.Loans.Sort sort : Query.Loans.Sort.values()) {
+            for (boolean descending : new boolean[]{false, true}) {
+                String what = "loans by " + sort + (descending ? " descending" : "");
+                checkLoans(violations, what, library, sort, descending, r -> true, () -> new Query.Loans());
+                checkLoans(violations, what + " of member 3", library, sort, descending,
+                        r -> r.getUserId() == 3, () -> new Query.Loans().user(3));
+                checkLoans(violations, what + " of book 5", library, sort, descending,
+                        r -> r.getBookId() == 5, () -> new Query.Loans().book(5));
+                checkLoans(violations, what + " active", library, sort, descending,
+                        r -> !r.isReturned(), () -> new Query.Loans().activeOnly(true));
+                checkLoans(violations, what + " overdue", library, sort, descending,
+                        r -> !r.isReturned() && r.getDueDate().isBefore(today), () -> new Query.Loans().overdueAsOf(today));
+            }
+        }
+
+        // cursors across changes made between pages
+        for (boolean descending : new boolean[]{false, true}) {
+            String how = descending ? " descending" : "";
+            for (Query.Books.Sort sort : Query.Books.Sort.values()) {
+                walkBooks(violations, "books by " + sort + how, library, rnd, bookOrder(sort), descending,
+                        () -> new Query.Books().sort(sort).descending(descending), b -> true);
+            }
+            walkBooks(violations, "Fiction books by title" + how, library, rnd, bookOrder(Query.Books.Sort.TITLE), descending,
+                    () -> new Query.Books().category("Fiction").sort(Query.Books.Sort.TITLE).descending(descending),
+                    b -> "Fiction".equals(b.getCategory()));
+            walkMembers(violations, "members by name" + how, library, rnd, descending);
+            walkLoans(violations, "loans by due date" + how, library, rnd, today, descending);
+        }
+        library.close();
+
+        if (!violations.isEmpty()) {
+            for (String v : violations) System.err.println(v);
+            System.exit(1);
+        }
+        System.out.println("OK: offset and cursor pages match scans and survive changes in between");
+    }
+
+    // ---------- pages against a scan ----------
+    private static void checkBooks(List<String> violations, String what, Library library, Query.Books.Sort sort,
+                                   boolean descending, Predicate<Book> match, Supplier<Query.Books> query) {
+        List<Integer> expected = scan(library.getBooks(), match, bookOrder(sort), descending, Book::getId);
+        checkPages(violations, what, expected, (offset, after) -> library.queryBooks(
+                query.get().sort(sort).descending(descending).limit(LIMIT).offset(offset).after(after)), Book::getId);
+    }
+
+    private static void checkMembers(List<String> violations, String what, Library library, Query.Members.Sort sort,
+                                     boolean descending, Predicate<User> match, Supplier<Query.Members> query) {
+        List<Integer> expected = scan(library.getUsers(), match, memberOrder(sort), descending, User::getId);
+        checkPages(violations, what, expected, (offset, after) -> library.queryUsers(
+                query.get().sort(sort).descending(descending).limit(LIMIT).offset(offset).after(after)), User::getId);
+    }
+
+    private static void checkLoans(List<String> violations, String what, Library library, Query.Loans.Sort sort,
+                                   boolean descending, Predicate<IssueRecord> match, Supplier<Query.Loans> query) {
+        List<Integer> expected = scan(library.getIssues(), match, loanOrder(sort), descending, IssueRecord::getId);
+        checkPages(violations, what, expected, (offset, after) -> library.queryIssues(
+                query.get().sort(sort).descending(descending).limit(LIMIT).offset(offset).after(after)), IssueRecord::getId);
+    }
+
+    /** Pages by offset and by cursor must both list {@code expected}, with its size as the total. */
+    private static <T> void checkPages(List<String> violations, String what, List<Integer> expected, Fetch<T> fetch,
+                                       ToIntFunction<T> idOf) {
+        List<Integer> byOffset = new ArrayList<>();
+        for (int offset = 0; ; offset += LIMIT) {
+            Page<T> page = fetch.page(offset, null);
+            if (page.total != expected.size()) violations.add(what + ": total " + page.total + " != " + expected.size());
+            if (page.offset != Math.min(offset, expected.size())) violations.add(what + ": page at " + offset + " has offset " + page.offset);
+            if (page.hasNext() != (offset + page.rows.size() < expected.size())) {
+                violations.add(what + ": page at " + offset + " has the wrong next cursor");
+            }
+            for (T row : page.rows) byOffset.add(idOf.applyAsInt(row));
+            if (offset >= expected.size()) break;
+        }
+        if (!byOffset.equals(expected)) violations.add(what + ": offset pages " + byOffset + " != " + expected);
+
+        List<Integer> byCursor = new ArrayList<>();
+        String cursor = null;
+        do {
+            Page<T> page = fetch.page(0, cursor);
+            if (page.offset != byCursor.size()) violations.add(what + ": cursor page has offset " + page.offset + " != " + byCursor.size());
+            for (T row : page.rows) byCursor.add(idOf.applyAsInt(row));
+            cursor = page.next;
+        } while (cursor != null && byCursor.size() <= expected.size());
+        if (!byCursor.equals(expected)) violations.add(what + ": cursor pages " + byCursor + " != " + expected);
+    }
+
+    // ---------- cursors across changes ----------
+    private static void walkBooks(List<String> violations, String what, Library library, Random rnd, Comparator<Book> order,
+                                  boolean descending, Supplier<Query.Books> query, Predicate<Book> match) {
+        Set<Integer> survivors = ids(library.getBooks(), Book::getId);
+        survivors.removeIf(id -> !match.test(library.findBookById(id)));
+        List<Book> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            Page<Book> page = library.queryBooks(query.get().limit(LIMIT).after(cursor));
+            seen.addAll(page.rows);
+            cursor = page.next;
+            addBook(library, rnd, seen.size());
+            addBook(library, rnd, seen.size() + 1);
+            int victim = 1 + rnd.nextInt(library.getBooks().get(library.getBookCount() - 1).getId());
+            if (library.findBookById(victim) != null && library.getIssuesForBook(victim).isEmpty()) {
+                library.deleteBook(victim);
+                survivors.remove(victim);
+            }
+        } while (cursor != null && seen.size() < 10_000);
+        checkWalk(violations, what, seen, survivors, descending ? order.reversed() : order, Book::getId);
+    }
+
+    private static void walkMembers(List<String> violations, String what, Library library, Random rnd, boolean descending) {
+        Set<Integer> survivors = ids(library.getUsers(), User::getId);
+        List<User> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            Page<User> page = library.queryUsers(new Query.Members().sort(Query.Members.Sort.NAME)
+                    .descending(descending).limit(LIMIT).after(cursor));
+            seen.addAll(page.rows);
+            cursor = page.next;
+            library.addStudent(TITLES[rnd.nextInt(TITLES.length)] + " Late", "", "", "L" + seen.size());
+            int victim = 1 + rnd.nextInt(library.getUsers().get(library.getUserCount() - 1).getId());
+            if (library.findUserById(victim) != null && library.getIssuesForUser(victim).isEmpty()) {
+                library.deleteUser(victim);
+                survivors.remove(victim);
+            }
+        } while (cursor != null && seen.size() < 10_000);
+        Comparator<User> order = memberOrder(Query.Members.Sort.NAME);
+        checkWalk(violations, what, seen, survivors, descending ? order.reversed() : order, User::getId);
+    }
+
+    private static void walkLoans(List<String> violations, String what, Library library, Random rnd, LocalDate today,
+                                  boolean descending) throws Exception {
+        Set<Integer> survivors = ids(library.getIssues(), IssueRecord::getId);
+        List<IssueRecord> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            Page<IssueRecord> page = library.queryIssues(new Query.Loans().sort(Query.Loans.Sort.DUE)
+                    .descending(descending).limit(LIMIT).after(cursor));
+            seen.addAll(page.rows);
+            cursor = page.next;
+            issue(library, rnd, today);
+            List<IssueRecord> active = library.getActiveIssues();
+            if (!active.isEmpty()) library.returnBook(active.get(rnd.nextInt(active.size())).getId(), today);
+        } while (cursor != null && seen.size() < 10_000);
+        Comparator<IssueRecord> order = loanOrder(Query.Loans.Sort.DUE);
+        checkWalk(violations, what, seen, survivors, descending ? order.reversed() : order, IssueRecord::getId);
+    }
+
+    /** Every survivor once, nothing twice, everything in order. */
+    private static <T> void checkWalk(List<String> violations, String what, List<T> seen, Set<Integer> survivors,
+                                      Comparator<T> order, ToIntFunction<T> idOf) {
+        Set<Integer> once = new HashSet<>();
+        for (int i = 0; i < seen.size(); i++) {
+            int id = idOf.applyAsInt(seen.get(i));
+            if (!once.add(id)) violations.add(what + ": " + id + " came back twice");
+            if (i > 0 && order.compare(seen.get(i - 1), seen.get(i)) > 0) violations.add(what + ": " + id + " out of order");
+        }
+        for (int id : survivors) if (!once.contains(id)) violations.add(what + ": " + id + " was skipped");
+    }
+
+    // ---------- scans ----------
+    private static <T> List<Integer> scan(List<T> all, Predicate<T> match, Comparator<T> order, boolean descending,
+                                          ToIntFunction<T> idOf) {
+        List<T> out = new ArrayList<>();
+        for (T t : all) if (match.test(t)) out.add(t);
+        out.sort(order);
+        if (descending) Collections.reverse(out);
+        List<Integer> ids = new ArrayList<>();
+        for (T t : out) ids.add(idOf.applyAsInt(t));
+        return ids;
+    }
+
+    private static Comparator<Book> bookOrder(Query.Books.Sort sort) {
+        Comparator<Book> byId = Comparator.comparingInt(Book::getId);
+        if (sort == Query.Books.Sort.ID) return byId;
+        Function<Book, String> key = sort == Query.Books.Sort.TITLE ? Book::getTitle : Book::getAuthor;
+        return Comparator.comparing(key, String.CASE_INSENSITIVE_ORDER).thenComparing(byId);
+    }
+
+    private static Comparator<User> memberOrder(Query.Members.Sort sort) {
+        Comparator<User> byId = Comparator.comparingInt(User::getId);
+        if (sort == Query.Members.Sort.ID) return byId;
+        return Comparator.comparing(User::getName, String.CASE_INSENSITIVE_ORDER).thenComparing(byId);
+    }
+
+    private static Comparator<IssueRecord> loanOrder(Query.Loans.Sort sort) {
+        Comparator<IssueRecord> byId = Comparator.comparingInt(IssueRecord::getId);
+        if (sort == Query.Loans.Sort.ID) return byId;
+        return Comparator.comparingInt(IssueRecord::getDueDay).thenComparing(byId);
+    }
+
+    private static <T> Set<Integer> ids(List<T> rows, ToIntFunction<T> idOf) {
+        Set<Integer> out = new HashSet<>();
+        for (T t : rows) out.add(idOf.applyAsInt(t));
+        return out;
+    }
+
+    private static void addBook(Library library, Random rnd, int i) {
+        library.addBook(TITLES[rnd.nextInt(TITLES.length)], AUTHORS[rnd.nextInt(AUTHORS.length)], "isbn" + i,
+                1 + rnd.nextInt(2), CATEGORIES[rnd.nextInt(CATEGORIES.length)]);
+    }
+
+    private static void issue(Library library, Random rnd, LocalDate today) {
+        List<Book> books = library.getBooks();
+        List<User> users = library.getUsers();
+        Book b = books.get(rnd.nextInt(books.size()));
+        User u = users.get(rnd.nextInt(users.size()));
+        LocalDate issued = today.minusDays(rnd.nextInt(40));
+        try {
+            library.issueBook(b.getId(), u.getId(), issued, issued.plusDays(7 + rnd.nextInt(21)));
+        } catch (Exception refused) {
+            // no copy on the shelf
+        }
+    }
+}
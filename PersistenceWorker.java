@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Writes journal batches on a background thread so callers (the Swing EDT in
+ * particular) never wait for the disk.
+ *
+ * {@link #submit} only queues the batch. The worker takes everything queued
+ * since its last round, writes it as a single journal frame and fsyncs once,
+ * so a burst of edits costs one write. Listeners hear about every round that
+ * completed or failed; {@link #flush} blocks until all submitted batches are
+ * durable.
+ *
+ * A round that fails stays queued and is written again, first after
+ * {@link #RETRY_MILLIS} and then at growing intervals, together with
+ * whatever was submitted meanwhile. {@link #close} makes one last attempt;
+ * batches it cannot write are lost.
+ */
+public class PersistenceWorker {
+    // one group commit: all pending batches, one append and one fsync
+    private static final LibraryMetrics.Timer COMMIT_TIMER = LibraryMetrics.timer("journalCommit");
+    static final long RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 30_000;
+
+    /** Called on the worker thread; GUI listeners must hop to the EDT themselves. */
+    public interface Listener {
+        void saved(long upTo);
+        void failed(long upTo, Exception e);
+    }
+
+    private final Journal journal;
+    private final Object lock = new Object();
+    private final List<Journal.Batch> pending = new ArrayList<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private long submitted;
+    private long completed;
+    // rounds that failed so far, and the latest error
+    private long failures;
+    private Exception lastError;
+    private boolean closed;
+    // the worker thread has exited
+    private boolean stopped;
+
+    public PersistenceWorker(Journal journal) {
+        this.journal = journal;
+        thread = new Thread(this::run, "library-persistence");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void addListener(Listener l) { listeners.add(l); }
+    public void removeListener(Listener l) { listeners.remove(l); }
+
+    /** Queues a batch and returns its sequence number without waiting for I/O. */
+    public long submit(Journal.Batch batch) {
+        synchronized (lock) {
+            if (closed || stopped) throw new IllegalStateException("Persistence worker is closed");
+            pending.add(batch);
+            submitted++;
+            lock.notifyAll();
+            return submitted;
+        }
+    }
+
+    /**
+     * Waits until everything submitted so far has been written. Throws if a
+     * write fails first (the batches stay queued for the retry) or if the
+     * worker has stopped, so callers know the journal is incomplete.
+     */
+    public void flush() throws IOException {
+        synchronized (lock) {
+            long target = submitted;
+            long seenFailures = failures;
+            boolean interrupted = false;
+            while (completed < target && failures == seenFailures && !stopped) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (completed >= target) return;
+            Exception e = lastError;
+            if (e == null) throw new IOException("Persistence worker stopped with " + (target - completed) + " batches unwritten");
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    /** Makes a last attempt at what is queued, then stops the worker. Further submits are rejected. */
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void run() {
+        try {
+            long backoff = 0;
+            while (true) {
+                List<Journal.Batch> work;
+                long upTo;
+                synchronized (lock) {
+                    // after a failure, wait before writing again unless closing
+                    long retryAt = System.currentTimeMillis() + backoff;
+                    for (long left = backoff; left > 0 && !closed; left = retryAt - System.currentTimeMillis()) {
+                        lock.wait(left);
+                    }
+                    while (pending.isEmpty() && !closed) lock.wait();
+                    if (pending.isEmpty()) return;
+                    work = new ArrayList<>(pending);
+                    upTo = completed + work.size();
+                }
+                Exception error = null;
+                long start = LibraryMetrics.start();
+                try {
+                    journal.commit(work);
+                } catch (Exception e) {
+                    error = e;
+                    System.err.println("Failed to append to journal: " + e.getMessage());
+                } finally {
+                    COMMIT_TIMER.stop(start);
+                }
+                boolean giveUp;
+                synchronized (lock) {
+                    if (error == null) {
+                        pending.subList(0, work.size()).clear();
+                        completed = upTo;
+                        lastError = null;
+                        backoff = 0;
+                    } else {
+                        failures++;
+                        lastError = error;
+                        backoff = Math.min(Math.max(RETRY_MILLIS, backoff * 2), MAX_RETRY_MILLIS);
+                    }
+                    giveUp = error != null && closed;
+                    lock.notifyAll();
+                }
+                for (Listener l : listeners) {
+                    if (error == null) l.saved(upTo);
+                    else l.failed(upTo, error);
+                }
+                if (giveUp) return;
+            }
+        } catch (InterruptedException e) {
+            // stopped from outside; flush sees it below
+        } finally {
+            synchronized (lock) {
+                stopped = true;
+                lock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.time.LocalDate;
+
+/**
+ * One page of books, members or loans to fetch from a {@link Library}:
+ * filters, a sort key and direction, and where the page starts, either an
+ * offset or the cursor from the previous {@link Page} ({@link #after}).
+ * A cursor names the last row seen, so paging on with it neither repeats
+ * nor skips rows when others are added or removed in between.
+ *
+ * Setters chain: {@code new Query.Books().category("History").sort(Query.Books.Sort.TITLE).limit(50)}.
+ */
+public abstract class Query<Q extends Query<Q>> {
+    public static final int DEFAULT_LIMIT = 100;
+
+    int limit = DEFAULT_LIMIT;
+    int offset;
+    String after;
+    boolean descending;
+
+    /** Rows per page, at least 1. */
+    public Q limit(int limit) {
+        this.limit = Math.max(1, limit);
+        return self();
+    }
+
+    /** Matches to skip; ignored when there is a cursor. */
+    public Q offset(int offset) {
+        this.offset = Math.max(0, offset);
+        return self();
+    }
+
+    /** Starts right after the row the cursor names ({@link Page#next}); null starts at the offset. */
+    public Q after(String cursor) {
+        this.after = cursor;
+        return self();
+    }
+
+    public Q descending(boolean descending) {
+        this.descending = descending;
+        return self();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Q self() { return (Q) this; }
+
+    /** Id of the row the cursor names. */
+    int afterId() {
+        try {
+            return Integer.parseInt(after.substring(0, after.indexOf(':')));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Bad cursor: " + after);
+        }
+    }
+
+    /** Sort key of the row the cursor names, as text. */
+    String afterKey() {
+        return after.substring(after.indexOf(':') + 1);
+    }
+
+    /** Books, by default in id order. */
+    public static final class Books extends Query<Books> {
+        public enum Sort { ID, TITLE, AUTHOR }
+
+        Sort sort = Sort.ID;
+        String text;
+        String author;
+        String category;
+        boolean availableOnly;
+
+        public Books sort(Sort sort) {
+            this.sort = sort;
+            return this;
+        }
+
+        /** Catalog search words, as for {@link Library#searchBooks}; matches come in sort order, not ranked. */
+        public Books text(String text) {
+            this.text = text == null || text.trim().isEmpty() ? null : text;
+            return this;
+        }
+
+        /** Exact author; null = any. */
+        public Books author(String author) {
+            this.author = author;
+            return this;
+        }
+
+        /** Exact category; null = any. */
+        public Books category(String category) {
+            this.category = category;
+            return this;
+        }
+
+        /** Only books with a copy on the shelf. */
+        public Books availableOnly(boolean availableOnly) {
+            this.availableOnly = availableOnly;
+            return this;
+        }
+    }
+
+    /** Members, by default in id order. */
+    public static final class Members extends Query<Members> {
+        public enum Sort { ID, NAME }
+
+        Sort sort = Sort.ID;
+        String text;
+        Class<? extends User> type;
+
+        public Members sort(Sort sort) {
+            this.sort = sort;
+            return this;
+        }
+
+        /** Name or roll number words, as for {@link Library#searchUsers}. */
+        public Members text(String text) {
+            this.text = text == null || text.trim().isEmpty() ? null : text;
+            return this;
+        }
+
+        /** Only {@link Student}s or only {@link Librarian}s; null = both. */
+        public Members type(Class<? extends User> type) {
+            this.type = type;
+            return this;
+        }
+    }
+
+    /** Loans of the working set (see {@link Library#getIssues()}), by default in id order. */
+    public static final class Loans extends Query<Loans> {
+        public enum Sort { ID, DUE }
+
+        Sort sort = Sort.ID;
+        int userId;
+        int bookId;
+        boolean activeOnly;
+        LocalDate overdueAsOf;
+
+        public Loans sort(Sort sort) {
+            this.sort = sort;
+            return this;
+        }
+
+        /** Loans of one member; 0 = any. */
+        public Loans user(int userId) {
+            this.userId = userId;
+            return this;
+        }
+
+        /** Loans of one book; 0 = any. */
+        public Loans book(int bookId) {
+            this.bookId = bookId;
+            return this;
+        }
+
+        /** Only unreturned loans. */
+        public Loans activeOnly(boolean activeOnly) {
+            this.activeOnly = activeOnly;
+            return this;
+        }
+
+        /** Only unreturned loans due before {@code asOf}; null = no such filter. */
+        public Loans overdueAsOf(LocalDate asOf) {
+            this.overdueAsOf = asOf;
+            return this;
+        }
+    }
+}
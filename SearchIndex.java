@@ -0,0 +1,363 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Inverted index over the text fields of id-keyed records.
+ *
+ * Text is split into lower-case alphanumeric tokens. The token dictionary is
+ * sorted, so every query term matches as a prefix; a term that matches a
+ * token exactly scores double. Terms are ANDed and results are ranked by the
+ * summed field weights of the tokens they matched.
+ */
+public class SearchIndex {
+    private final TreeMap<String, Postings> dictionary = new TreeMap<>();
+    private final IntMap<Doc> docs = new IntMap<>();
+
+    /** Sorted tokens of one record with their weights, used for removal and probing. */
+    private static final class Doc {
+        final String[] tokens;
+        final int[] weights;
+
+        Doc(String[] tokens, int[] weights) {
+            this.tokens = tokens;
+            this.weights = weights;
+        }
+
+        /** Summed weight of the tokens starting with {@code term} (exact match doubled), 0 if none. */
+        int match(String term) {
+            int i = Arrays.binarySearch(tokens, term);
+            if (i >= 0) return weights[i] * 2;
+            int score = 0;
+            for (i = -i - 1; i < tokens.length && tokens[i].startsWith(term); i++) score += weights[i];
+            return score;
+        }
+    }
+
+    /** Sorted doc ids with the summed field weight of the token in each doc. */
+    private static final class Postings {
+        int[] ids;
+        int[] weights;
+        int size;
+
+        Postings() {
+            this(4);
+        }
+
+        Postings(int capacity) {
+            ids = new int[capacity];
+            weights = new int[capacity];
+        }
+
+        void add(int id, int weight) {
+            int i = Arrays.binarySearch(ids, 0, size, id);
+            if (i >= 0) { weights[i] += weight; return; }
+            i = -i - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            System.arraycopy(ids, i, ids, i + 1, size - i);
+            System.arraycopy(weights, i, weights, i + 1, size - i);
+            ids[i] = id;
+            weights[i] = weight;
+            size++;
+        }
+
+        void remove(int id) {
+            int i = Arrays.binarySearch(ids, 0, size, id);
+            if (i < 0) return;
+            System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+            System.arraycopy(weights, i + 1, weights, i, size - i - 1);
+            size--;
+        }
+    }
+
+    /** Sorted (id, score) pairs produced while evaluating a query. */
+    private static final class Hits {
+        final int[] ids;
+        final int[] scores;
+        final int size;
+
+        Hits(int[] ids, int[] scores, int size) {
+            this.ids = ids;
+            this.scores = scores;
+            this.size = size;
+        }
+    }
+
+    /** Indexes (or re-indexes) a record; {@code weights[i]} applies to {@code fields[i]}. */
+    public void put(int id, String[] fields, int[] weights) {
+        remove(id);
+        TreeMap<String, Integer> tokens = new TreeMap<>();
+        for (int f = 0; f < fields.length; f++) {
+            for (String t : tokenize(fields[f])) tokens.merge(t, weights[f], Integer::sum);
+        }
+        String[] names = new String[tokens.size()];
+        int[] w = new int[tokens.size()];
+        int n = 0;
+        for (Map.Entry<String, Integer> e : tokens.entrySet()) {
+            dictionary.computeIfAbsent(e.getKey(), k -> new Postings()).add(id, e.getValue());
+            names[n] = e.getKey();
+            w[n++] = e.getValue();
+        }
+        docs.put(id, new Doc(names, w));
+    }
+
+    /**
+     * Replaces the whole index with {@code records}, as a load does: each
+     * record's tokens are sorted on their own, every posting list is filled
+     * in one pass at its final size, and each distinct token goes into the
+     * dictionary once, in sorted order, instead of a sorted-map update per
+     * token and record as with {@link #put}.
+     */
+    public <T> void rebuild(Collection<T> records, ToIntFunction<T> idOf, Function<T, String[]> fieldsOf, int[] weights) {
+        clear();
+        // distinct tokens by first appearance; records share these String instances
+        Map<String, Integer> termIds = new HashMap<>(records.size() * 2);
+        List<String> terms = new ArrayList<>();
+        // one (term, id, weight) entry per token of each record, in record order
+        int[] postTerm = new int[Math.max(16, records.size() * 8)];
+        int[] postId = new int[postTerm.length];
+        int[] postWeight = new int[postTerm.length];
+        int posts = 0;
+        boolean ascending = true;
+        int lastId = Integer.MIN_VALUE;
+        String[] tok = new String[16];
+        int[] tw = new int[16];
+        for (T r : records) {
+            int id = idOf.applyAsInt(r);
+            ascending &= id > lastId;
+            lastId = id;
+            String[] fields = fieldsOf.apply(r);
+            int n = 0;
+            for (int f = 0; f < fields.length; f++) {
+                for (String t : tokenize(fields[f])) {
+                    if (n == tok.length) {
+                        tok = Arrays.copyOf(tok, n * 2);
+                        tw = Arrays.copyOf(tw, n * 2);
+                    }
+                    tok[n] = t;
+                    tw[n++] = weights[f];
+                }
+            }
+            // a handful of tokens: insertion sort, then fold repeats into one weight
+            for (int i = 1; i < n; i++) {
+                String t = tok[i];
+                int w = tw[i];
+                int j = i - 1;
+                for (; j >= 0 && tok[j].compareTo(t) > 0; j--) {
+                    tok[j + 1] = tok[j];
+                    tw[j + 1] = tw[j];
+                }
+                tok[j + 1] = t;
+                tw[j + 1] = w;
+            }
+            int distinct = 0;
+            for (int i = 0; i < n; i++) {
+                if (distinct > 0 && tok[distinct - 1].equals(tok[i])) {
+                    tw[distinct - 1] += tw[i];
+                } else {
+                    tok[distinct] = tok[i];
+                    tw[distinct++] = tw[i];
+                }
+            }
+            if (posts + distinct > postTerm.length) {
+                int capacity = Math.max(posts + distinct, postTerm.length * 2);
+                postTerm = Arrays.copyOf(postTerm, capacity);
+                postId = Arrays.copyOf(postId, capacity);
+                postWeight = Arrays.copyOf(postWeight, capacity);
+            }
+            String[] names = new String[distinct];
+            for (int i = 0; i < distinct; i++) {
+                Integer term = termIds.putIfAbsent(tok[i], terms.size());
+                if (term == null) {
+                    term = terms.size();
+                    terms.add(tok[i]);
+                }
+                names[i] = terms.get(term);
+                postTerm[posts] = term;
+                postId[posts] = id;
+                postWeight[posts++] = tw[i];
+            }
+            docs.put(id, new Doc(names, Arrays.copyOf(tw, distinct)));
+        }
+        int[] counts = new int[terms.size()];
+        for (int i = 0; i < posts; i++) counts[postTerm[i]]++;
+        Postings[] postings = new Postings[terms.size()];
+        for (int t = 0; t < postings.length; t++) postings[t] = new Postings(counts[t]);
+        for (int i = 0; i < posts; i++) {
+            Postings p = postings[postTerm[i]];
+            p.ids[p.size] = postId[i];
+            p.weights[p.size++] = postWeight[i];
+        }
+        if (!ascending) for (Postings p : postings) sortById(p);
+        String[] sorted = terms.toArray(new String[0]);
+        Arrays.sort(sorted);
+        for (String t : sorted) dictionary.put(t, postings[termIds.get(t)]);
+    }
+
+    /** Postings filled from records that were not in id order. */
+    private static void sortById(Postings p) {
+        long[] packed = new long[p.size];
+        for (int i = 0; i < p.size; i++) packed[i] = (long) p.ids[i] << 32 | (p.weights[i] & 0xffffffffL);
+        Arrays.sort(packed);
+        for (int i = 0; i < p.size; i++) {
+            p.ids[i] = (int) (packed[i] >> 32);
+            p.weights[i] = (int) packed[i];
+        }
+    }
+
+    public void remove(int id) {
+        Doc doc = docs.remove(id);
+        if (doc == null) return;
+        for (String t : doc.tokens) {
+            Postings p = dictionary.get(t);
+            if (p == null) continue;
+            p.remove(id);
+            if (p.size == 0) dictionary.remove(t);
+        }
+    }
+
+    public void clear() {
+        dictionary.clear();
+        docs.clear();
+    }
+
+    /**
+     * Returns up to {@code limit} ids matching every term of {@code query},
+     * best score first (ties broken by id). An empty query matches nothing.
+     */
+    public int[] search(String query, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty() || limit <= 0) return new int[0];
+        // most selective term first; terms much broader than the running
+        // result are checked against each candidate's tokens instead of merged
+        int n = terms.size();
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) order[i] = (estimate(terms.get(i)) << 20) | i;
+        Arrays.sort(order);
+        Hits acc = null;
+        for (long o : order) {
+            String term = terms.get((int) (o & 0xfffff));
+            long estimate = o >>> 20;
+            if (acc == null) acc = matchPrefix(term);
+            else if (estimate > (long) acc.size * 8) acc = probe(acc, term);
+            else acc = intersect(acc, matchPrefix(term));
+            if (acc.size == 0) return new int[0];
+        }
+        return topK(acc, limit);
+    }
+
+    private Map<String, Postings> range(String term) {
+        return dictionary.subMap(term, true, term + Character.MAX_VALUE, false);
+    }
+
+    private long estimate(String term) {
+        long total = 0;
+        for (Postings p : range(term).values()) total += p.size;
+        return total;
+    }
+
+    private Hits probe(Hits acc, String term) {
+        int[] ids = new int[acc.size];
+        int[] scores = new int[acc.size];
+        int size = 0;
+        for (int i = 0; i < acc.size; i++) {
+            int s = docs.get(acc.ids[i]).match(term);
+            if (s == 0) continue;
+            ids[size] = acc.ids[i];
+            scores[size++] = acc.scores[i] + s;
+        }
+        return new Hits(ids, scores, size);
+    }
+
+    private Hits matchPrefix(String term) {
+        Map<String, Postings> range = range(term);
+        if (range.size() == 1) {
+            Map.Entry<String, Postings> e = range.entrySet().iterator().next();
+            Postings p = e.getValue();
+            int[] scores = Arrays.copyOf(p.weights, p.size);
+            if (e.getKey().equals(term)) for (int i = 0; i < scores.length; i++) scores[i] *= 2;
+            return new Hits(p.ids, scores, p.size);
+        }
+        // several tokens share the prefix: merge their postings by id
+        int total = 0;
+        for (Postings p : range.values()) total += p.size;
+        long[] packed = new long[total];
+        int n = 0;
+        for (Map.Entry<String, Postings> e : range.entrySet()) {
+            Postings p = e.getValue();
+            int boost = e.getKey().equals(term) ? 2 : 1;
+            for (int i = 0; i < p.size; i++) packed[n++] = ((long) p.ids[i] << 32) | ((p.weights[i] * boost) & 0xffffffffL);
+        }
+        Arrays.sort(packed);
+        int[] ids = new int[total];
+        int[] scores = new int[total];
+        int size = 0;
+        for (long v : packed) {
+            int id = (int) (v >> 32);
+            int score = (int) v;
+            if (size > 0 && ids[size - 1] == id) scores[size - 1] += score;
+            else { ids[size] = id; scores[size] = score; size++; }
+        }
+        return new Hits(ids, scores, size);
+    }
+
+    private static Hits intersect(Hits a, Hits b) {
+        int n = Math.min(a.size, b.size);
+        int[] ids = new int[n];
+        int[] scores = new int[n];
+        int size = 0;
+        for (int i = 0, j = 0; i < a.size && j < b.size; ) {
+            if (a.ids[i] < b.ids[j]) i++;
+            else if (a.ids[i] > b.ids[j]) j++;
+            else {
+                ids[size] = a.ids[i];
+                scores[size++] = a.scores[i++] + b.scores[j++];
+            }
+        }
+        return new Hits(ids, scores, size);
+    }
+
+    private static int[] topK(Hits h, int limit) {
+        // order: higher score first, then lower id
+        PriorityQueue<long[]> heap = new PriorityQueue<>((x, y) ->
+                x[1] != y[1] ? Long.compare(x[1], y[1]) : Long.compare(y[0], x[0]));
+        for (int i = 0; i < h.size; i++) {
+            if (heap.size() < limit) heap.add(new long[]{h.ids[i], h.scores[i]});
+            else {
+                long[] worst = heap.peek();
+                if (h.scores[i] > worst[1]) {
+                    heap.poll();
+                    heap.add(new long[]{h.ids[i], h.scores[i]});
+                }
+            }
+        }
+        int[] out = new int[heap.size()];
+        for (int i = out.length - 1; i >= 0; i--) out[i] = (int) heap.poll()[0];
+        return out;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) start = i;
+            else if (!word && start >= 0) {
+                out.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return out;
+    }
+}
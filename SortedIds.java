@@ -0,0 +1,296 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Record ids kept in the order of a key of their records (title, name...),
+ * ties broken by id, so a sorted page is a slice of the index instead of a
+ * sort of the collection. Each entry keeps the key it was sorted by, so a
+ * record changed in place before it is re-indexed is still found and moved.
+ *
+ * Entries sit in blocks of at most {@value #BLOCK}, with the position of
+ * each block's first entry alongside, so an insert or removal shifts one
+ * block instead of the whole index and a position is found by binary
+ * search. Bulk changes go through {@link #addAll}, which merges.
+ *
+ * An index starts unbuilt: it ignores changes until {@link #rebuild}, so
+ * one nobody sorts by costs nothing. Not thread-safe; reads do not modify it.
+ */
+public final class SortedIds<K> {
+    static final int BLOCK = 512;
+    // below this many, addAll inserts one by one instead of merging
+    private static final int MERGE_THRESHOLD = 64;
+
+    /** A sort order over record ids: by key, then by id. */
+    public static final class Order<K> {
+        final IntFunction<K> keyOf;
+        final Comparator<? super K> keys;
+        final Function<String, K> parse;
+
+        /**
+         * {@code keyOf} gives the key of the record with an id (never null
+         * for a live record); {@code parse} turns a key's toString back into
+         * the key, for cursors.
+         */
+        public Order(IntFunction<K> keyOf, Comparator<? super K> keys, Function<String, K> parse) {
+            this.keyOf = keyOf;
+            this.keys = keys;
+            this.parse = parse;
+        }
+
+        int compare(K a, int aId, K b, int bId) {
+            int c = keys.compare(a, b);
+            return c != 0 ? c : Integer.compare(aId, bId);
+        }
+
+        /**
+         * First of {@code size} positions, in ascending order, whose entry comes
+         * after ({@code key}, {@code id}); {@code size} if none does.
+         */
+        int after(int size, IntUnaryOperator idAt, IntFunction<K> keyAt, K key, int id) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(keyAt.apply(mid), idAt.applyAsInt(mid), key, id) <= 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        /** Sorts {@code ids} into this order. */
+        void sort(int[] ids) {
+            Entry<K>[] sorted = entries(ids, ids.length);
+            for (int i = 0; i < ids.length; i++) ids[i] = sorted[i].id;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Entry<K>[] entries(int[] ids, int n) {
+            Entry<K>[] out = new Entry[n];
+            for (int i = 0; i < n; i++) out[i] = new Entry<>(keyOf.apply(ids[i]), ids[i]);
+            Arrays.parallelSort(out, (a, b) -> compare(a.key, a.id, b.key, b.id));
+            return out;
+        }
+    }
+
+    private static final class Entry<K> {
+        final K key;
+        final int id;
+
+        Entry(K key, int id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+    private final Order<K> order;
+    private boolean built;
+    private int size;
+    private int blocks;
+    private int[][] blockIds = new int[4][];
+    private Object[][] blockKeys = new Object[4][];
+    private int[] counts = new int[4];
+    // position of each block's first entry
+    private int[] starts = new int[4];
+
+    public SortedIds(Order<K> order) {
+        this.order = order;
+    }
+
+    public Order<K> order() { return order; }
+
+    /** False until the first {@link #rebuild}, and again after {@link #drop}. */
+    public boolean isBuilt() { return built; }
+
+    public int size() { return size; }
+
+    public int idAt(int pos) {
+        int b = blockOf(pos);
+        return blockIds[b][pos - starts[b]];
+    }
+
+    @SuppressWarnings("unchecked")
+    public K keyAt(int pos) {
+        int b = blockOf(pos);
+        return (K) blockKeys[b][pos - starts[b]];
+    }
+
+    /** Indexes exactly the first {@code n} of {@code ids}. */
+    public void rebuild(int[] ids, int n) {
+        clear();
+        built = true;
+        addAll(ids, n);
+    }
+
+    /** Forgets everything and stops following changes until the next {@link #rebuild}. */
+    public void drop() {
+        clear();
+        built = false;
+    }
+
+    /** Inserts a record that is not in the index yet. */
+    public void add(int id) {
+        if (!built) return;
+        K key = order.keyOf.apply(id);
+        insertAt(order.after(size, this::idAt, this::keyAt, key, id), id, key);
+    }
+
+    /** Inserts the first {@code n} of {@code added}, none of which is in the index yet. */
+    public void addAll(int[] added, int n) {
+        if (!built) return;
+        if (n < MERGE_THRESHOLD) {
+            for (int i = 0; i < n; i++) add(added[i]);
+            return;
+        }
+        Entry<K>[] sorted = order.entries(added, n);
+        int[][] oldIds = blockIds;
+        Object[][] oldKeys = blockKeys;
+        int[] oldCounts = counts;
+        int oldBlocks = blocks;
+        clear();
+        // merge, filling blocks three quarters full so later inserts rarely split
+        int b = 0, i = 0, j = 0;
+        while (b < oldBlocks || j < n) {
+            if (b < oldBlocks && i == oldCounts[b]) {
+                b++;
+                i = 0;
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            boolean old = j == n || b < oldBlocks
+                    && order.compare((K) oldKeys[b][i], oldIds[b][i], sorted[j].key, sorted[j].id) < 0;
+            if (old) {
+                append(oldIds[b][i], oldKeys[b][i]);
+                i++;
+            } else {
+                append(sorted[j].id, sorted[j].key);
+                j++;
+            }
+        }
+    }
+
+    /** Removes a record; false if it was not indexed. */
+    public boolean remove(int id) {
+        if (!built) return false;
+        int pos = find(id);
+        if (pos < 0) return false;
+        int b = blockOf(pos);
+        int at = pos - starts[b];
+        int count = counts[b];
+        System.arraycopy(blockIds[b], at + 1, blockIds[b], at, count - at - 1);
+        System.arraycopy(blockKeys[b], at + 1, blockKeys[b], at, count - at - 1);
+        blockKeys[b][count - 1] = null;
+        counts[b]--;
+        for (int i = b + 1; i < blocks; i++) starts[i]--;
+        size--;
+        if (counts[b] == 0) removeBlock(b);
+        return true;
+    }
+
+    private int find(int id) {
+        K key = order.keyOf.apply(id);
+        if (key != null) {
+            int pos = order.after(size, this::idAt, this::keyAt, key, id) - 1;
+            if (pos >= 0 && idAt(pos) == id) return pos;
+        }
+        // the record's key changed since it was indexed
+        for (int b = 0; b < blocks; b++) {
+            for (int i = 0; i < counts[b]; i++) if (blockIds[b][i] == id) return starts[b] + i;
+        }
+        return -1;
+    }
+
+    private void clear() {
+        blocks = 0;
+        size = 0;
+        blockIds = new int[4][];
+        blockKeys = new Object[4][];
+        counts = new int[4];
+        starts = new int[4];
+    }
+
+    /** Block holding position {@code pos}: the last one starting at or before it. */
+    private int blockOf(int pos) {
+        int lo = 0, hi = blocks - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= pos) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private void insertAt(int pos, int id, K key) {
+        if (blocks == 0) addBlock(0);
+        int b = pos == size ? blocks - 1 : blockOf(pos);
+        if (counts[b] == BLOCK) {
+            split(b);
+            if (pos - starts[b] > counts[b]) b++;
+        }
+        int at = pos - starts[b];
+        int count = counts[b];
+        System.arraycopy(blockIds[b], at, blockIds[b], at + 1, count - at);
+        System.arraycopy(blockKeys[b], at, blockKeys[b], at + 1, count - at);
+        blockIds[b][at] = id;
+        blockKeys[b][at] = key;
+        counts[b]++;
+        for (int i = b + 1; i < blocks; i++) starts[i]++;
+        size++;
+    }
+
+    /** Adds an entry after all others, during a merge. */
+    private void append(int id, Object key) {
+        if (blocks == 0 || counts[blocks - 1] == BLOCK * 3 / 4) addBlock(blocks);
+        int b = blocks - 1;
+        blockIds[b][counts[b]] = id;
+        blockKeys[b][counts[b]++] = key;
+        size++;
+    }
+
+    /** Inserts an empty block at index {@code b}. */
+    private void addBlock(int b) {
+        if (blocks == blockIds.length) {
+            int capacity = blocks * 2;
+            blockIds = Arrays.copyOf(blockIds, capacity);
+            blockKeys = Arrays.copyOf(blockKeys, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+        }
+        System.arraycopy(blockIds, b, blockIds, b + 1, blocks - b);
+        System.arraycopy(blockKeys, b, blockKeys, b + 1, blocks - b);
+        System.arraycopy(counts, b, counts, b + 1, blocks - b);
+        System.arraycopy(starts, b, starts, b + 1, blocks - b);
+        blockIds[b] = new int[BLOCK];
+        blockKeys[b] = new Object[BLOCK];
+        counts[b] = 0;
+        starts[b] = b == 0 ? 0 : starts[b - 1] + counts[b - 1];
+        blocks++;
+    }
+
+    private void removeBlock(int b) {
+        if (blocks == 1) {
+            clear();
+            return;
+        }
+        System.arraycopy(blockIds, b + 1, blockIds, b, blocks - b - 1);
+        System.arraycopy(blockKeys, b + 1, blockKeys, b, blocks - b - 1);
+        System.arraycopy(counts, b + 1, counts, b, blocks - b - 1);
+        System.arraycopy(starts, b + 1, starts, b, blocks - b - 1);
+        blocks--;
+        blockIds[blocks] = null;
+        blockKeys[blocks] = null;
+    }
+
+    /** Moves the upper half of full block {@code b} into a new block after it. */
+    private void split(int b) {
+        addBlock(b + 1);
+        int half = BLOCK / 2;
+        System.arraycopy(blockIds[b], half, blockIds[b + 1], 0, BLOCK - half);
+        System.arraycopy(blockKeys[b], half, blockKeys[b + 1], 0, BLOCK - half);
+        Arrays.fill(blockKeys[b], half, BLOCK, null);
+        counts[b] = half;
+        counts[b + 1] = BLOCK - half;
+        starts[b + 1] = starts[b] + half;
+    }
+}
@@ -0,0 +1,57 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide table of canonical values for low-cardinality text fields
+ * (book authors and categories). Each distinct value is kept once and gets
+ * a small int code, so a record stores the code instead of its own copy of
+ * the string, and filters compare codes. Code 0 is null.
+ *
+ * Codes are handed out in first-seen order and mean nothing outside this
+ * process; files store the strings (see {@link BinaryStore}). Values are
+ * never removed, so a table is as large as the number of distinct values
+ * seen since startup, which for these fields is small.
+ */
+public final class StringDictionary {
+    public static final StringDictionary AUTHORS = new StringDictionary();
+    public static final StringDictionary CATEGORIES = new StringDictionary();
+
+    /** Returned by {@link #find} for a value no record has used. */
+    public static final int ABSENT = -1;
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[64];
+    private int size = 1;
+
+    /** Code of {@code s}, adding it if it is new. */
+    public int encode(String s) {
+        if (s == null) return 0;
+        Integer code = codes.get(s);
+        if (code != null) return code;
+        synchronized (this) {
+            code = codes.get(s);
+            if (code != null) return code;
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            // the value is in place before the code can be seen by anyone
+            values[size] = s;
+            codes.put(s, size);
+            return size++;
+        }
+    }
+
+    /** Code of {@code s} without adding it: {@link #ABSENT} if it is new. */
+    public int find(String s) {
+        if (s == null) return 0;
+        Integer code = codes.get(s);
+        return code != null ? code : ABSENT;
+    }
+
+    public String decode(int code) {
+        return values[code];
+    }
+
+    /** Distinct values, null not counted. */
+    public int size() {
+        return codes.size();
+    }
+}
@@ -0,0 +1,115 @@
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic catalog for benchmarks. The same (size, seed) always
+ * produces byte-identical snapshot files, so numbers are comparable across
+ * commits.
+ *
+ * For {@code size} books it generates size/10 members and size/2 loans, one
+ * in five of them still active. Authors and categories come from small pools
+ * so they repeat the way they do in a real catalog.
+ */
+public final class SyntheticData {
+    public static final long DEFAULT_SEED = 42L;
+
+    private static final String[] WORDS = {
+        "history", "introduction", "principles", "modern", "theory", "practice", "art", "science",
+        "guide", "world", "physics", "chemistry", "algebra", "calculus", "programming", "systems",
+        "design", "analysis", "economics", "poetry", "stories", "war", "peace", "river", "night",
+        "garden", "empire", "data", "machine", "learning", "music", "language", "ocean", "stars",
+        "city", "mind", "life", "time", "light", "shadow", "journey", "secret", "letters", "essays"
+    };
+    private static final String[] CATEGORIES = {
+        "Physics", "Chemistry", "Mathematics", "Computer Science", "History", "Fiction", "Poetry",
+        "Economics", "Biology", "Philosophy", "Art", "Music", "Engineering", "Law", "Medicine",
+        "Geography", "Languages", "Reference", "Children", "Travel"
+    };
+    private static final String[] FIRST = {"Anna", "Ravi", "Chen", "Maria", "John", "Aisha", "Yuki",
+        "Pedro", "Olga", "Samir", "Lena", "Tom", "Priya", "Kofi", "Ines", "Arjun"};
+    private static final String[] LAST = {"Sharma", "Smith", "Garcia", "Ivanova", "Kim", "Okafor",
+        "Rossi", "Muller", "Tanaka", "Silva", "Khan", "Nguyen", "Brown", "Haddad", "Novak", "Shahi"};
+
+    private static final LocalDate EPOCH = LocalDate.of(2015, 1, 1);
+
+    private SyntheticData() {}
+
+    /** Writes books/users/issues snapshots for a catalog of {@code size} books into {@code dir}. */
+    public static void write(File dir, int size, long seed) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        Random rnd = new Random(seed);
+        int authorPool = Math.max(10, size / 50);
+
+        List<Book> books = new ArrayList<>(size);
+        for (int id = 1; id <= size; id++) {
+            String title = capitalize(WORDS[rnd.nextInt(WORDS.length)]) + " "
+                    + WORDS[rnd.nextInt(WORDS.length)] + " " + WORDS[rnd.nextInt(WORDS.length)] + " " + id;
+            int a = rnd.nextInt(authorPool);
+            String author = FIRST[a % FIRST.length] + " " + LAST[(a / FIRST.length) % LAST.length] + " " + a;
+            String isbn = String.format("978-%d-%05d-%03d-%d", rnd.nextInt(10), rnd.nextInt(100000),
+                    id % 1000, rnd.nextInt(10));
+            books.add(new Book(id, title, author, isbn, 1 + rnd.nextInt(5), CATEGORIES[rnd.nextInt(CATEGORIES.length)]));
+        }
+
+        int userCount = Math.max(1, size / 10);
+        List<User> users = new ArrayList<>(userCount);
+        for (int id = 1; id <= userCount; id++) {
+            String name = FIRST[rnd.nextInt(FIRST.length)] + " " + LAST[rnd.nextInt(LAST.length)];
+            String email = "member" + id + "@library.example";
+            String phone = String.format("98%08d", rnd.nextInt(100_000_000));
+            if (id % 50 == 0) users.add(new Librarian(id, name, email, phone));
+            else users.add(new Student(id, name, email, phone, "R" + (100000 + id)));
+        }
+
+        int loanCount = size / 2;
+        List<IssueRecord> issues = new ArrayList<>(loanCount);
+        for (int id = 1; id <= loanCount; id++) {
+            Book b = books.get(rnd.nextInt(size));
+            LocalDate issued = EPOCH.plusDays(3650L * id / Math.max(1, loanCount));
+            IssueRecord rec = new IssueRecord(id, b.getId(), 1 + rnd.nextInt(userCount), issued, issued.plusDays(14));
+            // one in five loans still out, if a copy is left
+            if (rnd.nextInt(5) != 0 || !b.issueOne()) rec.setReturnDate(issued.plusDays(1 + rnd.nextInt(30)));
+            issues.add(rec);
+        }
+
+        BinaryStore.writeBooks(new File(dir, "books.bin"), books, size);
+        BinaryStore.writeUsers(new File(dir, "users.bin"), users, userCount);
+        BinaryStore.writeIssues(new File(dir, "issues.bin"), issues, loanCount);
+        // a stale journal would be replayed on top of the fresh snapshot
+        File[] journal = dir.listFiles((d, name) -> name.startsWith("journal") || name.equals("library.journal"));
+        if (journal != null) for (File f : journal) f.delete();
+        // and archived loans of an earlier catalog would show up in its history
+        File[] archived = new File(dir, "archive").listFiles((d, name) -> name.startsWith("loans-"));
+        if (archived != null) for (File f : archived) f.delete();
+    }
+
+    /** Search queries drawn from the same vocabulary as the titles (one or two words). */
+    public static String[] queries(int n, long seed) {
+        Random rnd = new Random(seed);
+        String[] out = new String[n];
+        for (int i = 0; i < n; i++) {
+            String w = WORDS[rnd.nextInt(WORDS.length)];
+            out[i] = rnd.nextBoolean() ? w : w + " " + WORDS[rnd.nextInt(WORDS.length)].substring(0, 3);
+        }
+        return out;
+    }
+
+    private static String capitalize(String w) {
+        return Character.toUpperCase(w.charAt(0)) + w.substring(1);
+    }
+
+    /** Writes a catalog into a data directory, e.g. for LibraryServer and LibraryLoadTest. */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java SyntheticData <data-dir> <books> [seed]");
+            System.exit(2);
+        }
+        File dir = new File(args[0]);
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        write(dir, Integer.parseInt(args[1]), args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED);
+    }
+}
@@ -0,0 +1,104 @@
+import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ * Text field with a live list of the best matches, for choosing one record
+ * out of a catalog too large for a combo box. Each keystroke (after a short
+ * pause) runs {@code search} off the EDT and shows its results; answers to
+ * queries that have since been retyped are dropped. The list holds the
+ * records themselves, so callers get real ids without parsing labels.
+ */
+public class TypeAheadPicker<T> extends JPanel {
+    private static final int DELAY_MS = 120;
+
+    private final Function<String, List<T>> search;
+    private final JTextField field = new JTextField(30);
+    private final DefaultListModel<T> matches = new DefaultListModel<>();
+    private final JList<T> list = new JList<>(matches);
+    private final Timer debounce;
+    private int generation;
+
+    /** {@code search} maps the typed text to the matches to show; {@code label} renders one. */
+    public TypeAheadPicker(Function<String, List<T>> search, Function<T, String> label) {
+        super(new BorderLayout(4, 4));
+        this.search = search;
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setVisibleRowCount(8);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> l, Object value, int index, boolean selected,
+                                                          boolean focus) {
+                @SuppressWarnings("unchecked")
+                String text = label.apply((T) value);
+                return super.getListCellRendererComponent(l, text, index, selected, focus);
+            }
+        });
+        add(field, BorderLayout.NORTH);
+        add(new JScrollPane(list), BorderLayout.CENTER);
+
+        debounce = new Timer(DELAY_MS, e -> refresh());
+        debounce.setRepeats(false);
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { debounce.restart(); }
+            public void removeUpdate(DocumentEvent e) { debounce.restart(); }
+            public void changedUpdate(DocumentEvent e) { debounce.restart(); }
+        });
+        // arrow keys move through the matches without leaving the field
+        field.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                int i = list.getSelectedIndex();
+                if (e.getKeyCode() == KeyEvent.VK_DOWN && i < matches.size() - 1) select(i + 1);
+                else if (e.getKeyCode() == KeyEvent.VK_UP && i > 0) select(i - 1);
+            }
+        });
+    }
+
+    /** The chosen record, or null. */
+    public T getSelected() {
+        return list.getSelectedValue();
+    }
+
+    public JTextField getField() { return field; }
+
+    private void select(int i) {
+        list.setSelectedIndex(i);
+        list.ensureIndexIsVisible(i);
+    }
+
+    private void refresh() {
+        String text = field.getText().trim();
+        int mine = ++generation;
+        if (text.isEmpty()) {
+            matches.clear();
+            return;
+        }
+        new SwingWorker<List<T>, Void>() {
+            @Override
+            protected List<T> doInBackground() {
+                return search.apply(text);
+            }
+
+            @Override
+            protected void done() {
+                if (mine != generation) return;
+                List<T> found;
+                try {
+                    found = get();
+                } catch (Exception ex) {
+                    found = new ArrayList<>();
+                }
+                matches.clear();
+                for (T t : found) matches.addElement(t);
+                if (!found.isEmpty()) select(0);
+            }
+        }.execute();
+    }
+}
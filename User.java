@@ -7,6 +7,8 @@ public abstract class User implements Serializable {
     protected String name;
     protected String email;
     protected String phone;
+    // edits saved so far; an edit made from an older version is refused (see Library.updateUser)
+    protected int version;
 
     public User(int id, String name, String email, String phone) {
         this.id = id;
@@ -24,6 +26,8 @@ public abstract class User implements Serializable {
     public void setEmail(String email) { this.email = email; }
     public String getPhone() { return phone; }
     public void setPhone(String phone) { this.phone = phone; }
+    public int getVersion() { return version; }
+    public void setVersion(int version) { this.version = version; }
 
     @Override
     public String toString() {
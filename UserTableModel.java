@@ -0,0 +1,56 @@
+/** Members table that pages through {@link Library#queryUsers}; id and name columns sort. */
+public class UserTableModel extends PagedTableModel<User> {
+    private static final String[] COLUMNS = {"ID", "Name", "Type", "Email", "Phone", "Extra"};
+    private static final Query.Members.Sort[] SORTS = {Query.Members.Sort.ID, Query.Members.Sort.NAME,
+            null, null, null, null};
+
+    private final Library library;
+    private Query.Members.Sort sort = Query.Members.Sort.ID;
+    private boolean descending;
+
+    public UserTableModel(Library library) {
+        this.library = library;
+    }
+
+    @Override
+    protected Page<User> fetch(int offset, int limit) {
+        return library.queryUsers(new Query.Members().sort(sort).descending(descending).offset(offset).limit(limit));
+    }
+
+    @Override
+    protected int idOf(User u) { return u.getId(); }
+
+    @Override
+    public boolean sortBy(int column) {
+        if (SORTS[column] == null) return false;
+        descending = SORTS[column] == sort && !descending;
+        sort = SORTS[column];
+        fireTableDataChanged();
+        return true;
+    }
+
+    public User getUserAt(int row) { return getRowAt(row); }
+
+    @Override
+    public int getColumnCount() { return COLUMNS.length; }
+
+    @Override
+    public String getColumnName(int c) { return COLUMNS[c]; }
+
+    @Override
+    public Class<?> getColumnClass(int c) { return c == 0 ? Integer.class : String.class; }
+
+    @Override
+    public Object getValueAt(int r, int c) {
+        User u = getUserAt(r);
+        if (u == null) return null;
+        switch (c) {
+            case 0: return u.getId();
+            case 1: return u.getName();
+            case 2: return (u instanceof Student) ? "Student" : "Librarian";
+            case 3: return u.getEmail();
+            case 4: return u.getPhone();
+            default: return (u instanceof Student) ? ((Student) u).getRollNumber() : "-";
+        }
+    }
+}
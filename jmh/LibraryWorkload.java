@@ -0,0 +1,102 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * The operations bench.LibraryBenchmark times, on a Library over a fresh
+ * copy of the reproducible {@link SyntheticData} catalog. JMH only accepts
+ * benchmarks in a named package, and those cannot name classes of the
+ * default package, so the benchmark looks this class up by name once and
+ * calls each operation through its Callable.
+ */
+public final class LibraryWorkload implements AutoCloseable {
+    private final File dir;
+    private final Library library;
+    private final int size;
+    private final String[] queries = SyntheticData.queries(1024, 11);
+    private final Random rnd = new Random(7);
+    private int counter;
+    // issueReturn: a book with plenty of copies, so it never runs dry
+    private final Book desk;
+    private final LocalDate today = LocalDate.now();
+
+    public LibraryWorkload(int size) throws IOException {
+        this.size = size;
+        dir = Files.createTempDirectory("library-bench").toFile();
+        SyntheticData.write(dir, size, SyntheticData.DEFAULT_SEED);
+        library = new Library(dir);
+        desk = library.addBook("Benchmark copy", "Bench", "0", 1_000_000, "Reference");
+    }
+
+    /** The named operation; its result is for JMH to consume. */
+    public Callable<Object> op(String name) {
+        switch (name) {
+            case "findBookById": return () -> library.findBookById(1 + rnd.nextInt(size));
+            case "getActiveIssues": return () -> library.getActiveIssues().size();
+            case "searchScan": return () -> scanSearch(queries[counter++ & 1023]);
+            case "searchIndex": return () -> library.searchBooks(queries[counter++ & 1023], 100).size();
+            case "filterBooks": return () -> library.filterBooks(null, "Poetry", Integer.MAX_VALUE).size();
+            case "bookFacets": return () ->
+                    library.getBookFacets(new Query.Books().category("Poetry").availableOnly(true), 10).total;
+            case "saveAll": return this::saveAll;
+            case "loadAll": return () -> {
+                library.loadAll();
+                return library.getBookCount();
+            };
+            case "addBook": return () -> {
+                int i = counter++;
+                return library.addBook("New title " + i, "Author " + (i % 500), "isbn-" + i, 1, "Fiction");
+            };
+            case "issueReturn": return () -> {
+                IssueRecord rec = library.issueBook(desk.getId(), 1 + rnd.nextInt(library.getUserCount()),
+                        today, today.plusDays(14));
+                library.returnBook(rec.getId(), today);
+                return rec;
+            };
+            default: throw new IllegalArgumentException("No operation " + name);
+        }
+    }
+
+    /** The catalog search as LibraryGUI used to do it: lower-case contains over every book. */
+    private long scanSearch(String query) {
+        String q = query.toLowerCase();
+        long hits = 0;
+        for (int row = 0, n = library.getBookCount(); row < n; row++) {
+            Book b = library.getBookAt(row);
+            if (b.getTitle().toLowerCase().contains(q)
+                    || b.getAuthor().toLowerCase().contains(q)
+                    || b.getIsbn().toLowerCase().contains(q)) hits++;
+        }
+        return hits;
+    }
+
+    /**
+     * saveAll on an unchanged library finds no sealed segment and returns at
+     * once; one edit before each call makes it seal a segment and rewrite
+     * the snapshot files. Only the edit version changes, so the catalog
+     * keeps its size.
+     */
+    private Object saveAll() throws Exception {
+        Book b = library.findBookById(1 + counter++ % size);
+        Book edit = new Book(b.getId(), b.getTitle(), b.getAuthor(), b.getIsbn(), b.getTotalCopies(), b.getCategory());
+        edit.setVersion(b.getVersion());
+        library.updateBook(edit);
+        library.saveAll();
+        return edit;
+    }
+
+    @Override
+    public void close() throws IOException {
+        library.close();
+        deleteRecursively(dir);
+    }
+
+    private static void deleteRecursively(File f) throws IOException {
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) deleteRecursively(c);
+        Files.deleteIfExists(f.toPath());
+    }
+}
@@ -0,0 +1,100 @@
+package bench;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the Library paths the desks depend on, run against the
+ * reproducible synthetic catalog at each {@link #size}. The operations
+ * themselves are in LibraryWorkload (see there why).
+ *
+ * Build and run with the jmh profile, e.g. only the searches at 100k books:
+ * {@code mvn -Pjmh package && java -jar target/benchmarks.jar search -p size=100000}
+ *
+ * Every benchmark gets a forked JVM and a fresh copy of the catalog, so the
+ * mutating ones (addBook, issueReturn, saveAll) cannot skew the others.
+ * Results are returned to JMH, which consumes them so the JIT cannot drop
+ * the work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class LibraryBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private AutoCloseable workload;
+    private Callable<Object> findBookById, getActiveIssues, searchScan, searchIndex, filterBooks, bookFacets,
+            saveAll, loadAll, addBook, issueReturn;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        workload = (AutoCloseable) Class.forName("LibraryWorkload").getConstructor(int.class).newInstance(size);
+        findBookById = op("findBookById");
+        getActiveIssues = op("getActiveIssues");
+        searchScan = op("searchScan");
+        searchIndex = op("searchIndex");
+        filterBooks = op("filterBooks");
+        bookFacets = op("bookFacets");
+        saveAll = op("saveAll");
+        loadAll = op("loadAll");
+        addBook = op("addBook");
+        issueReturn = op("issueReturn");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Callable<Object> op(String name) throws Exception {
+        return (Callable<Object>) workload.getClass().getMethod("op", String.class).invoke(workload, name);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        workload.close();
+    }
+
+    @Benchmark
+    public Object findBookById() throws Exception { return findBookById.call(); }
+
+    @Benchmark
+    public Object getActiveIssues() throws Exception { return getActiveIssues.call(); }
+
+    @Benchmark
+    public Object searchScan() throws Exception { return searchScan.call(); }
+
+    @Benchmark
+    public Object searchIndex() throws Exception { return searchIndex.call(); }
+
+    @Benchmark
+    public Object filterBooks() throws Exception { return filterBooks.call(); }
+
+    @Benchmark
+    public Object bookFacets() throws Exception { return bookFacets.call(); }
+
+    @Benchmark
+    public Object saveAll() throws Exception { return saveAll.call(); }
+
+    @Benchmark
+    public Object loadAll() throws Exception { return loadAll.call(); }
+
+    @Benchmark
+    public Object addBook() throws Exception { return addBook.call(); }
+
+    @Benchmark
+    public Object issueReturn() throws Exception { return issueReturn.call(); }
+}